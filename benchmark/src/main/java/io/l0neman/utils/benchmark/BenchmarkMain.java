@@ -0,0 +1,44 @@
+package io.l0neman.utils.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 依次使用 1、4、16 个线程运行基准测试。
+ * <p>
+ * 参数与 JMH 命令行参数相同，指定 -t 时只使用指定的线程数。
+ */
+public final class BenchmarkMain {
+
+  private static final int[] THREADS = {1, 4, 16};
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    final CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.getThreads().hasValue()) {
+      new Runner(cmd).run();
+      return;
+    }
+
+    for (int threads : THREADS) {
+      final ChainedOptionsBuilder options = new OptionsBuilder()
+          .parent(cmd)
+          .threads(threads);
+      if (cmd.getIncludes().isEmpty()) {
+        options.include(DirStoreBenchmark.class.getSimpleName())
+            .include(SerialExecutorBenchmark.class.getSimpleName());
+      }
+
+      if (!cmd.getResult().hasValue()) {
+        options.result("build/jmh-result-t" + threads + ".json")
+            .resultFormat(ResultFormatType.JSON);
+      }
+
+      new Runner(options.build()).run();
+    }
+  }
+}
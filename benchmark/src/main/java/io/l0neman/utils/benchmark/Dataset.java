@@ -0,0 +1,65 @@
+package io.l0neman.utils.benchmark;
+
+import java.util.Random;
+
+/**
+ * 基准测试数据集，按固定种子生成文件名和值，每次运行的数据相同。
+ * <p>
+ * 值由重复的随机片段组成，接近实际数据的可压缩程度。
+ */
+final class Dataset {
+
+  /* 数据集总大小上限，值较大时减少文件数量 */
+  private static final long MAX_TOTAL_BYTES = 256L * 1024 * 1024;
+  private static final int MAX_KEYS = 1024;
+
+  private final String[] mKeys;
+  private final byte[][] mValues;
+
+  /**
+   * @param valueSize 每个值的字节数。
+   * @param seed      随机种子。
+   */
+  Dataset(int valueSize, long seed) {
+    final int count = (int) Math.max(1, Math.min(MAX_KEYS, MAX_TOTAL_BYTES / valueSize));
+    final Random random = new Random(seed);
+    mKeys = new String[count];
+    // 值数量少于文件数量，避免较大数据集占用过多内存。
+    mValues = new byte[Math.min(count, 8)][];
+
+    for (int i = 0; i < count; i++) {
+      mKeys[i] = "key-" + i;
+    }
+
+    for (int i = 0; i < mValues.length; i++) {
+      mValues[i] = newValue(random, valueSize);
+    }
+  }
+
+  private static byte[] newValue(Random random, int size) {
+    final byte[] value = new byte[size];
+    final byte[] chunk = new byte[64];
+    for (int offset = 0; offset < size; offset += chunk.length) {
+      // 一半片段重复上一个片段。
+      if (offset == 0 || random.nextBoolean()) {
+        random.nextBytes(chunk);
+      }
+
+      System.arraycopy(chunk, 0, value, offset, Math.min(chunk.length, size - offset));
+    }
+
+    return value;
+  }
+
+  int size() {
+    return mKeys.length;
+  }
+
+  String key(int i) {
+    return mKeys[i];
+  }
+
+  byte[] value(int i) {
+    return mValues[i % mValues.length];
+  }
+}
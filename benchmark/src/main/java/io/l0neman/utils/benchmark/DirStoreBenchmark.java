@@ -0,0 +1,150 @@
+package io.l0neman.utils.benchmark;
+
+import io.l0neman.utils.general.storage.CallbackExecutors;
+import io.l0neman.utils.general.storage.DirStore;
+import io.l0neman.utils.general.storage.IDirStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DirStore 读写基准测试。
+ * <p>
+ * 吞吐量（Throughput）和延迟分布（SampleTime，包含 p99）两种模式，线程数由
+ * {@link BenchmarkMain} 或 JMH 参数 -t 指定。
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public class DirStoreBenchmark {
+
+  /** 值大小：100B、10KB、1MB、10MB */
+  @Param({"100", "10240", "1048576", "10485760"})
+  public int valueSize;
+
+  /** 存储配置：默认、原子写入、原子写入 + 缓存 */
+  @Param({"default", "atomic", "cached"})
+  public String config;
+
+  private File mDir;
+  private DirStore mStore;
+  private Dataset mDataset;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    mDir = Files.createTempDirectory("ds-bench").toFile();
+    mDataset = new Dataset(valueSize, 42);
+
+    final DirStore.Builder builder = new DirStore.Builder(mDir.getPath())
+        .callbackExecutor(CallbackExecutors.direct())
+        .writeLanes(4);
+    if (!"default".equals(config)) {
+      builder.atomicWrite();
+    }
+    if ("cached".equals(config)) {
+      builder.cache(64L * 1024 * 1024, new DirStore.ValueSizer() {
+        @Override public long sizeOf(String fileName, Object value) {
+          return ((byte[]) value).length;
+        }
+      });
+    }
+
+    mStore = builder.create();
+    for (int i = 0; i < mDataset.size(); i++) {
+      store(i).write(mDataset.value(i));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mStore.close();
+    deleteRecursively(mDir);
+  }
+
+  /** 每个线程独立的随机数 */
+  @State(Scope.Thread)
+  public static class ThreadState {
+    final Random random = new Random(Thread.currentThread().getId());
+  }
+
+  private IDirStore.FileStore<byte[]> store(int i) {
+    return mStore.with(mDataset.key(i), DirStore.BYTES_IO_ADAPTER);
+  }
+
+  /* 按照读取比例执行一次读取或写入 */
+  private Object operate(ThreadState state, int readPercent) throws IOException {
+    final int i = state.random.nextInt(mDataset.size());
+    if (state.random.nextInt(100) < readPercent) {
+      return store(i).read();
+    }
+
+    store(i).write(mDataset.value(i));
+    return null;
+  }
+
+  /** 读多写少：90% 读取 */
+  @Benchmark
+  public Object readHeavy(ThreadState state) throws IOException {
+    return operate(state, 90);
+  }
+
+  /** 写多读少：10% 读取 */
+  @Benchmark
+  public Object writeHeavy(ThreadState state) throws IOException {
+    return operate(state, 10);
+  }
+
+  /** 读写各半 */
+  @Benchmark
+  public Object mixed(ThreadState state) throws IOException {
+    return operate(state, 50);
+  }
+
+  /** 异步写入，包括写入通道的排队时间 */
+  @Benchmark
+  public Object writeAsync(ThreadState state) throws InterruptedException, ExecutionException {
+    final int i = state.random.nextInt(mDataset.size());
+    return store(i).writeAsync(mDataset.value(i), null).get();
+  }
+
+  /** 异步读取，包括读取线程池的调度时间 */
+  @Benchmark
+  public Object readAsync(ThreadState state) throws InterruptedException, ExecutionException {
+    final int i = state.random.nextInt(mDataset.size());
+    return store(i).readAsync(null).get();
+  }
+
+  private static void deleteRecursively(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+
+    if (!file.delete() && file.exists()) {
+      System.err.println("delete " + file + " failed.");
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package io.l0neman.utils.benchmark;
+
+import io.l0neman.utils.general.concurrent.ExecutorCreator;
+import io.l0neman.utils.general.concurrent.SerialExecutor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 串行执行器基准测试，对比 {@link ExecutorCreator#single()} 和 {@link ExecutorCreator#serial()}。
+ * <p>
+ * 线程数即提交任务的生产者数量，由 {@link BenchmarkMain} 或 JMH 参数 -t 指定。
+ */
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public class SerialExecutorBenchmark {
+
+  /* 每次调用提交的任务数量 */
+  private static final int BATCH = 1000;
+
+  /** 执行器：single() 的 ThreadPoolExecutor 或无锁的 SerialExecutor */
+  @Param({"single", "serial"})
+  public String executor;
+
+  private Executor mExecutor;
+  /* 只在消费线程中修改 */
+  private long mCount;
+
+  private final Runnable mTask = new Runnable() {
+    @Override public void run() {
+      mCount++;
+    }
+  };
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    if ("single".equals(executor)) {
+      mExecutor = ExecutorCreator.single().create();
+    } else {
+      mExecutor = ExecutorCreator.serial().create();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    if (mExecutor instanceof ThreadPoolExecutor) {
+      final ThreadPoolExecutor pool = (ThreadPoolExecutor) mExecutor;
+      pool.shutdown();
+      pool.awaitTermination(10, TimeUnit.SECONDS);
+    } else {
+      final SerialExecutor serial = (SerialExecutor) mExecutor;
+      serial.shutdown();
+      serial.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  /** 吞吐量：连续提交一批细小任务，等待最后一个任务执行完成 */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @OperationsPerInvocation(BATCH)
+  public void batch() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    for (int i = 0; i < BATCH - 1; i++) {
+      mExecutor.execute(mTask);
+    }
+
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        done.countDown();
+      }
+    });
+    done.await();
+  }
+
+  /** 单个任务从提交到执行完成的延迟，包括唤醒空闲的消费线程 */
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void roundTrip() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        done.countDown();
+      }
+    });
+    done.await();
+  }
+}
@@ -0,0 +1,126 @@
+package io.l0neman.utils.general.concurrent;
+
+import android.os.Debug;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应线程数量计算。
+ * <p>
+ * 任务执行前后分别记录时间和线程 CPU 时间，执行时间减去 CPU 时间即为等待时间（IO、锁等），
+ * 每个统计周期结束时按照 N_cpu * U_cpu * (1 + W/C) 计算线程数，调整线程池的核心线程数。
+ */
+class AdaptiveSizer {
+
+  /* 统计周期内至少完成的任务数量 */
+  private static final int MIN_SAMPLES = 16;
+  /* W/C 的平滑系数，新周期的权重 */
+  private static final float SMOOTHING = 0.5F;
+
+  private final int mCpuCount = Runtime.getRuntime().availableProcessors();
+  private final int mMinSize;
+  private final int mMaxSize;
+  private final float mUtilization;
+  private final long mIntervalNanos;
+
+  /* 当前线程执行的任务开始时的时间和 CPU 时间 */
+  private final ThreadLocal<long[]> mStart = new ThreadLocal<long[]>() {
+    @Override protected long[] initialValue() {
+      return new long[2];
+    }
+  };
+
+  private final AtomicLong mWallNanos = new AtomicLong();
+  private final AtomicLong mCpuNanos = new AtomicLong();
+  private final AtomicInteger mSamples = new AtomicInteger();
+  private final AtomicLong mLastResize = new AtomicLong(System.nanoTime());
+  /* 平滑后的 W/C，小于 0 表示还没有完成统计周期 */
+  private volatile float mRatio = -1;
+
+  AdaptiveSizer(int minSize, int maxSize, float utilization, long intervalNanos) {
+    if (minSize < 1 || maxSize < minSize) {
+      throw new IllegalArgumentException("bad bounds: [" + minSize + ", " + maxSize + "]");
+    }
+
+    if (utilization <= 0 || utilization > 1) {
+      throw new IllegalArgumentException("utilization must be in (0, 1]: " + utilization);
+    }
+
+    this.mMinSize = minSize;
+    this.mMaxSize = maxSize;
+    this.mUtilization = utilization;
+    this.mIntervalNanos = intervalNanos;
+  }
+
+  int maxSize() {
+    return mMaxSize;
+  }
+
+  /** 初始线程数，假设任务没有等待时间 */
+  int initialSize() {
+    return sizeOf(0);
+  }
+
+  /** 最近的 W/C，还没有完成统计周期时返回 -1 */
+  float ratio() {
+    return mRatio;
+  }
+
+  private int sizeOf(float ratio) {
+    final double size = Math.ceil(mCpuCount * mUtilization * (1 + ratio));
+    return (int) Math.max(mMinSize, Math.min(mMaxSize, size));
+  }
+
+  /** 在工作线程中，任务执行前调用 */
+  void beforeExecute() {
+    final long[] start = mStart.get();
+    start[0] = System.nanoTime();
+    start[1] = threadCpuTimeNanos();
+  }
+
+  /** 在工作线程中，任务执行后调用 */
+  void afterExecute(ThreadPoolExecutor executor) {
+    final long cpuEnd = threadCpuTimeNanos();
+    final long now = System.nanoTime();
+    final long[] start = mStart.get();
+    // 系统不支持线程 CPU 时间时返回 -1，不调整。
+    if (start[1] < 0 || cpuEnd < 0) {
+      return;
+    }
+
+    final long wall = now - start[0];
+    mWallNanos.addAndGet(wall);
+    mCpuNanos.addAndGet(Math.min(cpuEnd - start[1], wall));
+    mSamples.incrementAndGet();
+
+    final long last = mLastResize.get();
+    if (now - last < mIntervalNanos || mSamples.get() < MIN_SAMPLES ||
+        !mLastResize.compareAndSet(last, now)) {
+      return;
+    }
+
+    resize(executor);
+  }
+
+  /* 当前线程的 CPU 时间，不支持时返回 -1，测试中覆盖以模拟任务负载 */
+  long threadCpuTimeNanos() {
+    return Debug.threadCpuTimeNanos();
+  }
+
+  private void resize(ThreadPoolExecutor executor) {
+    final long wall = mWallNanos.getAndSet(0);
+    final long cpu = Math.max(1, mCpuNanos.getAndSet(0));
+    mSamples.set(0);
+
+    final float ratio = Math.max(0, (wall - cpu) / (float) cpu);
+    final float last = mRatio;
+    mRatio = last < 0 ? ratio : last * (1 - SMOOTHING) + ratio * SMOOTHING;
+
+    final int size = sizeOf(mRatio);
+    if (size != executor.getCorePoolSize()) {
+      executor.setCorePoolSize(size);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package io.l0neman.utils.general.concurrent;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应线程数量的线程池，由 {@link ExecutorCreator.Creator#adaptiveSize(int, int, float)} 创建。
+ * <p>
+ * 运行时测量任务的等待时间与计算时间之比 W/C，定期调整核心线程数，最大线程数固定为上限。
+ */
+public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor {
+
+  private final AdaptiveSizer mSizer;
+
+  AdaptiveThreadPoolExecutor(AdaptiveSizer sizer, long keepAliveTime, TimeUnit unit,
+                             BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                             RejectedExecutionHandler handler) {
+    super(sizer.initialSize(), sizer.maxSize(), keepAliveTime, unit, workQueue, threadFactory,
+        handler);
+    this.mSizer = sizer;
+  }
+
+  @Override protected void beforeExecute(Thread t, Runnable r) {
+    super.beforeExecute(t, r);
+    mSizer.beforeExecute();
+  }
+
+  @Override protected void afterExecute(Runnable r, Throwable t) {
+    mSizer.afterExecute(this);
+    super.afterExecute(r, t);
+  }
+
+  /**
+   * 最近测量的等待时间与计算时间之比 W/C（平滑后）。
+   *
+   * @return 还没有完成第一个统计周期时返回 -1。
+   */
+  public float waitComputeRatio() {
+    return mSizer.ratio();
+  }
+}
@@ -1,8 +1,12 @@
 package io.l0neman.utils.general.concurrent;
 
+import androidx.annotation.RequiresApi;
+
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
@@ -30,10 +34,11 @@ import java.util.concurrent.atomic.AtomicInteger;
  *
  * </code></pre>
  * <p>
+ * W/C 难以手动估算时，可以使用 {@link Creator#adaptiveSize(int, int, float)} 在运行时测量并调整线程数。
  */
 public class ExecutorCreator {
   /** Number of CPUs */
-  private static final int CORE_NUMBER = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+  private static final int CORE_NUMBER = Runtime.getRuntime().availableProcessors();
   /** 计算密集型线程池数量 */
   private static final int COMPUTE_POOL_SIZE = CORE_NUMBER + 1;
   /** IO 密集型线程池数量 */
@@ -85,7 +90,7 @@ public class ExecutorCreator {
   /**
    * 单线程。
    * <p>
-   * 参考 {@link Executors#newSingleThreadExecutor()}
+   * 参考 {@link Executors#newSingleThreadExecutor()}，大量细小任务的场景可以使用 {@link #serial()}。
    */
   public static Creator single() {
     return new Creator()
@@ -96,6 +101,80 @@ public class ExecutorCreator {
         .threadPriority(Thread.NORM_PRIORITY);
   }
 
+  /**
+   * 无锁串行执行器，任务队列容量 4096。
+   * <p>
+   * 与 {@link #single()} 一样在单个线程中按顺序执行任务，使用无锁的环形数组队列，
+   * 提交任务不加锁也不分配节点，适合大量细小的任务，参考 {@link SerialExecutor}。
+   */
+  public static SerialCreator serial() {
+    return new SerialCreator()
+        .capacity(4096)
+        .threadLabel("serial")
+        .threadPriority(Thread.NORM_PRIORITY);
+  }
+
+  /**
+   * 串行执行器链式创建工具。
+   */
+  public static final class SerialCreator {
+    private int mCapacity = 4096;
+    private String mThreadLabel = "serial";
+    private int mThreadPriority = Thread.NORM_PRIORITY;
+    private ThreadFactory mThreadFactory;
+
+    private SerialCreator() {}
+
+    /** 任务队列容量，向上取整为 2 的幂，队列已满时提交任务的线程等待 */
+    public SerialCreator capacity(int n) {
+      mCapacity = n;
+      return this;
+    }
+
+    /**
+     * 线程标签，用于初始化默认线程工厂。
+     */
+    public SerialCreator threadLabel(String threadLabel) {
+      mThreadLabel = threadLabel;
+      return this;
+    }
+
+    /**
+     * 线程优先级，用于初始化默认线程工厂。
+     */
+    public SerialCreator threadPriority(int threadPriority) {
+      mThreadPriority = threadPriority;
+      return this;
+    }
+
+    /** 指定线程工厂 */
+    public SerialCreator threadFactory(ThreadFactory threadFactory) {
+      mThreadFactory = threadFactory;
+      return this;
+    }
+
+    /** 构建串行执行器，消费线程立即启动 */
+    public SerialExecutor create() {
+      return new SerialExecutor(mCapacity, mThreadFactory != null ? mThreadFactory :
+          new Creator.DefaultThreadFactory(mThreadLabel, mThreadPriority));
+    }
+  }
+
+  /**
+   * 优先级调度，线程数为 CPU 数，任务队列容量 256，老化周期 1 秒。
+   * <p>
+   * 创建的线程池为 {@link PriorityThreadPoolExecutor}，排队的任务按照优先级和截止时间执行。
+   */
+  public static Creator priority() {
+    return new Creator()
+        .coreSize(CORE_NUMBER)
+        .maxPoolSize(CORE_NUMBER)
+        .keepAliveTime(DEFAULT_KEEP_ALIVE_TIME, TimeUnit.SECONDS)
+        .priorityScheduling(256, 1, TimeUnit.SECONDS)
+        .threadLabel("priority")
+        .threadPriority(Thread.NORM_PRIORITY);
+  }
+
   /**
    * 自定义。
    */
@@ -103,6 +182,97 @@ public class ExecutorCreator {
     return new Creator();
   }
 
+  /**
+   * 工作窃取型，基于 {@link ForkJoinPool}，并行度为 CPU 数。
+   * <p>
+   * 每个线程使用自己的任务队列，空闲的线程从其他线程的队列尾部窃取任务，没有共享队列的竞争，
+   * 适合可以递归拆分的计算任务，参考 {@link SplitTasks}。
+   */
+  @RequiresApi(21)
+  public static WorkStealingCreator workStealing() {
+    return new WorkStealingCreator()
+        .parallelism(CORE_NUMBER)
+        .threadLabel("work stealing")
+        .threadPriority(Thread.NORM_PRIORITY);
+  }
+
+  /**
+   * 工作窃取线程池链式创建工具。
+   */
+  @RequiresApi(21)
+  public static final class WorkStealingCreator {
+    private int mParallelism = Runtime.getRuntime().availableProcessors();
+    private String mThreadLabel = "work stealing";
+    private int mThreadPriority = Thread.NORM_PRIORITY;
+    private boolean isAsyncMode = false;
+    private Thread.UncaughtExceptionHandler mHandler;
+
+    private WorkStealingCreator() {}
+
+    /** 并行度，即工作线程数量 */
+    public WorkStealingCreator parallelism(int n) {
+      mParallelism = n;
+      return this;
+    }
+
+    /**
+     * 线程标签，生成线程名为 flag: t-i(i 累计) 格式的线程。
+     */
+    public WorkStealingCreator threadLabel(String threadLabel) {
+      mThreadLabel = threadLabel;
+      return this;
+    }
+
+    /** 线程优先级 */
+    public WorkStealingCreator threadPriority(int threadPriority) {
+      mThreadPriority = threadPriority;
+      return this;
+    }
+
+    /**
+     * 异步模式，未被 join 的任务按 FIFO 顺序执行，适合事件类型的任务，
+     * 默认为 LIFO，适合递归拆分的任务。
+     */
+    public WorkStealingCreator asyncMode() {
+      isAsyncMode = true;
+      return this;
+    }
+
+    /** 任务抛出未捕获异常时的处理 */
+    public WorkStealingCreator uncaughtExceptionHandler(Thread.UncaughtExceptionHandler handler) {
+      mHandler = handler;
+      return this;
+    }
+
+    /** 构建线程池 */
+    public ForkJoinPool create() {
+      return new ForkJoinPool(mParallelism,
+          new WorkerThreadFactory(mThreadLabel, mThreadPriority), mHandler, isAsyncMode);
+    }
+  }
+
+  /* 工作窃取线程工厂，线程命名与默认线程工厂一致 */
+  @RequiresApi(21)
+  private static final class WorkerThreadFactory
+      implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+    private final String namePrefix;
+    private final int priority;
+
+    WorkerThreadFactory(String flag, int priority) {
+      this.namePrefix = flag + ": t-";
+      this.priority = priority;
+    }
+
+    @Override public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+      final ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {};
+      thread.setName(namePrefix + threadNumber.getAndIncrement());
+      thread.setPriority(priority);
+      return thread;
+    }
+  }
+
   /**
    * 线程池链式创建工具。
    * <p>
@@ -122,6 +292,15 @@ public class ExecutorCreator {
     private RejectedExecutionHandler mHandler;
     private String mThreadLabel = "thread pool" + poolNumber.getAndDecrement();
     private int mThreadPriority = Thread.NORM_PRIORITY - 1;
+    private int mAdaptiveMinSize = 0;
+    private int mAdaptiveMaxSize = 0;
+    private float mTargetUtilization = 1F;
+    private long mAdaptiveInterval = TimeUnit.SECONDS.toNanos(1);
+    private boolean isInstrumented = false;
+    private InstrumentedThreadPoolExecutor.Reporter mReporter;
+    private long mReportPeriod = 0;
+    private int mPriorityCapacity = 0;
+    private long mAgingInterval = 0;
 
     public void clear() {
       poolNumber.set(0);
@@ -134,6 +313,15 @@ public class ExecutorCreator {
       mHandler = null;
       mThreadLabel = "thread pool" + poolNumber.getAndDecrement();
       mThreadPriority = Thread.NORM_PRIORITY - 1;
+      mAdaptiveMinSize = 0;
+      mAdaptiveMaxSize = 0;
+      mTargetUtilization = 1F;
+      mAdaptiveInterval = TimeUnit.SECONDS.toNanos(1);
+      isInstrumented = false;
+      mReporter = null;
+      mReportPeriod = 0;
+      mPriorityCapacity = 0;
+      mAgingInterval = 0;
     }
 
     /** 核心线程数 */
@@ -160,6 +348,75 @@ public class ExecutorCreator {
       return this;
     }
 
+    /**
+     * 自适应线程数量，忽略 {@link #coreSize(int)} 和 {@link #maxPoolSize(int)}。
+     * <p>
+     * 统计每个任务的执行时间和线程 CPU 时间，二者之差为等待时间，每个统计周期按照
+     * N_cpu * U_cpu * (1 + W/C) 重新计算核心线程数，限制在 [minSize, maxSize] 之间，
+     * 最大线程数固定为 maxSize。创建的线程池为 {@link AdaptiveThreadPoolExecutor}，
+     * 同时使用 {@link #instrumented()} 时为 {@link InstrumentedThreadPoolExecutor}。
+     *
+     * @param minSize           最小核心线程数。
+     * @param maxSize           最大线程数。
+     * @param targetUtilization 目标 CPU 利用率 U_cpu，范围 (0, 1]。
+     */
+    public Creator adaptiveSize(int minSize, int maxSize, float targetUtilization) {
+      mAdaptiveMinSize = minSize;
+      mAdaptiveMaxSize = maxSize;
+      mTargetUtilization = targetUtilization;
+      return this;
+    }
+
+    /** 自适应线程数量的统计周期，默认为 1 秒 */
+    public Creator adaptiveInterval(long time, TimeUnit timeUnit) {
+      mAdaptiveInterval = timeUnit.toNanos(time);
+      return this;
+    }
+
+    /**
+     * 记录运行时指标：任务排队时间、执行时间的直方图，失败和拒绝数量，活跃线程数峰值。
+     * 创建的线程池为 {@link InstrumentedThreadPoolExecutor}，使用
+     * {@link InstrumentedThreadPoolExecutor#metrics()} 获得快照。
+     */
+    public Creator instrumented() {
+      isInstrumented = true;
+      return this;
+    }
+
+    /**
+     * 记录运行时指标并定期报告，参考 {@link #instrumented()}。
+     *
+     * @param reporter 报告回调，在共用的后台线程中执行。
+     * @param period   报告周期。
+     * @param timeUnit 时间单位。
+     */
+    public Creator metricsReporter(InstrumentedThreadPoolExecutor.Reporter reporter, long period,
+                                   TimeUnit timeUnit) {
+      isInstrumented = true;
+      mReporter = reporter;
+      mReportPeriod = timeUnit.toNanos(period);
+      return this;
+    }
+
+    /**
+     * 优先级调度，忽略 {@link #workQueue(BlockingQueue)} 和 {@link #maxTaskSize(int)}。
+     * <p>
+     * 使用容量为 capacity 的有界优先级队列，排队的任务按照优先级从高到低执行，优先级相同时
+     * 截止时间早的优先。任务每等待一个老化周期，优先级提升一级，直到
+     * {@link PriorityThreadPoolExecutor#PRIORITY_HIGH}。创建的线程池为
+     * {@link PriorityThreadPoolExecutor}，不能与 {@link #instrumented()} 或
+     * {@link #adaptiveSize(int, int, float)} 同时使用。
+     *
+     * @param capacity      任务队列容量，队列已满时按照最大线程数创建线程或拒绝任务。
+     * @param agingInterval 老化周期，为 0 时不老化。
+     * @param timeUnit      时间单位。
+     */
+    public Creator priorityScheduling(int capacity, long agingInterval, TimeUnit timeUnit) {
+      mPriorityCapacity = capacity;
+      mAgingInterval = timeUnit.toNanos(agingInterval);
+      return this;
+    }
+
     /** 最大任务队列数 */
     public Creator maxTaskSize(int n) {
       mMaxTaskSize = n;
@@ -243,7 +500,14 @@ public class ExecutorCreator {
         mHandler = new ThreadPoolExecutor.AbortPolicy();
       }
 
-      if (mWorkQueue == null) {
+      if (mPriorityCapacity > 0) {
+        if (isInstrumented || mAdaptiveMaxSize > 0) {
+          throw new IllegalStateException(
+              "priorityScheduling can not be combined with instrumented or adaptiveSize.");
+        }
+
+        mWorkQueue = new PriorityTaskQueue(mPriorityCapacity, mAgingInterval);
+      } else if (mWorkQueue == null) {
         if (mMaxTaskSize != 0) {
           mWorkQueue = new ArrayBlockingQueue<>(mMaxTaskSize);
         } else {
@@ -255,8 +519,27 @@ public class ExecutorCreator {
         mThreadFactory = new DefaultThreadFactory(mThreadLabel, mThreadPriority);
       }
 
-      final ThreadPoolExecutor executor = new ThreadPoolExecutor(mCorePoolSize, mMaxPoolSize,
-          mKeepAliveTime, mTimeUnit, mWorkQueue, mThreadFactory, mHandler);
+      final AdaptiveSizer sizer = mAdaptiveMaxSize > 0 ? new AdaptiveSizer(mAdaptiveMinSize,
+          mAdaptiveMaxSize, mTargetUtilization, mAdaptiveInterval) : null;
+      final ThreadPoolExecutor executor;
+      if (isInstrumented) {
+        final InstrumentedThreadPoolExecutor instrumented = new InstrumentedThreadPoolExecutor(
+            mThreadLabel, sizer, mCorePoolSize, mMaxPoolSize, mKeepAliveTime, mTimeUnit,
+            mWorkQueue, mThreadFactory, mHandler);
+        if (mReporter != null) {
+          instrumented.startReporting(mReporter, mReportPeriod, TimeUnit.NANOSECONDS);
+        }
+        executor = instrumented;
+      } else if (mPriorityCapacity > 0) {
+        executor = new PriorityThreadPoolExecutor(mCorePoolSize, mMaxPoolSize, mKeepAliveTime,
+            mTimeUnit, (PriorityTaskQueue) mWorkQueue, mThreadFactory, mHandler);
+      } else if (sizer != null) {
+        executor = new AdaptiveThreadPoolExecutor(sizer, mKeepAliveTime, mTimeUnit, mWorkQueue,
+            mThreadFactory, mHandler);
+      } else {
+        executor = new ThreadPoolExecutor(mCorePoolSize, mMaxPoolSize,
+            mKeepAliveTime, mTimeUnit, mWorkQueue, mThreadFactory, mHandler);
+      }
 
       if (isRecycleCore) {
         executor.allowCoreThreadTimeOut(true);
@@ -0,0 +1,69 @@
+package io.l0neman.utils.general.concurrent;
+
+/**
+ * 线程池运行时指标快照，由 {@link InstrumentedThreadPoolExecutor#metrics()} 获得，时间单位为纳秒。
+ */
+public final class ExecutorMetrics {
+  /** 线程标签 */
+  public final String label;
+  /** 任务从提交到开始执行的排队时间 */
+  public final LatencyHistogram.Snapshot queueLatency;
+  /** 任务执行时间 */
+  public final LatencyHistogram.Snapshot runTime;
+  /**
+   * 被接受的任务数量，拒绝处理器没有从队列中丢弃任务时，
+   * 等于完成、失败、正在执行和排队的任务数量之和。
+   */
+  public final long submittedCount;
+  public final long completedCount;
+  /** 抛出异常的任务数量，submit 提交的任务异常由 Future 持有，不计入 */
+  public final long failedCount;
+  /** 被拒绝的任务数量，即交给拒绝处理器的任务数量 */
+  public final long rejectedCount;
+  /** 正在执行任务的线程数 */
+  public final int activeThreads;
+  /** 同时执行任务的线程数峰值 */
+  public final int peakActiveThreads;
+  public final int poolSize;
+  public final int corePoolSize;
+  public final int queueSize;
+  /** 自适应线程数量测量的 W/C，未启用或尚未测量时为 -1 */
+  public final float waitComputeRatio;
+
+  ExecutorMetrics(String label, LatencyHistogram.Snapshot queueLatency,
+                  LatencyHistogram.Snapshot runTime, long submittedCount, long completedCount,
+                  long failedCount, long rejectedCount, int activeThreads, int peakActiveThreads,
+                  int poolSize, int corePoolSize, int queueSize, float waitComputeRatio) {
+    this.label = label;
+    this.queueLatency = queueLatency;
+    this.runTime = runTime;
+    this.submittedCount = submittedCount;
+    this.completedCount = completedCount;
+    this.failedCount = failedCount;
+    this.rejectedCount = rejectedCount;
+    this.activeThreads = activeThreads;
+    this.peakActiveThreads = peakActiveThreads;
+    this.poolSize = poolSize;
+    this.corePoolSize = corePoolSize;
+    this.queueSize = queueSize;
+    this.waitComputeRatio = waitComputeRatio;
+  }
+
+  @Override public String toString() {
+    return "ExecutorMetrics{" +
+        "label='" + label + '\'' +
+        ", queueLatency=" + queueLatency +
+        ", runTime=" + runTime +
+        ", submittedCount=" + submittedCount +
+        ", completedCount=" + completedCount +
+        ", failedCount=" + failedCount +
+        ", rejectedCount=" + rejectedCount +
+        ", activeThreads=" + activeThreads +
+        ", peakActiveThreads=" + peakActiveThreads +
+        ", poolSize=" + poolSize +
+        ", corePoolSize=" + corePoolSize +
+        ", queueSize=" + queueSize +
+        ", waitComputeRatio=" + waitComputeRatio +
+        '}';
+  }
+}
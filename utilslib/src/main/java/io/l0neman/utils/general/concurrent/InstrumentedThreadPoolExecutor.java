@@ -0,0 +1,213 @@
+package io.l0neman.utils.general.concurrent;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 记录运行时指标的线程池，由 {@link ExecutorCreator.Creator#instrumented()} 创建。
+ * <p>
+ * 提交的任务被包装后进入队列，记录排队时间、执行时间、失败和拒绝数量以及同时执行任务的线程数峰值，
+ * 使用 {@link #metrics()} 获得快照。因为任务被包装，{@link #remove(Runnable)} 不能移除
+ * execute 提交的原始任务，{@link #shutdownNow()} 返回的是包装后的任务。
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+
+  /**
+   * 定期报告指标。
+   */
+  public interface Reporter {
+    /** 在报告线程中调用，不要执行耗时操作 */
+    void report(ExecutorMetrics metrics);
+  }
+
+  private final String mLabel;
+  /* 自适应线程数量，未启用时为 null */
+  private final AdaptiveSizer mSizer;
+
+  private final LatencyHistogram mQueueLatency = new LatencyHistogram();
+  private final LatencyHistogram mRunTime = new LatencyHistogram();
+  private final AtomicLong mSubmitted = new AtomicLong();
+  private final AtomicLong mCompleted = new AtomicLong();
+  private final AtomicLong mFailed = new AtomicLong();
+  private final AtomicLong mRejected = new AtomicLong();
+  private final AtomicInteger mActive = new AtomicInteger();
+  private final AtomicInteger mPeakActive = new AtomicInteger();
+
+  private volatile ScheduledFuture<?> mReporting;
+
+  /* 所有线程池共用的报告线程 */
+  private static final class ReporterHolder {
+    static final ScheduledExecutorService sScheduler = createScheduler();
+
+    private static ScheduledExecutorService createScheduler() {
+      final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+          new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+              final Thread thread = new Thread(r, "metrics reporter");
+              thread.setDaemon(true);
+              thread.setPriority(Thread.MIN_PRIORITY);
+              return thread;
+            }
+          });
+      scheduler.setKeepAliveTime(30L, TimeUnit.SECONDS);
+      scheduler.allowCoreThreadTimeOut(true);
+      return scheduler;
+    }
+  }
+
+  InstrumentedThreadPoolExecutor(String label, AdaptiveSizer sizer, int corePoolSize,
+                                 int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                 BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                 RejectedExecutionHandler handler) {
+    super(sizer != null ? sizer.initialSize() : corePoolSize,
+        sizer != null ? sizer.maxSize() : maximumPoolSize,
+        keepAliveTime, unit, workQueue, threadFactory, handler);
+    this.mLabel = label;
+    this.mSizer = sizer;
+    // 父类构造器要求非空的处理器，拒绝计数在这里包装。
+    setRejectedExecutionHandler(new CountingHandler(handler));
+  }
+
+  /* 记录排队时间、执行时间和活跃线程数的任务包装 */
+  private final class TimedTask implements Runnable {
+    final Runnable task;
+    final long enqueued = System.nanoTime();
+
+    TimedTask(Runnable task) {
+      this.task = task;
+    }
+
+    @Override public void run() {
+      final long start = System.nanoTime();
+      mQueueLatency.record(start - enqueued);
+
+      final int active = mActive.incrementAndGet();
+      int peak = mPeakActive.get();
+      while (active > peak && !mPeakActive.compareAndSet(peak, active)) {
+        peak = mPeakActive.get();
+      }
+
+      boolean failed = true;
+      try {
+        task.run();
+        failed = false;
+      } finally {
+        mActive.decrementAndGet();
+        mRunTime.record(System.nanoTime() - start);
+        if (failed) {
+          mFailed.incrementAndGet();
+        } else {
+          mCompleted.incrementAndGet();
+        }
+      }
+    }
+
+    @Override public String toString() {
+      return task.toString();
+    }
+  }
+
+  /*
+   * 统计拒绝数量，并将原始任务交给处理器，处理器的行为不做特殊处理。
+   * 处理器在提交线程中执行的任务不计入执行时间，重新提交的任务按照新的提交计数。
+   */
+  private final class CountingHandler implements RejectedExecutionHandler {
+    private final RejectedExecutionHandler mHandler;
+
+    CountingHandler(RejectedExecutionHandler handler) {
+      this.mHandler = handler;
+    }
+
+    @Override public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      mSubmitted.decrementAndGet();
+      mRejected.incrementAndGet();
+      mHandler.rejectedExecution(r instanceof TimedTask ? ((TimedTask) r).task : r, executor);
+    }
+  }
+
+  @Override public void execute(Runnable command) {
+    if (command == null) {
+      throw new NullPointerException();
+    }
+
+    // 先计入提交数量，被拒绝时在处理器中撤销，避免任务完成时完成数量超过提交数量。
+    mSubmitted.incrementAndGet();
+    super.execute(new TimedTask(command));
+  }
+
+  @Override protected void beforeExecute(Thread t, Runnable r) {
+    super.beforeExecute(t, r);
+    if (mSizer != null) {
+      mSizer.beforeExecute();
+    }
+  }
+
+  @Override protected void afterExecute(Runnable r, Throwable t) {
+    if (mSizer != null) {
+      mSizer.afterExecute(this);
+    }
+
+    super.afterExecute(r, t);
+  }
+
+  @Override protected void terminated() {
+    stopReporting();
+    super.terminated();
+  }
+
+  /** 获得当前指标的快照，计数从创建或上次 {@link #resetMetrics()} 开始累计 */
+  public ExecutorMetrics metrics() {
+    return new ExecutorMetrics(mLabel, mQueueLatency.snapshot(), mRunTime.snapshot(),
+        mSubmitted.get(), mCompleted.get(), mFailed.get(), mRejected.get(), mActive.get(),
+        mPeakActive.get(), getPoolSize(), getCorePoolSize(), getQueue().size(),
+        mSizer != null ? mSizer.ratio() : -1);
+  }
+
+  /** 清空累计的指标，例如每次报告后重新统计 */
+  public void resetMetrics() {
+    mQueueLatency.reset();
+    mRunTime.reset();
+    mSubmitted.set(0);
+    mCompleted.set(0);
+    mFailed.set(0);
+    mRejected.set(0);
+    mPeakActive.set(mActive.get());
+  }
+
+  /**
+   * 定期报告指标，替换之前的报告，线程池终止时停止。
+   *
+   * @param reporter 报告回调，在共用的后台线程中执行。
+   * @param period   报告周期。
+   * @param timeUnit 时间单位。
+   */
+  public void startReporting(final Reporter reporter, long period, TimeUnit timeUnit) {
+    stopReporting();
+    mReporting = ReporterHolder.sScheduler.scheduleAtFixedRate(new Runnable() {
+      @Override public void run() {
+        try {
+          reporter.report(metrics());
+        } catch (RuntimeException e) {
+          // 异常会取消定期任务，忽略单次报告的失败。
+        }
+      }
+    }, period, period, timeUnit);
+  }
+
+  /** 停止定期报告 */
+  public void stopReporting() {
+    final ScheduledFuture<?> reporting = mReporting;
+    if (reporting != null) {
+      reporting.cancel(false);
+      mReporting = null;
+    }
+  }
+}
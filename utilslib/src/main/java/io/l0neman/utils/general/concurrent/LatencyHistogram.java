@@ -0,0 +1,150 @@
+package io.l0neman.utils.general.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁延迟直方图，记录非负的 long 值（例如纳秒）。
+ * <p>
+ * 参考 HdrHistogram 的对数线性分桶：每个 2 的幂区间再均分为 16 个子区间，
+ * 任意大小的值相对误差不超过 1/16，内存固定为 960 个计数器，记录操作只有一次原子加法。
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  /* 0 ~ 15 各自一个桶，之后 2^4 ~ 2^62 每个 2 的幂区间 16 个桶 */
+  private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mSum = new AtomicLong();
+  private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong mMax = new AtomicLong();
+
+  /** 记录一个值，负数按 0 记录 */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+
+    mCounts.incrementAndGet(indexOf(value));
+    mCount.incrementAndGet();
+    mSum.addAndGet(value);
+
+    long min = mMin.get();
+    while (value < min && !mMin.compareAndSet(min, value)) {
+      min = mMin.get();
+    }
+
+    long max = mMax.get();
+    while (value > max && !mMax.compareAndSet(max, value)) {
+      max = mMax.get();
+    }
+  }
+
+  /** 清空记录，与并发的记录之间不保证原子性 */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      mCounts.set(i, 0);
+    }
+
+    mCount.set(0);
+    mSum.set(0);
+    mMin.set(Long.MAX_VALUE);
+    mMax.set(0);
+  }
+
+  /** 获得当前记录的快照 */
+  public Snapshot snapshot() {
+    final long[] counts = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = mCounts.get(i);
+      count += counts[i];
+    }
+
+    final long min = mMin.get();
+    return new Snapshot(counts, count, mSum.get(), min == Long.MAX_VALUE ? 0 : min, mMax.get());
+  }
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /* 桶内的最大值 */
+  private static long highestValueOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    final int shift = index / SUB_BUCKETS - 1;
+    final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * 直方图快照，不可变。
+   */
+  public static final class Snapshot {
+    private final long[] mCounts;
+    public final long count;
+    public final long sum;
+    public final long min;
+    public final long max;
+
+    private Snapshot(long[] counts, long count, long sum, long min, long max) {
+      this.mCounts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.min = min;
+      this.max = max;
+    }
+
+    /** 平均值，没有记录时返回 0 */
+    public double mean() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * 百分位数，返回所在桶内的最大值（不超过记录的最大值）。
+     *
+     * @param percentile 百分位，范围 [0, 100]。
+     * @return 没有记录时返回 0。
+     */
+    public long percentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+
+      final long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+      long seen = 0;
+      for (int i = 0; i < mCounts.length; i++) {
+        seen += mCounts[i];
+        if (seen >= rank) {
+          return Math.min(highestValueOf(i), max);
+        }
+      }
+
+      return max;
+    }
+
+    @Override public String toString() {
+      return "Snapshot{" +
+          "count=" + count +
+          ", min=" + min +
+          ", mean=" + (long) mean() +
+          ", p50=" + percentile(50) +
+          ", p90=" + percentile(90) +
+          ", p99=" + percentile(99) +
+          ", max=" + max +
+          '}';
+    }
+  }
+}
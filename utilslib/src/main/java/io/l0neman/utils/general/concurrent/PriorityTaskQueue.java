@@ -0,0 +1,376 @@
+package io.l0neman.utils.general.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 有界优先级任务队列，{@link PriorityThreadPoolExecutor} 的工作队列。
+ * <p>
+ * 按照优先级从高到低取出任务，优先级相同时截止时间早的优先，没有截止时间的任务排在后面，
+ * 最后按照提交顺序。任务每等待一个老化周期，优先级提升一级，直到
+ * {@link PriorityThreadPoolExecutor#PRIORITY_HIGH}，避免低优先级任务一直得不到执行。
+ * 老化在取出任务时检查，每个周期最多重排一次队列。
+ */
+final class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+  /** 没有截止时间，排在所有有截止时间的任务之后 */
+  static final long NO_DEADLINE = Long.MAX_VALUE;
+
+  /**
+   * 带有优先级和截止时间的任务。
+   */
+  interface Prioritized {
+    int priority();
+
+    /** 截止时间（{@link System#nanoTime()}），没有截止时间时为 {@link #NO_DEADLINE} */
+    long deadline();
+  }
+
+  private static final class Node {
+    final Runnable task;
+    final int basePriority;
+    int priority;
+    final long deadline;
+    final long enqueued;
+    final long sequence;
+
+    Node(Runnable task, int priority, long deadline, long enqueued, long sequence) {
+      this.task = task;
+      this.basePriority = priority;
+      this.priority = priority;
+      this.deadline = deadline;
+      this.enqueued = enqueued;
+      this.sequence = sequence;
+    }
+  }
+
+  private static final Comparator<Node> ORDER = new Comparator<Node>() {
+    @Override public int compare(Node a, Node b) {
+      if (a.priority != b.priority) {
+        return a.priority > b.priority ? -1 : 1;
+      }
+
+      if (a.deadline != b.deadline) {
+        if (a.deadline == NO_DEADLINE || b.deadline == NO_DEADLINE) {
+          return a.deadline == NO_DEADLINE ? 1 : -1;
+        }
+
+        // nanoTime 可能溢出，只能比较差值。
+        return a.deadline - b.deadline < 0 ? -1 : 1;
+      }
+
+      return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+    }
+  };
+
+  private final int mCapacity;
+  /* 老化周期（纳秒），为 0 时不老化 */
+  private final long mAgingNanos;
+  private final PriorityQueue<Node> mHeap;
+  private final ReentrantLock mLock = new ReentrantLock();
+  private final Condition mNotEmpty = mLock.newCondition();
+  private final Condition mNotFull = mLock.newCondition();
+  private long mSequence;
+  private long mLastAging = System.nanoTime();
+
+  /**
+   * @param capacity   队列容量。
+   * @param agingNanos 老化周期（纳秒），为 0 时不老化。
+   */
+  PriorityTaskQueue(int capacity, long agingNanos) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+
+    this.mCapacity = capacity;
+    this.mAgingNanos = agingNanos;
+    this.mHeap = new PriorityQueue<>(Math.min(capacity, 64), ORDER);
+  }
+
+  /* 持有锁时调用 */
+  private void enqueue(Runnable task) {
+    int priority = PriorityThreadPoolExecutor.PRIORITY_NORMAL;
+    long deadline = NO_DEADLINE;
+    if (task instanceof Prioritized) {
+      priority = ((Prioritized) task).priority();
+      deadline = ((Prioritized) task).deadline();
+    }
+
+    mHeap.add(new Node(task, priority, deadline, System.nanoTime(), mSequence++));
+    mNotEmpty.signal();
+  }
+
+  /* 持有锁时调用 */
+  private Runnable dequeue() {
+    age();
+    final Node node = mHeap.poll();
+    if (node == null) {
+      return null;
+    }
+
+    mNotFull.signal();
+    return node.task;
+  }
+
+  /* 提升等待超过老化周期的任务的优先级，并重排队列 */
+  private void age() {
+    if (mAgingNanos <= 0 || mHeap.size() < 2) {
+      return;
+    }
+
+    final long now = System.nanoTime();
+    if (now - mLastAging < mAgingNanos) {
+      return;
+    }
+
+    mLastAging = now;
+    boolean changed = false;
+    for (Node node : mHeap) {
+      if (node.basePriority >= PriorityThreadPoolExecutor.PRIORITY_HIGH) {
+        continue;
+      }
+
+      final long steps = (now - node.enqueued) / mAgingNanos;
+      final int aged = (int) Math.min(PriorityThreadPoolExecutor.PRIORITY_HIGH,
+          node.basePriority + steps);
+      if (aged > node.priority) {
+        node.priority = aged;
+        changed = true;
+      }
+    }
+
+    if (changed) {
+      final List<Node> nodes = new ArrayList<>(mHeap);
+      mHeap.clear();
+      mHeap.addAll(nodes);
+    }
+  }
+
+  @Override public boolean offer(Runnable task) {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+
+    mLock.lock();
+    try {
+      if (mHeap.size() >= mCapacity) {
+        return false;
+      }
+
+      enqueue(task);
+      return true;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override public void put(Runnable task) throws InterruptedException {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+
+    mLock.lockInterruptibly();
+    try {
+      while (mHeap.size() >= mCapacity) {
+        mNotFull.await();
+      }
+
+      enqueue(task);
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override public boolean offer(Runnable task, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+
+    long nanos = unit.toNanos(timeout);
+    mLock.lockInterruptibly();
+    try {
+      while (mHeap.size() >= mCapacity) {
+        if (nanos <= 0) {
+          return false;
+        }
+
+        nanos = mNotFull.awaitNanos(nanos);
+      }
+
+      enqueue(task);
+      return true;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override public Runnable take() throws InterruptedException {
+    mLock.lockInterruptibly();
+    try {
+      while (mHeap.isEmpty()) {
+        mNotEmpty.await();
+      }
+
+      return dequeue();
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    mLock.lockInterruptibly();
+    try {
+      while (mHeap.isEmpty()) {
+        if (nanos <= 0) {
+          return null;
+        }
+
+        nanos = mNotEmpty.awaitNanos(nanos);
+      }
+
+      return dequeue();
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override public Runnable poll() {
+    mLock.lock();
+    try {
+      return dequeue();
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override public Runnable peek() {
+    mLock.lock();
+    try {
+      age();
+      final Node node = mHeap.peek();
+      return node == null ? null : node.task;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override public int size() {
+    mLock.lock();
+    try {
+      return mHeap.size();
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override public int remainingCapacity() {
+    mLock.lock();
+    try {
+      return mCapacity - mHeap.size();
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override public boolean remove(Object o) {
+    if (o == null) {
+      return false;
+    }
+
+    mLock.lock();
+    try {
+      final Iterator<Node> it = mHeap.iterator();
+      while (it.hasNext()) {
+        if (it.next().task.equals(o)) {
+          it.remove();
+          mNotFull.signal();
+          return true;
+        }
+      }
+
+      return false;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override public int drainTo(Collection<? super Runnable> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override public int drainTo(Collection<? super Runnable> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+
+    mLock.lock();
+    try {
+      int n = 0;
+      while (n < maxElements && !mHeap.isEmpty()) {
+        c.add(mHeap.poll().task);
+        n++;
+      }
+
+      if (n > 0) {
+        mNotFull.signalAll();
+      }
+
+      return n;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  /** 返回当前任务的快照迭代器，不保证顺序 */
+  @Override public Iterator<Runnable> iterator() {
+    final List<Runnable> tasks;
+    mLock.lock();
+    try {
+      tasks = new ArrayList<>(mHeap.size());
+      for (Node node : mHeap) {
+        tasks.add(node.task);
+      }
+    } finally {
+      mLock.unlock();
+    }
+
+    return new Iterator<Runnable>() {
+      private int mIndex;
+      private Runnable mLast;
+
+      @Override public boolean hasNext() {
+        return mIndex < tasks.size();
+      }
+
+      @Override public Runnable next() {
+        if (mIndex >= tasks.size()) {
+          throw new NoSuchElementException();
+        }
+
+        mLast = tasks.get(mIndex++);
+        return mLast;
+      }
+
+      @Override public void remove() {
+        if (mLast == null) {
+          throw new IllegalStateException();
+        }
+
+        PriorityTaskQueue.this.remove(mLast);
+        mLast = null;
+      }
+    };
+  }
+}
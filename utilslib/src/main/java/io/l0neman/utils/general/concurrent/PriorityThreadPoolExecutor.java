@@ -0,0 +1,145 @@
+package io.l0neman.utils.general.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 优先级调度线程池，由 {@link ExecutorCreator#priority()} 或
+ * {@link ExecutorCreator.Creator#priorityScheduling(int, long, TimeUnit)} 创建。
+ * <p>
+ * 排队的任务按照优先级从高到低执行，优先级相同时截止时间早的优先（EDF），最后按照提交顺序。
+ * 等待时间较长的任务按照老化周期逐级提升优先级，低优先级任务不会一直得不到执行。
+ * 没有指定优先级的任务使用 {@link #PRIORITY_NORMAL}。优先级只影响排队的任务，
+ * 有空闲线程时任务立即执行。
+ */
+public class PriorityThreadPoolExecutor extends ThreadPoolExecutor {
+
+  /** 低优先级，例如预加载 */
+  public static final int PRIORITY_LOW = 0;
+  /** 默认优先级 */
+  public static final int PRIORITY_NORMAL = 5;
+  /** 高优先级，例如用户正在等待的请求，也是老化能够达到的最高优先级 */
+  public static final int PRIORITY_HIGH = 10;
+
+  PriorityThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime,
+                             TimeUnit unit, PriorityTaskQueue workQueue,
+                             ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+    super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+  }
+
+  /* 截止时间之间按差值比较，限制相对时间，避免差值溢出 */
+  private static final long MAX_DEADLINE_NANOS = Long.MAX_VALUE >> 2;
+
+  private static long deadlineOf(long deadline, TimeUnit unit) {
+    final long nanos = Math.max(-MAX_DEADLINE_NANOS,
+        Math.min(MAX_DEADLINE_NANOS, unit.toNanos(deadline)));
+    final long result = System.nanoTime() + nanos;
+    return result == PriorityTaskQueue.NO_DEADLINE ? result - 1 : result;
+  }
+
+  /** 以指定优先级执行任务 */
+  public void execute(Runnable task, int priority) {
+    execute(new PriorityRunnable(task, priority, PriorityTaskQueue.NO_DEADLINE));
+  }
+
+  /**
+   * 以指定优先级和截止时间执行任务，截止时间只用于排序，超过截止时间的任务仍然会执行。
+   *
+   * @param deadline 从现在开始的截止时间，超过约 73 年时按 73 年计算。
+   */
+  public void execute(Runnable task, int priority, long deadline, TimeUnit unit) {
+    execute(new PriorityRunnable(task, priority, deadlineOf(deadline, unit)));
+  }
+
+  /** 以指定优先级提交任务 */
+  public Future<?> submit(Runnable task, int priority) {
+    final PriorityFuture<Object> future =
+        new PriorityFuture<>(task, null, priority, PriorityTaskQueue.NO_DEADLINE);
+    execute(future);
+    return future;
+  }
+
+  /** 以指定优先级提交任务 */
+  public <T> Future<T> submit(Callable<T> task, int priority) {
+    final PriorityFuture<T> future =
+        new PriorityFuture<>(task, priority, PriorityTaskQueue.NO_DEADLINE);
+    execute(future);
+    return future;
+  }
+
+  /**
+   * 以指定优先级和截止时间提交任务。
+   *
+   * @param deadline 从现在开始的截止时间，超过约 73 年时按 73 年计算。
+   * @see #execute(Runnable, int, long, TimeUnit)
+   */
+  public <T> Future<T> submit(Callable<T> task, int priority, long deadline, TimeUnit unit) {
+    final PriorityFuture<T> future =
+        new PriorityFuture<>(task, priority, deadlineOf(deadline, unit));
+    execute(future);
+    return future;
+  }
+
+  private static final class PriorityRunnable implements Runnable, PriorityTaskQueue.Prioritized {
+    private final Runnable mTask;
+    private final int mPriority;
+    private final long mDeadline;
+
+    PriorityRunnable(Runnable task, int priority, long deadline) {
+      if (task == null) {
+        throw new NullPointerException();
+      }
+
+      this.mTask = task;
+      this.mPriority = priority;
+      this.mDeadline = deadline;
+    }
+
+    @Override public void run() {
+      mTask.run();
+    }
+
+    @Override public int priority() {
+      return mPriority;
+    }
+
+    @Override public long deadline() {
+      return mDeadline;
+    }
+
+    @Override public String toString() {
+      return mTask.toString();
+    }
+  }
+
+  private static final class PriorityFuture<T> extends FutureTask<T>
+      implements PriorityTaskQueue.Prioritized {
+    private final int mPriority;
+    private final long mDeadline;
+
+    PriorityFuture(Callable<T> task, int priority, long deadline) {
+      super(task);
+      this.mPriority = priority;
+      this.mDeadline = deadline;
+    }
+
+    PriorityFuture(Runnable task, T result, int priority, long deadline) {
+      super(task, result);
+      this.mPriority = priority;
+      this.mDeadline = deadline;
+    }
+
+    @Override public int priority() {
+      return mPriority;
+    }
+
+    @Override public long deadline() {
+      return mDeadline;
+    }
+  }
+}
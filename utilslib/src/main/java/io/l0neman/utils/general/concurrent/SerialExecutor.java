@@ -0,0 +1,244 @@
+package io.l0neman.utils.general.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 串行执行器，由 {@link ExecutorCreator#serial()} 创建。
+ * <p>
+ * 任务按照提交顺序在同一个线程中执行，使用无锁的多生产者单消费者环形数组队列：
+ * 提交任务只有一次 CAS，不分配节点，不加锁；消费线程没有任务时短暂自旋后挂起，
+ * 提交任务时只有在消费线程挂起的情况下才唤醒它。
+ * <p>
+ * 队列容量固定，队列已满时提交任务的线程等待消费（在消费线程中提交时抛出
+ * {@link RejectedExecutionException}）。任务抛出的异常交给消费线程的未捕获异常处理器，
+ * 之后继续执行后续任务。
+ */
+public final class SerialExecutor implements Executor {
+
+  /* 关闭标记，设置在 mTail 上，与提交任务的 CAS 互斥 */
+  private static final long SHUTDOWN_BIT = 1L << 62;
+  /* 没有任务时挂起前的自旋次数 */
+  private static final int SPIN_TRIES = 64;
+
+  private static final int OFFERED = 0;
+  private static final int FULL = 1;
+  private static final int SHUT_DOWN = 2;
+
+  private final int mCapacity;
+  private final int mMask;
+  private final Runnable[] mBuffer;
+  /* 槽位序号：等于 i 时可写入第 i 个任务，等于 i + 1 时第 i 个任务可读取 */
+  private final AtomicLongArray mSequences;
+  /* 下一个写入位置，生产者竞争 */
+  private final AtomicLong mTail = new AtomicLong();
+  /* 下一个读取位置，只在消费线程中访问 */
+  private long mHead;
+
+  private final Thread mConsumer;
+  /* 消费线程准备挂起 */
+  private final AtomicBoolean mWaiting = new AtomicBoolean();
+  private final CountDownLatch mTerminated = new CountDownLatch(1);
+
+  /**
+   * @param capacity      队列容量，向上取整为 2 的幂。
+   * @param threadFactory 创建消费线程。
+   */
+  SerialExecutor(int capacity, ThreadFactory threadFactory) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+
+    this.mCapacity = size;
+    this.mMask = size - 1;
+    this.mBuffer = new Runnable[size];
+    this.mSequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      mSequences.lazySet(i, i);
+    }
+
+    this.mConsumer = threadFactory.newThread(new Runnable() {
+      @Override public void run() {
+        consume();
+      }
+    });
+    this.mConsumer.start();
+  }
+
+  /**
+   * 提交任务。
+   *
+   * @throws RejectedExecutionException 已关闭，或在消费线程中提交时队列已满。
+   */
+  @Override public void execute(Runnable task) {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+
+    int result = offer(task);
+    if (result == FULL) {
+      if (Thread.currentThread() == mConsumer) {
+        throw new RejectedExecutionException("queue is full, task submitted from consumer.");
+      }
+
+      int tries = 0;
+      do {
+        if (++tries < SPIN_TRIES) {
+          Thread.yield();
+        } else {
+          LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(50));
+        }
+
+        result = offer(task);
+      } while (result == FULL);
+    }
+
+    if (result == SHUT_DOWN) {
+      throw new RejectedExecutionException("SerialExecutor has been shut down.");
+    }
+
+    // 与消费线程的 mWaiting 检查配对，二者至少有一方看到对方的写入。
+    if (mWaiting.get() && mWaiting.compareAndSet(true, false)) {
+      LockSupport.unpark(mConsumer);
+    }
+  }
+
+  private int offer(Runnable task) {
+    long tail = mTail.get();
+    for (; ; ) {
+      if ((tail & SHUTDOWN_BIT) != 0) {
+        return SHUT_DOWN;
+      }
+
+      final int index = (int) tail & mMask;
+      final long diff = mSequences.get(index) - tail;
+      if (diff == 0) {
+        if (mTail.compareAndSet(tail, tail + 1)) {
+          mBuffer[index] = task;
+          // 发布任务，消费线程读取序号后可以看到写入的任务。
+          mSequences.set(index, tail + 1);
+          return OFFERED;
+        }
+
+        tail = mTail.get();
+      } else if (diff < 0) {
+        // 上一轮的任务还没有被消费。
+        return FULL;
+      } else {
+        tail = mTail.get();
+      }
+    }
+  }
+
+  /* 只在消费线程中调用 */
+  private Runnable poll() {
+    final int index = (int) mHead & mMask;
+    if (mSequences.get(index) != mHead + 1) {
+      return null;
+    }
+
+    final Runnable task = mBuffer[index];
+    mBuffer[index] = null;
+    mSequences.lazySet(index, mHead + mCapacity);
+    mHead++;
+    return task;
+  }
+
+  private boolean hasTask() {
+    return mSequences.get((int) mHead & mMask) == mHead + 1;
+  }
+
+  private void consume() {
+    try {
+      int idle = 0;
+      for (; ; ) {
+        final Runnable task = poll();
+        if (task != null) {
+          idle = 0;
+          runTask(task);
+          continue;
+        }
+
+        final long tail = mTail.get();
+        if ((tail & SHUTDOWN_BIT) != 0 && (tail & ~SHUTDOWN_BIT) == mHead) {
+          return;
+        }
+
+        if (++idle < SPIN_TRIES) {
+          continue;
+        }
+
+        mWaiting.set(true);
+        if (hasTask() || (mTail.get() & SHUTDOWN_BIT) != 0) {
+          mWaiting.set(false);
+          continue;
+        }
+
+        LockSupport.park(this);
+        // 中断状态会使 park 立即返回，消费线程不响应中断，清除后继续等待。
+        Thread.interrupted();
+        mWaiting.set(false);
+        idle = 0;
+      }
+    } finally {
+      mTerminated.countDown();
+    }
+  }
+
+  private void runTask(Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException | Error e) {
+      final Thread thread = Thread.currentThread();
+      final Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+      if (handler != null) {
+        handler.uncaughtException(thread, e);
+      }
+    } finally {
+      // 与 ThreadPoolExecutor 一样，任务设置的中断状态不影响之后的任务。
+      Thread.interrupted();
+    }
+  }
+
+  /**
+   * 关闭执行器，不再接受新的任务，已提交的任务继续执行。
+   */
+  public void shutdown() {
+    long tail = mTail.get();
+    while ((tail & SHUTDOWN_BIT) == 0 && !mTail.compareAndSet(tail, tail | SHUTDOWN_BIT)) {
+      tail = mTail.get();
+    }
+
+    LockSupport.unpark(mConsumer);
+  }
+
+  public boolean isShutdown() {
+    return (mTail.get() & SHUTDOWN_BIT) != 0;
+  }
+
+  /** 关闭后所有任务是否已执行完成 */
+  public boolean isTerminated() {
+    return mTerminated.getCount() == 0;
+  }
+
+  /**
+   * 等待关闭后所有任务执行完成。
+   *
+   * @return 超时返回 false。
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return mTerminated.await(timeout, unit);
+  }
+}
@@ -0,0 +1,193 @@
+package io.l0neman.utils.general.concurrent;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 递归拆分任务工具，配合 {@link ExecutorCreator#workStealing()} 使用。
+ * <p>
+ * 将数组或列表的下标区间不断对半拆分，直到区间长度不超过阈值，拆分出的子任务进入当前线程的队列，
+ * 由空闲线程窃取执行。阈值不大于 0 时按照线程池并行度自动计算，每个线程约分到 8 个区间。
+ * <p>
+ * 所有方法在调用线程中等待完成，任务抛出的运行时异常在调用线程中重新抛出。
+ */
+@RequiresApi(21)
+public final class SplitTasks {
+
+  /* 自动阈值时每个线程分到的区间数量 */
+  private static final int SPLITS_PER_THREAD = 8;
+
+  private SplitTasks() {}
+
+  /** 区间任务 */
+  public interface RangeAction {
+    /** 处理下标区间 [from, to) */
+    void run(int from, int to);
+  }
+
+  /** 元素转换 */
+  public interface Mapper<T, R> {
+    R map(T value);
+  }
+
+  /**
+   * 区间归约。
+   *
+   * @param <R> 结果类型。
+   */
+  public interface RangeReducer<R> {
+    /** 计算下标区间 [from, to) 的结果 */
+    R reduce(int from, int to);
+
+    /** 合并相邻区间的结果，left 在 right 之前 */
+    R combine(R left, R right);
+  }
+
+  /**
+   * 并行处理下标区间。
+   *
+   * @param from      起始下标（包含）。
+   * @param to        结束下标（不包含）。
+   * @param threshold 不再拆分的区间长度，不大于 0 时自动计算。
+   */
+  public static void forRange(ForkJoinPool pool, int from, int to, int threshold,
+                              RangeAction action) {
+    if (from >= to) {
+      return;
+    }
+
+    pool.invoke(new ActionTask(from, to, thresholdOf(pool, to - from, threshold), action));
+  }
+
+  /**
+   * 并行转换数组，结果写入 dst 中相同的下标。
+   *
+   * @param dst 长度不小于 src 的结果数组，可以与 src 相同。
+   */
+  public static <T, R> void map(ForkJoinPool pool, final T[] src, final R[] dst, int threshold,
+                                final Mapper<? super T, ? extends R> mapper) {
+    if (dst.length < src.length) {
+      throw new IllegalArgumentException("dst length " + dst.length + " < " + src.length);
+    }
+
+    forRange(pool, 0, src.length, threshold, new RangeAction() {
+      @Override public void run(int from, int to) {
+        for (int i = from; i < to; i++) {
+          dst[i] = mapper.map(src[i]);
+        }
+      }
+    });
+  }
+
+  /**
+   * 并行转换列表。
+   * <p>
+   * 不支持随机访问的列表（例如 LinkedList）先复制为 ArrayList 再拆分。
+   *
+   * @return 与 src 顺序一致的结果，大小不可改变。
+   */
+  public static <T, R> List<R> map(ForkJoinPool pool, List<? extends T> src, int threshold,
+                                   final Mapper<? super T, ? extends R> mapper) {
+    final List<? extends T> list = src instanceof RandomAccess ? src : new ArrayList<>(src);
+    final Object[] result = new Object[list.size()];
+    forRange(pool, 0, result.length, threshold, new RangeAction() {
+      @Override public void run(int from, int to) {
+        for (int i = from; i < to; i++) {
+          result[i] = mapper.map(list.get(i));
+        }
+      }
+    });
+
+    @SuppressWarnings("unchecked")
+    final List<R> values = (List<R>) Arrays.asList(result);
+    return values;
+  }
+
+  /**
+   * 并行归约下标区间。
+   *
+   * @return 区间为空时返回 null。
+   */
+  public static <R> R reduce(ForkJoinPool pool, int from, int to, int threshold,
+                             RangeReducer<R> reducer) {
+    if (from >= to) {
+      return null;
+    }
+
+    return pool.invoke(
+        new ReduceTask<>(from, to, thresholdOf(pool, to - from, threshold), reducer));
+  }
+
+  private static int thresholdOf(ForkJoinPool pool, int length, int threshold) {
+    if (threshold > 0) {
+      return threshold;
+    }
+
+    return Math.max(1, length / (pool.getParallelism() * SPLITS_PER_THREAD));
+  }
+
+  private static final class ActionTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private final int threshold;
+    private final RangeAction action;
+
+    ActionTask(int from, int to, int threshold, RangeAction action) {
+      this.from = from;
+      this.to = to;
+      this.threshold = threshold;
+      this.action = action;
+    }
+
+    @Override protected void compute() {
+      if (to - from <= threshold) {
+        action.run(from, to);
+        return;
+      }
+
+      // 右半部分交给其他线程窃取，当前线程继续拆分左半部分。
+      final int mid = (from + to) >>> 1;
+      final ActionTask right = new ActionTask(mid, to, threshold, action);
+      right.fork();
+      new ActionTask(from, mid, threshold, action).compute();
+      right.join();
+    }
+  }
+
+  private static final class ReduceTask<R> extends RecursiveTask<R> {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private final int threshold;
+    private final RangeReducer<R> reducer;
+
+    ReduceTask(int from, int to, int threshold, RangeReducer<R> reducer) {
+      this.from = from;
+      this.to = to;
+      this.threshold = threshold;
+      this.reducer = reducer;
+    }
+
+    @Override protected R compute() {
+      if (to - from <= threshold) {
+        return reducer.reduce(from, to);
+      }
+
+      final int mid = (from + to) >>> 1;
+      final ReduceTask<R> right = new ReduceTask<>(mid, to, threshold, reducer);
+      right.fork();
+      final R left = new ReduceTask<>(from, mid, threshold, reducer).compute();
+      return reducer.combine(left, right.join());
+    }
+  }
+}
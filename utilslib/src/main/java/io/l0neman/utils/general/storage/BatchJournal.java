@@ -0,0 +1,123 @@
+package io.l0neman.utils.general.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 批量操作日志。
+ * <p>
+ * 批量写入的值全部写入临时文件并同步到磁盘后，写入日志并同步，之后再将临时文件重命名到目标文件，
+ * 完成后删除日志。
+ * <p>
+ * 启动时如果日志完整，说明批量操作已经提交，继续执行其中尚未完成的操作；日志不完整则丢弃临时文件。
+ * <p>
+ * 格式：magic、操作数量、每个操作（类型、文件名）、CRC32 校验。
+ */
+final class BatchJournal {
+
+  private static final int MAGIC = 0x44534a31; // "DSJ1"
+
+  static final byte OP_WRITE = 1;
+  static final byte OP_DELETE = 2;
+
+  static final class Op {
+    final byte type;
+    final String name;
+
+    Op(byte type, String name) {
+      this.type = type;
+      this.name = name;
+    }
+  }
+
+  private BatchJournal() {}
+
+  /** 写入日志并同步到磁盘 */
+  static void write(File journal, List<Op> ops) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(ops.size());
+    for (Op op : ops) {
+      out.writeByte(op.type);
+      out.writeUTF(op.name);
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray());
+    out.writeInt((int) crc.getValue());
+    out.flush();
+
+    FileOutputStream file = null;
+    try {
+      file = new FileOutputStream(journal);
+      file.write(bytes.toByteArray());
+      file.getFD().sync();
+    } finally {
+      ChannelIOAdapter.closeQuietly(file);
+    }
+  }
+
+  /**
+   * 读取日志。
+   *
+   * @return 日志不完整或已损坏时返回 null。
+   */
+  static List<Op> read(File journal) throws IOException {
+    final byte[] content = readAll(journal);
+    if (content.length < 4) {
+      return null;
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(content, 0, content.length - 4);
+    final int expected = ((content[content.length - 4] & 0xFF) << 24) |
+        ((content[content.length - 3] & 0xFF) << 16) |
+        ((content[content.length - 2] & 0xFF) << 8) |
+        (content[content.length - 1] & 0xFF);
+    if ((int) crc.getValue() != expected) {
+      return null;
+    }
+
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+    if (in.readInt() != MAGIC) {
+      return null;
+    }
+
+    final int count = in.readInt();
+    final List<Op> ops = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final byte type = in.readByte();
+      ops.add(new Op(type, in.readUTF()));
+    }
+
+    return ops;
+  }
+
+  private static byte[] readAll(File file) throws IOException {
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+
+      return out.toByteArray();
+    } finally {
+      ChannelIOAdapter.closeQuietly(in);
+    }
+  }
+}
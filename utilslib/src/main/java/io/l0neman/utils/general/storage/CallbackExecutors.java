@@ -0,0 +1,41 @@
+package io.l0neman.utils.general.storage;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 存储异步回调使用的线程池。
+ */
+public final class CallbackExecutors {
+
+  private CallbackExecutors() {}
+
+  private static final Executor MAIN_THREAD = new Executor() {
+    @Override public void execute(Runnable command) {
+      MainHandlerHolder.HANDLER.post(command);
+    }
+  };
+
+  private static final Executor DIRECT = new Executor() {
+    @Override public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  /* 第一次使用时创建主线程 Handler，未使用时不依赖主线程 Looper */
+  private static final class MainHandlerHolder {
+    static final Handler HANDLER = new Handler(Looper.getMainLooper());
+  }
+
+  /** 在主线程执行回调 */
+  public static Executor mainThread() {
+    return MAIN_THREAD;
+  }
+
+  /** 在完成操作的存储线程中直接执行回调，回调中不要执行耗时操作 */
+  public static Executor direct() {
+    return DIRECT;
+  }
+}
@@ -0,0 +1,94 @@
+package io.l0neman.utils.general.storage;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 基于 {@link FileChannel} 的文件输入输出适配器。
+ * <p>
+ * 读取时按照 {@link FileChannel#size()} 一次分配缓冲区，从文件起始位置读取整个文件，
+ * 不做字符解码和按行拆分；写入时将编码后的缓冲区整体写入文件。
+ * <p>
+ * 子类只需要实现值和字节缓冲区之间的转换。
+ *
+ * @param <T> 输入输出数据类型。
+ */
+public abstract class ChannelIOAdapter<T> implements IDirStore.BufferIOAdapter<T> {
+
+  @Override public void write(String file, T value) throws IOException {
+    final ByteBuffer buffer = encode(value);
+    FileOutputStream out = null;
+    try {
+      out = new FileOutputStream(file);
+      final FileChannel channel = out.getChannel();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } finally {
+      closeQuietly(out);
+    }
+  }
+
+  @Override public T read(String file) throws IOException {
+    return decode(readFile(file));
+  }
+
+  /**
+   * 读取整个文件，返回的缓冲区已准备好读取，默认使用 {@link #allocate(int)} 分配的缓冲区。
+   * <p>
+   * 启用编码或校验时 DirStore 通过这个方法读取文件，去掉文件头后的内容保持同样的缓冲区类型。
+   */
+  ByteBuffer readFile(String file) throws IOException {
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      return readFully(in.getChannel());
+    } finally {
+      closeQuietly(in);
+    }
+  }
+
+  /**
+   * 分配读取缓冲区，默认为堆内缓冲区。
+   *
+   * @param size 文件大小。
+   */
+  protected ByteBuffer allocate(int size) {
+    return ByteBuffer.allocate(size);
+  }
+
+  /** 从文件起始位置读取整个文件，返回的缓冲区已准备好读取 */
+  protected final ByteBuffer readFully(FileChannel channel) throws IOException {
+    final int size = checkSize(channel.size());
+    final ByteBuffer buffer = allocate(size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, buffer.position()) < 0) {
+        break;
+      }
+    }
+
+    buffer.flip();
+    return buffer;
+  }
+
+  static int checkSize(long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("file too large: " + size);
+    }
+
+    return (int) size;
+  }
+
+  static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException ignore) {
+      }
+    }
+  }
+}
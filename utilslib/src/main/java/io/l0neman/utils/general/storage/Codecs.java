@@ -0,0 +1,118 @@
+package io.l0neman.utils.general.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * DirStore 内置的压缩编码，基于 {@link java.util.zip}。
+ */
+final class Codecs {
+
+  static final int ID_NONE = 0;
+  static final int ID_DEFLATE = 1;
+  static final int ID_GZIP = 2;
+
+  private Codecs() {}
+
+  /** 根据编号获得内置编码，不存在时返回 null */
+  static DirStore.Codec builtIn(int id) {
+    switch (id) {
+    case ID_DEFLATE:
+      return DEFLATE;
+    case ID_GZIP:
+      return GZIP;
+    default:
+      return null;
+    }
+  }
+
+  static final DirStore.Codec DEFLATE = new StreamCodec(ID_DEFLATE) {
+    @Override OutputStream wrap(OutputStream out) {
+      return new DeflaterOutputStream(out);
+    }
+
+    @Override InputStream wrap(InputStream in) {
+      return new InflaterInputStream(in);
+    }
+  };
+
+  static final DirStore.Codec GZIP = new StreamCodec(ID_GZIP) {
+    @Override OutputStream wrap(OutputStream out) throws IOException {
+      return new GZIPOutputStream(out);
+    }
+
+    @Override InputStream wrap(InputStream in) throws IOException {
+      return new GZIPInputStream(in);
+    }
+  };
+
+  /* 基于压缩流的编码 */
+  private abstract static class StreamCodec implements DirStore.Codec {
+    private final int mId;
+
+    StreamCodec(int id) {
+      this.mId = id;
+    }
+
+    abstract OutputStream wrap(OutputStream out) throws IOException;
+
+    abstract InputStream wrap(InputStream in) throws IOException;
+
+    @Override public int id() {
+      return mId;
+    }
+
+    @Override public ByteBuffer encode(ByteBuffer data) throws IOException {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.remaining() / 2 + 16);
+      final OutputStream out = wrap(bytes);
+      try {
+        if (data.hasArray()) {
+          out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+          final byte[] copy = new byte[data.remaining()];
+          data.duplicate().get(copy);
+          out.write(copy);
+        }
+      } finally {
+        out.close();
+      }
+
+      return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Override public ByteBuffer decode(ByteBuffer data) throws IOException {
+      final byte[] compressed;
+      final int offset;
+      if (data.hasArray()) {
+        compressed = data.array();
+        offset = data.arrayOffset() + data.position();
+      } else {
+        compressed = new byte[data.remaining()];
+        data.duplicate().get(compressed);
+        offset = 0;
+      }
+
+      final InputStream in = wrap(new ByteArrayInputStream(compressed, offset, data.remaining()));
+      try {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.remaining() * 2 + 16);
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+          out.write(buffer, 0, n);
+        }
+
+        return ByteBuffer.wrap(out.toByteArray());
+      } finally {
+        ChannelIOAdapter.closeQuietly(in);
+      }
+    }
+  }
+}
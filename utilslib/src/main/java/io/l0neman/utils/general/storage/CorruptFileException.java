@@ -0,0 +1,15 @@
+package io.l0neman.utils.general.storage;
+
+import java.io.IOException;
+
+/**
+ * 文件校验失败，文件内容不完整或已损坏。
+ */
+public class CorruptFileException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public CorruptFileException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,26 @@
+package io.l0neman.utils.general.storage;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 存储后台线程工厂，生成线程名为 label: t-i 格式的守护线程。
+ * <p>
+ * 存储的后台线程不阻止进程退出，需要等待写入完成时调用存储的 close 方法。
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+
+  private final AtomicInteger mThreadNumber = new AtomicInteger(1);
+  private final String mNamePrefix;
+
+  DaemonThreadFactory(String label) {
+    this.mNamePrefix = label + ": t-";
+  }
+
+  @Override public Thread newThread(Runnable r) {
+    final Thread thread = new Thread(r, mNamePrefix + mThreadNumber.getAndIncrement());
+    thread.setDaemon(true);
+    thread.setPriority(Thread.NORM_PRIORITY);
+    return thread;
+  }
+}
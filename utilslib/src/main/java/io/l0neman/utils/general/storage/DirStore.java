@@ -1,26 +1,48 @@
 package io.l0neman.utils.general.storage;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 
-import java.io.BufferedReader;
+import io.l0neman.utils.general.concurrent.ExecutorCreator;
+
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Created by l0neman on 2019/04/24.
  * <p>
- * DirStore 实现类，目前只提供了 String 的 FileIOAdapter 类型。
+ * DirStore 实现类，提供了 String、byte[] 和 ByteBuffer 的 FileIOAdapter 类型。
  */
 public class DirStore implements IDirStore {
 
@@ -28,428 +50,2006 @@ public class DirStore implements IDirStore {
 
   /* 调试开关 */
   private static final boolean DEBUG = false;
+  /* 原子写入的临时文件后缀 */
+  private static final String TEMP_SUFFIX = ".ds-tmp";
+  /* 批量写入的临时文件后缀 */
+  private static final String BATCH_SUFFIX = ".ds-batch";
+  /* 批量操作日志文件 */
+  private static final String JOURNAL_NAME = ".ds-journal";
+  /* 分层目录迁移完成标记文件 */
+  private static final String SHARDED_MARKER = ".ds-sharded";
+  /* 隔离损坏文件的目录 */
+  private static final String QUARANTINE_DIR = ".ds-quarantine";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
   private String mDataPath;
+  /* 原子写入模式：先写入临时文件，再重命名覆盖目标文件 */
+  private final boolean mAtomicWrite;
+  /* 分层目录模式：文件存储在 xx/yy/ 子目录中 */
+  private final boolean mSharded;
+  /* 已创建的子目录 */
+  private final Set<String> mShardDirs =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-  private Map<Class<?>, FileStoreThreadLocal<?>> sCacheFileStore = new ConcurrentHashMap<>();
+  /* 内存值缓存，未启用时为 null */
+  private final ValueCache mCache;
 
-  private final class FileStoreThreadLocal<T> extends ThreadLocal<FileStore<T>> {
-    @Override protected FileStore<T> initialValue() {
-      return new FileStore<>();
-    }
-  }
+  /* 值编码格式，未启用时为 null */
+  private final ValueFormat mFormat;
 
-  private Map<String, AtomicInteger> sWriteLocks = new ConcurrentHashMap<>();
-  private Map<String, AtomicInteger> sReadLocks = new ConcurrentHashMap<>();
-  private Map<String, Object> sLocks = new ConcurrentHashMap<>();
+  /* 缓存的文件存储数量上限 */
+  private static final int MAX_CACHED_FILE_STORES = 256;
+  /* 文件存储缓存的分段数量，必须为 2 的幂 */
+  private static final int FILE_STORE_STRIPES = 16;
 
-  // 异步存储线程池。
-  private ExecutorService sWritingService = Executors.newSingleThreadExecutor();
+  // 文件存储实例不可变，按文件名和适配器缓存，分段加锁，超过上限时淘汰段内最久未使用的实例。
+  private final FileStoreCache mFileStores = new FileStoreCache();
+
+  // 按文件名分段的读写锁，读取之间不互斥。
+  private final StripedReadWriteLock mLocks = new StripedReadWriteLock();
+
+  // 异步存储通道，同一文件的写入和删除按顺序执行。
+  private final WriteLanes mWriteLanes;
   // 异步读取线程池。
-  private ExecutorService sReadingService = Executors.newCachedThreadPool();
-  private Handler sHandler = new Handler(Looper.getMainLooper());
+  private final ExecutorService sReadingService =
+      Executors.newCachedThreadPool(new DaemonThreadFactory("DirStore read"));
+  // 默认的异步回调线程池。
+  private final Executor mCallbackExecutor;
+  /* 操作监听器 */
+  private final StoreListener mListener;
+
+  /* 异步写入合并窗口（毫秒），为 0 时不合并 */
+  private final long mCoalesceDelay;
+  private final Map<String, PendingWrite> mPendingWrites = new HashMap<>();
+  private final ScheduledExecutorService mCoalesceScheduler;
+
+  /* 默认过期时间（毫秒），为 0 时不过期 */
+  private final long mDefaultTtl;
+  /* 已知的过期时间点，只作为清理的线索，删除前以文件头为准 */
+  private final ConcurrentMap<String, Long> mExpiry = new ConcurrentHashMap<>();
+  /* 已提交的读取时发现的过期删除，避免重复提交 */
+  private final Set<String> mExpiring =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  /* 过期清理线程，未启用时为 null */
+  private final ScheduledExecutorService mExpirySweeper;
+  /* 过期时间是否已从文件头加载，只在清理线程中访问 */
+  private boolean isExpiryLoaded = false;
+  /* 每批清理的文件数量 */
+  private static final int SWEEP_BATCH_SIZE = 64;
+
+  /* 文件索引，第一次使用时扫描目录建立 */
+  private final KeyIndex mIndex = new KeyIndex(new KeyIndex.Loader() {
+    @Override public void load(Map<String, Long> sizes) {
+      scanKeys(sizes);
+    }
+  });
+
+  /* 批量操作日志锁，同一时间只有一个批量操作提交 */
+  private final Object mJournalLock = new Object();
+  /* 已提交的批量操作执行失败，存储不再可用，重新创建时根据日志完成 */
+  private volatile IOException mFailure;
 
   public DirStore(Context context) {
     this(context.getFilesDir().getPath() + File.separator + "ds");
   }
 
   public DirStore(String dataPath) {
-    this.mDataPath = dataPath;
-    checkAndCreateDir(dataPath);
+    this(new Builder(dataPath));
   }
 
-  private String getFilePath(String file) {
-    return mDataPath + File.separator + file;
+  private DirStore(Builder builder) {
+    this.mDataPath = builder.mDataPath;
+    // 校验模式下截断的文件（例如长度为 0）没有文件头，无法与旧文件区分，使用原子写入避免产生截断的文件。
+    this.mAtomicWrite = builder.isAtomicWrite || builder.isChecksum;
+    this.mCache = builder.mCacheMaxSize > 0 ?
+        new ValueCache(builder.mCacheMaxSize, builder.mCacheSizer) : null;
+    this.mWriteLanes = new WriteLanes(builder.mWriteLanes);
+    this.mCoalesceDelay = builder.mCoalesceDelay;
+    this.mCoalesceScheduler = mCoalesceDelay > 0 ? Executors.newSingleThreadScheduledExecutor(
+        new DaemonThreadFactory("DirStore coalesce")) : null;
+    this.mSharded = builder.isSharded;
+    this.mCallbackExecutor = builder.mCallbackExecutor != null ?
+        builder.mCallbackExecutor : CallbackExecutors.mainThread();
+    this.mListener = builder.mListener;
+    this.mDefaultTtl = builder.mDefaultTtl;
+    this.mFormat = builder.mCodec != null || builder.isChecksum || builder.mDefaultTtl > 0 ||
+        builder.mSweepInterval > 0 ?
+        new ValueFormat(builder.mCodec, builder.mCodecThreshold, builder.isChecksum) : null;
+    checkAndCreateDir(mDataPath);
+    if (mSharded) {
+      migrateToSharded();
+    }
+    recoverBatch();
+    if (builder.isVerifyOnStartup) {
+      verifyFiles();
+    }
+
+    this.mExpirySweeper = builder.mSweepInterval > 0 ? Executors.newSingleThreadScheduledExecutor(
+        new DaemonThreadFactory("DirStore expiry")) : null;
+    if (mExpirySweeper != null) {
+      mExpirySweeper.scheduleWithFixedDelay(new Runnable() {
+        @Override public void run() {
+          sweepExpired();
+        }
+      }, builder.mSweepInterval, builder.mSweepInterval, TimeUnit.MILLISECONDS);
+    }
   }
 
-  public final class FileStore<T> implements IDirStore.FileStore<T> {
+  /**
+   * DirStore 链式创建工具。
+   */
+  public static final class Builder {
+    private final String mDataPath;
+    private boolean isAtomicWrite = false;
+    private long mCacheMaxSize = 0;
+    private ValueSizer mCacheSizer;
+    private long mCoalesceDelay = 0;
+    private int mWriteLanes = 1;
+    private boolean isSharded = false;
+    private Codec mCodec;
+    private int mCodecThreshold;
+    private Executor mCallbackExecutor;
+    private StoreListener mListener = StoreListener.NONE;
+    private boolean isChecksum = false;
+    private boolean isVerifyOnStartup = false;
+    private long mDefaultTtl = 0;
+    private long mSweepInterval = 0;
+
+    /** 默认路径 "${fileDir}/ds/" */
+    public Builder(Context context) {
+      this(context.getFilesDir().getPath() + File.separator + "ds");
+    }
 
-    private String name;
-    private String path;
-    private FileIOAdapter<T> adapter;
+    /** 自定义路径 */
+    public Builder(String dataPath) {
+      this.mDataPath = dataPath;
+    }
 
-    private void init(String fileName, FileIOAdapter<T> adapter) {
-      this.name = fileName;
-      this.path = getFilePath(fileName);
-      setAdapter(adapter);
-      checkAndCreateFile(this.path);
+    /**
+     * 原子写入模式。
+     * <p>
+     * 适配器先写入同目录下的临时文件，同步到磁盘后重命名覆盖目标文件，
+     * 写入过程中读取不会被阻塞，读到的始终是完整的旧值或新值。
+     */
+    public Builder atomicWrite() {
+      isAtomicWrite = true;
+      return this;
     }
 
-    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter") // lock 为成员变量。
-    @Override public void write(final T value) throws IOException {
-      // get lock.
-      final Object lock = sLocks.get(name);
-      AtomicInteger readLock = sReadLocks.get(name);
-      AtomicInteger writeLock = sWriteLocks.get(name);
+    /**
+     * 启用内存值缓存，按条目数量限制容量。
+     * <p>
+     * byte[] 值放入和取出缓存时复制；ByteBuffer 值在命中和未命中时都返回只读缓冲区，
+     * 缓冲区类型与适配器读取的一致（例如直接缓冲区），每次读取的 position 互相独立。
+     * 其他类型的缓存值由所有读取方共享同一个对象，不要修改写入或读取到的值。
+     *
+     * @param maxEntries 最大缓存条目数量。
+     */
+    public Builder cache(int maxEntries) {
+      return cache(maxEntries, null);
+    }
 
-      if (lock == null || writeLock == null || readLock == null) {
-        throw new AssertionError("unexpected error.");
-      }
+    /**
+     * 启用内存值缓存，按 sizer 计算的大小（例如字节数）限制容量。
+     *
+     * @param maxSize 最大缓存大小。
+     * @param sizer   值大小计算器，为 null 时每个值大小为 1。
+     */
+    public Builder cache(long maxSize, ValueSizer sizer) {
+      mCacheMaxSize = maxSize;
+      mCacheSizer = sizer;
+      return this;
+    }
 
-      // wait read threads.
-      synchronized (lock) {
-        while (readLock.get() != 0) {
-          try {
-            lock.wait();
-          } catch (InterruptedException e) {
-            if (DEBUG) {
-              Log.i(TAG, "write interrupted.");
-            }
-          }
-        }
-      }
+    /**
+     * 合并异步写入。
+     * <p>
+     * 同一文件第一次异步写入后的 delay 时间内，后续的异步写入会被合并，只写入最后一次的值，
+     * 写入失败时所有被合并写入的回调都会收到错误。同步写入和删除会取消尚未执行的合并写入，
+     * 对应的 Future 被取消，不执行回调。
+     *
+     * @param delay    合并窗口，也是异步写入的最大延迟。
+     * @param timeUnit 时间单位。
+     */
+    public Builder coalesceWrites(long delay, TimeUnit timeUnit) {
+      mCoalesceDelay = timeUnit.toMillis(delay);
+      return this;
+    }
+
+    /**
+     * 异步写入通道数量，默认为 1。
+     * <p>
+     * 异步写入和删除按照文件名哈希分配到各个单线程通道，同一文件的操作保持顺序，
+     * 不同文件的操作并行执行，避免较大的写入阻塞其他文件。
+     */
+    public Builder writeLanes(int n) {
+      mWriteLanes = n;
+      return this;
+    }
 
-      writeLock.getAndIncrement();
+    /**
+     * 分层目录模式。
+     * <p>
+     * 按照文件名哈希将文件存储在两级子目录 xx/yy/ 中，避免单个目录中的文件过多。
+     * 首次使用时会将目录中已有的文件迁移到子目录中。
+     */
+    public Builder shardedLayout() {
+      isSharded = true;
+      return this;
+    }
 
-      try {
-        adapter.write(path, value);
-      } finally {
-        writeLock.getAndDecrement();
-        // notify read threads.
-        if (writeLock.get() == 0) {
-          synchronized (lock) {
-            lock.notifyAll();
-          }
-        }
+    /**
+     * 启用值编码（例如压缩）。
+     * <p>
+     * 仅对 {@link BufferIOAdapter} 类型的适配器生效，编码后的文件带有记录编码方式的文件头，
+     * 小于 threshold 的值不编码，原样写入。读取时没有文件头的旧文件按照原始内容读取。
+     * 使用编码写入的文件只能由启用了编码或校验的 DirStore 读取。
+     * <p>
+     * 未编码的值读取时保持适配器的缓冲区类型，{@link #BYTE_BUFFER_IO_ADAPTER} 返回直接缓冲区，
+     * {@link #MAPPED_IO_ADAPTER} 返回内存映射去掉文件头后的部分；编码的值解码到新的堆内缓冲区，
+     * 需要内存映射读取的大文件应小于 threshold 或不启用编码。
+     *
+     * @param codec     编码，例如 {@link #DEFLATE_CODEC}、{@link #GZIP_CODEC}。
+     * @param threshold 编码阈值（字节）。
+     */
+    public Builder compression(Codec codec, int threshold) {
+      if (codec.id() <= 0 || codec.id() > 0xFF) {
+        throw new IllegalArgumentException("codec id must be in [1, 255]: " + codec.id());
       }
+
+      mCodec = codec;
+      mCodecThreshold = threshold;
+      return this;
     }
 
-    @Override public void writeAsync(final T value,final WriteCallback callback) {
-      // get lock.
-      final Object lock = sLocks.get(name);
-      final AtomicInteger readLock = sReadLocks.get(name);
-      final AtomicInteger writeLock = sWriteLocks.get(name);
+    /**
+     * 写入校验文件尾，同时启用原子写入 {@link #atomicWrite()}。
+     * <p>
+     * {@link BufferIOAdapter} 类型的适配器写入的文件末尾记录长度和 CRC32，读取时校验，
+     * 不完整或损坏的文件读取时抛出 {@link CorruptFileException}，而不是返回截断的值。
+     * <p>
+     * 没有文件头的文件按照旧文件读取，直接写入时崩溃产生的截断文件（例如长度为 0）也没有文件头，
+     * 因此校验模式下总是先写入临时文件再重命名，目标文件不会被截断。
+     */
+    public Builder checksum() {
+      isChecksum = true;
+      return this;
+    }
 
-      if (lock == null || writeLock == null || readLock == null) {
-        throw new AssertionError("unexpected error.");
-      }
+    /**
+     * 创建时并行校验所有文件。
+     * <p>
+     * 校验失败的文件被移动到 ".ds-quarantine" 目录，并删除原子写入残留的临时文件。
+     * 校验线程数量为 CPU 数量，创建时等待校验完成。
+     */
+    public Builder verifyOnStartup() {
+      isVerifyOnStartup = true;
+      return this;
+    }
 
-      sWritingService.execute(new Runnable() {
-        @Override public void run() {
-          // wait read threads.
-          synchronized (lock) {
-            while (readLock.get() != 0) {
-              try {
-                lock.wait();
-              } catch (InterruptedException e) {
-                if (DEBUG) {
-                  Log.i(TAG, "writeAsync interrupted.");
-                }
-              }
-            }
-          }
+    /**
+     * 默认过期时间。
+     * <p>
+     * {@link BufferIOAdapter} 类型的适配器写入的值在文件头中记录过期时间点（写入时间 + ttl），
+     * 过期的值读取时返回 null，并在后台删除。其他适配器写入的值不过期。
+     * 也可以使用 {@link FileStore#write(Object, long, TimeUnit)} 为单次写入指定过期时间。
+     *
+     * @param ttl      过期时间，从写入时开始计算。
+     * @param timeUnit 时间单位。
+     */
+    public Builder expireAfterWrite(long ttl, TimeUnit timeUnit) {
+      mDefaultTtl = timeUnit.toMillis(ttl);
+      return this;
+    }
 
-          writeLock.getAndIncrement();
+    /**
+     * 后台定期清理过期的值。
+     * <p>
+     * 清理在独立的线程中执行，不占用异步写入通道。过期的文件按分段分批删除，每个分段只获取一次写锁，
+     * 分段被前台读写占用时跳过，留到下次清理，不阻塞前台操作。第一次清理时读取所有文件的文件头，
+     * 之后根据写入和读取时记录的过期时间清理。未启用时过期的值只在读取时删除。
+     *
+     * @param interval 清理间隔。
+     * @param timeUnit 时间单位。
+     */
+    public Builder expirySweep(long interval, TimeUnit timeUnit) {
+      mSweepInterval = timeUnit.toMillis(interval);
+      return this;
+    }
 
-          try {
-            adapter.write(path, value);
-          } catch (final IOException e) {
-            if (callback != null) {
-              if (DEBUG) {
-                Log.e(TAG, "write file: " + name + "error", e);
-              }
+    /**
+     * 异步回调默认使用的线程池，默认为主线程 {@link CallbackExecutors#mainThread()}。
+     * <p>
+     * 后台使用或者在 JVM 中测试时可以使用 {@link CallbackExecutors#direct()}，避免经过主线程。
+     */
+    public Builder callbackExecutor(Executor executor) {
+      mCallbackExecutor = executor;
+      return this;
+    }
 
-              sHandler.post(new Runnable() {
-                @Override public void run() {
-                  callback.onError(e);
-                }
-              });
-            }
-          } finally {
-            writeLock.getAndDecrement();
-            // notify read threads.
-            if (writeLock.get() == 0) {
-              synchronized (lock) {
-                lock.notifyAll();
-              }
-            }
+    /**
+     * 操作监听器，统计每次操作的排队、锁等待、适配器和文件读写时间，默认不监听。
+     */
+    public Builder listener(StoreListener listener) {
+      mListener = listener != null ? listener : StoreListener.NONE;
+      return this;
+    }
+
+    /** 构建 DirStore */
+    public DirStore create() {
+      return new DirStore(this);
+    }
+  }
+
+  private String getFilePath(String file) {
+    if (!mSharded) {
+      return mDataPath + File.separator + file;
+    }
+
+    return mDataPath + File.separator + shardOf(file) + File.separator + file;
+  }
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /* 文件名对应的子目录 "xx/yy" */
+  private static String shardOf(String file) {
+    final int h = file.hashCode() ^ (file.hashCode() >>> 16);
+    final char[] shard = new char[5];
+    shard[0] = HEX[(h >>> 12) & 0xF];
+    shard[1] = HEX[(h >>> 8) & 0xF];
+    shard[2] = File.separatorChar;
+    shard[3] = HEX[(h >>> 4) & 0xF];
+    shard[4] = HEX[h & 0xF];
+    return new String(shard);
+  }
+
+  /* 分层目录模式下，写入前创建文件所在的子目录 */
+  private void ensureShardDir(String file) {
+    if (!mSharded) {
+      return;
+    }
+
+    final String shard = shardOf(file);
+    if (mShardDirs.contains(shard)) {
+      return;
+    }
+
+    final File dir = new File(mDataPath, shard);
+    if (dir.isDirectory() || dir.mkdirs()) {
+      mShardDirs.add(shard);
+    }
+  }
+
+  /* 将根目录中的文件迁移到子目录，迁移完成后写入标记文件 */
+  private void migrateToSharded() {
+    final File marker = new File(mDataPath, SHARDED_MARKER);
+    if (marker.exists()) {
+      return;
+    }
+
+    final File[] files = new File(mDataPath).listFiles();
+    if (files != null) {
+      for (File file : files) {
+        final String name = file.getName();
+        if (!file.isFile() || name.equals(JOURNAL_NAME)) {
+          continue;
+        }
+
+        // 临时文件按照所属文件名迁移。
+        String key = name;
+        if (name.endsWith(TEMP_SUFFIX)) {
+          key = name.substring(0, name.length() - TEMP_SUFFIX.length());
+        } else if (name.endsWith(BATCH_SUFFIX)) {
+          key = name.substring(0, name.length() - BATCH_SUFFIX.length());
+        }
+
+        ensureShardDir(key);
+        final File target = new File(mDataPath + File.separator + shardOf(key), name);
+        if (!file.renameTo(target)) {
+          if (DEBUG) {
+            Log.e(TAG, "migrate " + file + " to " + target + " failed.");
           }
+
+          // 下次创建时继续迁移。
+          return;
         }
-      });
+      }
     }
 
-    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter") // lock 为成员变量。
-    @Override public T read() throws IOException {
-      checkAndSetLock(name);
-      // get lock.
-      final Object lock = sLocks.get(name);
-      AtomicInteger writeLock = sWriteLocks.get(name);
-      AtomicInteger readLock = sReadLocks.get(name);
-
-      if (lock == null || writeLock == null || readLock == null) {
-        throw new AssertionError("unexpected error.");
+    try {
+      if (!marker.createNewFile() && DEBUG) {
+        Log.w(TAG, "create marker " + marker + " failed.");
+      }
+    } catch (IOException e) {
+      if (DEBUG) {
+        Log.e(TAG, "create marker " + marker + " error", e);
       }
+    }
+  }
 
-      // wait write threads.
-      synchronized (lock) {
-        while (writeLock.get() != 0) {
-          try {
-            lock.wait();
-          } catch (InterruptedException e) {
-            if (DEBUG) {
-              Log.i(TAG, "read interrupted.");
-            }
-          }
+  /* 列出存储的所有文件（包括临时文件），分层目录模式下遍历子目录 */
+  private List<File> listDataFiles() {
+    final List<File> result = new ArrayList<>();
+    final File[] files = new File(mDataPath).listFiles();
+    if (files == null) {
+      return result;
+    }
+
+    for (File file : files) {
+      if (!mSharded) {
+        if (file.isFile()) {
+          result.add(file);
         }
+        continue;
       }
 
-      readLock.getAndIncrement();
-      try {
-        return adapter.read(path);
-      } finally {
-        readLock.getAndDecrement();
-        // notify write threads.
-        if (readLock.get() == 0) {
-          synchronized (lock) {
-            lock.notifyAll();
+      if (file.getName().equals(QUARANTINE_DIR)) {
+        continue;
+      }
+
+      final File[] subDirs = file.isDirectory() ? file.listFiles() : null;
+      if (subDirs == null) {
+        continue;
+      }
+
+      for (File subDir : subDirs) {
+        final File[] children = subDir.listFiles();
+        if (children == null) {
+          continue;
+        }
+
+        for (File child : children) {
+          if (child.isFile()) {
+            result.add(child);
           }
         }
       }
     }
 
-    @Override public void readAsync(final ReadCallback<T> callback) {
-      checkAndSetLock(name);
-      // get lock.
-      final Object lock = sLocks.get(name);
-      final AtomicInteger writeLock = sWriteLocks.get(name);
-      final AtomicInteger readLock = sReadLocks.get(name);
+    return result;
+  }
 
-      if (lock == null || writeLock == null || readLock == null) {
-        throw new AssertionError("unexpected error.");
-      }
+  /**
+   * 值编码，位于适配器和文件之间，例如压缩。
+   * <p>
+   * 编号写入文件头，读取时用于选择解码方式，内置编码使用 1 ~ 15，自定义编码使用 16 ~ 255。
+   */
+  public interface Codec {
+    /** 编码编号，不可改变 */
+    int id();
 
-      sReadingService.execute(new Runnable() {
-        @Override public void run() {
-          // wait write threads.
-          synchronized (lock) {
-            while (writeLock.get() != 0) {
-              try {
-                lock.wait();
-              } catch (InterruptedException e) {
-                if (DEBUG) {
-                  Log.i(TAG, "readAsync interrupted.");
-                }
-              }
-            }
-          }
+    ByteBuffer encode(ByteBuffer data) throws IOException;
 
-          readLock.getAndIncrement();
-          T content = null;
-          try {
-            content = adapter.read(path);
+    ByteBuffer decode(ByteBuffer data) throws IOException;
+  }
 
-          } catch (final IOException e) {
-            if (DEBUG) {
-              Log.e(TAG, "read file: " + name + "error", e);
-            }
+  /** deflate 压缩编码 */
+  public static final Codec DEFLATE_CODEC = Codecs.DEFLATE;
 
-            sHandler.post(new Runnable() {
-              @Override public void run() {
-                callback.onError(e);
-              }
-            });
-          } finally {
-            readLock.getAndDecrement();
-            // notify write reads.
-            if (readLock.get() == 0) {
-              synchronized (lock) {
-                lock.notifyAll();
-              }
-            }
-          }
+  /** gzip 压缩编码 */
+  public static final Codec GZIP_CODEC = Codecs.GZIP;
 
-          final T copy = content;
-          sHandler.post(new Runnable() {
-            @Override public void run() {
-              callback.onValue(copy);
-            }
-          });
-        }
-      });
+  /**
+   * 缓存值大小计算器。
+   */
+  public interface ValueSizer {
+    /** 计算缓存值的大小，不可为负数 */
+    long sizeOf(String fileName, Object value);
+  }
+
+  /**
+   * 缓存统计信息。
+   */
+  public static final class CacheStats {
+    public final long hitCount;
+    public final long missCount;
+    public final long evictionCount;
+    public final int entryCount;
+    public final long size;
+
+    CacheStats(long hitCount, long missCount, long evictionCount, int entryCount, long size) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.entryCount = entryCount;
+      this.size = size;
     }
 
-    @Override public void setAdapter(FileIOAdapter<T> adapter) {
-      this.adapter = adapter;
+    @Override public String toString() {
+      return "CacheStats{" +
+          "hitCount=" + hitCount +
+          ", missCount=" + missCount +
+          ", evictionCount=" + evictionCount +
+          ", entryCount=" + entryCount +
+          ", size=" + size +
+          '}';
     }
+  }
 
+  /**
+   * 获得缓存统计信息。
+   *
+   * @return 未启用缓存时返回 null。
+   */
+  public CacheStats cacheStats() {
+    return mCache == null ? null : mCache.stats();
   }
 
-  @Override public <T> FileStore<T> with(String fileName, FileIOAdapter<T> adapter) {
-    @SuppressWarnings("unchecked")
-    FileStoreThreadLocal<T> storeThreadLocal = (FileStoreThreadLocal<T>)
-        sCacheFileStore.get(adapter.typeToken());
+  /**
+   * 异步写入通道统计信息，时间单位为纳秒。
+   */
+  public static final class LaneStats {
+    public final int lane;
+    /** 当前排队的任务数量 */
+    public final int queueDepth;
+    public final long completedCount;
+    /** 排队等待总时间 */
+    public final long totalWaitNanos;
+    /** 执行总时间 */
+    public final long totalRunNanos;
+    /** 从提交到执行完成的最大延迟 */
+    public final long maxLatencyNanos;
+
+    LaneStats(int lane, int queueDepth, long completedCount, long totalWaitNanos,
+              long totalRunNanos, long maxLatencyNanos) {
+      this.lane = lane;
+      this.queueDepth = queueDepth;
+      this.completedCount = completedCount;
+      this.totalWaitNanos = totalWaitNanos;
+      this.totalRunNanos = totalRunNanos;
+      this.maxLatencyNanos = maxLatencyNanos;
+    }
 
-    if (storeThreadLocal == null) {
-      storeThreadLocal = new FileStoreThreadLocal<>();
-      // 针对每个类型的文件存储做线程缓存。
-      sCacheFileStore.put(adapter.typeToken(), storeThreadLocal);
+    /** 平均延迟（排队等待 + 执行） */
+    public long averageLatencyNanos() {
+      return completedCount == 0 ? 0 : (totalWaitNanos + totalRunNanos) / completedCount;
     }
 
-    FileStore<T> fileStore = storeThreadLocal.get();
+    @Override public String toString() {
+      return "LaneStats{" +
+          "lane=" + lane +
+          ", queueDepth=" + queueDepth +
+          ", completedCount=" + completedCount +
+          ", totalWaitNanos=" + totalWaitNanos +
+          ", totalRunNanos=" + totalRunNanos +
+          ", maxLatencyNanos=" + maxLatencyNanos +
+          '}';
+    }
+  }
 
-    if (fileStore == null) {
-      throw new NullPointerException("with error: " + fileName);
+  /** 获得每个异步写入通道的统计信息 */
+  public LaneStats[] writeLaneStats() {
+    final LaneStats[] stats = new LaneStats[mWriteLanes.size()];
+    for (int i = 0; i < stats.length; i++) {
+      stats[i] = mWriteLanes.stats(i);
     }
 
-    fileStore.init(fileName, adapter);
-    // 针对每个文件名做不同的线程锁。
-    checkAndSetLock(fileName);
-    return fileStore;
+    return stats;
   }
 
-  private void checkAndSetLock(String file) {
-    if (!sLocks.containsKey(file)) {
-      sLocks.put(file, new Object());
+  public final class FileStore<T> implements IDirStore.FileStore<T> {
+
+    private final String name;
+    private final String path;
+    private final FileIOAdapter<T> adapter;
+
+    private FileStore(String fileName, FileIOAdapter<T> adapter) {
+      this.name = fileName;
+      this.path = getFilePath(fileName);
+      this.adapter = adapter;
+    }
+
+    @Override public void write(final T value) throws IOException {
+      write(value, defaultExpiresAt(adapter));
     }
-    if (!sWriteLocks.containsKey(file)) {
-      sWriteLocks.put(file, new AtomicInteger(0));
+
+    /**
+     * 同步保存数据，并指定过期时间，过期后读取返回 null。
+     *
+     * @param ttl      过期时间，从写入时开始计算。
+     * @param timeUnit 时间单位。
+     * @throws IllegalStateException    未启用过期、编码或校验，文件没有记录过期时间的文件头。
+     * @throws IllegalArgumentException 适配器不是 {@link BufferIOAdapter}。
+     */
+    public void write(T value, long ttl, TimeUnit timeUnit) throws IOException {
+      write(value, expiresAt(adapter, ttl, timeUnit));
     }
-    if (!sReadLocks.containsKey(file)) {
-      sReadLocks.put(file, new AtomicInteger(0));
+
+    private void write(T value, long expiresAt) throws IOException {
+      // 同步写入的值更新，放弃尚未执行的异步写入。
+      cancelPendingWrite(name);
+      doWrite(name, path, adapter, value, expiresAt, 0);
     }
-  }
 
-  @Override public void deleteFile(final String fileName) {
-    checkAndSetLock(fileName);
-    // get lock.
-    final Object lock = sLocks.get(fileName);
-    final AtomicInteger writeLock = sWriteLocks.get(fileName);
-    final AtomicInteger readLock = sReadLocks.get(fileName);
+    @Override public Future<Void> writeAsync(T value, WriteCallback callback) {
+      return writeAsync(value, callback, mCallbackExecutor);
+    }
 
-    if (lock == null || writeLock == null || readLock == null) {
-      throw new AssertionError("unexpected error.");
+    @Override public Future<Void> writeAsync(T value, WriteCallback callback,
+                                             Executor callbackExecutor) {
+      return writeAsync(value, defaultExpiresAt(adapter), callback, callbackExecutor);
     }
 
-    sWritingService.execute(new Runnable() {
-      @Override public void run() {
-        synchronized (lock) {
-          // wait read and write threads.
-          while (writeLock.get() != 0 || readLock.get() != 0) {
-            try {
-              lock.wait();
-            } catch (InterruptedException e) {
-              if (DEBUG) {
-                Log.i(TAG, "delete interrupted.");
-              }
+    /**
+     * 异步保存数据，并指定过期时间，回调在存储默认的回调线程池中执行。
+     *
+     * @param ttl      过期时间，从调用时开始计算。
+     * @param timeUnit 时间单位。
+     * @param callback 错误回调，可为 null。
+     * @see #write(Object, long, TimeUnit)
+     */
+    public Future<Void> writeAsync(T value, long ttl, TimeUnit timeUnit, WriteCallback callback) {
+      return writeAsync(value, expiresAt(adapter, ttl, timeUnit), callback, mCallbackExecutor);
+    }
+
+    private Future<Void> writeAsync(final T value, final long expiresAt, WriteCallback callback,
+                                    Executor callbackExecutor) {
+      if (mCoalesceDelay > 0) {
+        final StoreFuture<Void> future = new StoreFuture<>(callback, callbackExecutor);
+        coalesceWrite(name, path, adapter, value, expiresAt, future);
+        return future;
+      }
+
+      final long submitted = System.nanoTime();
+      final StoreFuture<Void> future = new StoreFuture<>(new Callable<Void>() {
+        @Override public Void call() throws IOException {
+          try {
+            doWrite(name, path, adapter, value, expiresAt, System.nanoTime() - submitted);
+            return null;
+          } catch (IOException e) {
+            if (DEBUG) {
+              Log.e(TAG, "write file: " + name + " error", e);
             }
+
+            throw e;
           }
         }
+      }, callback, callbackExecutor);
+      mWriteLanes.execute(name, future);
+      return future;
+    }
 
-        final File target = new File(getFilePath(fileName));
-        if (!target.exists()) { return; }
+    @Override public T read() throws IOException {
+      return doRead(name, path, adapter, 0);
+    }
 
-        try {
-          if (target.delete()) {
+    @Override public Future<T> readAsync(ReadCallback<T> callback) {
+      return readAsync(callback, mCallbackExecutor);
+    }
+
+    @Override public Future<T> readAsync(ReadCallback<T> callback, Executor callbackExecutor) {
+      final long submitted = System.nanoTime();
+      final StoreFuture<T> future = new StoreFuture<>(new Callable<T>() {
+        @Override public T call() throws IOException {
+          try {
+            return doRead(name, path, adapter, System.nanoTime() - submitted);
+          } catch (IOException e) {
             if (DEBUG) {
-              Log.i(TAG, "delete file: " + fileName + " ok.");
+              Log.e(TAG, "read file: " + name + " error", e);
             }
-          }
-        } catch (Exception e) {
-          if (DEBUG) {
-            Log.e(TAG, "delete file: " + fileName, e);
+
+            throw e;
           }
         }
+      }, callback, callbackExecutor);
+      sReadingService.execute(future);
+      return future;
+    }
 
-        sLocks.remove(fileName);
-      }
-    });
-  }
+    /**
+     * 文件存储实例不可变，不支持修改适配器。
+     *
+     * @throws UnsupportedOperationException 总是抛出。
+     * @deprecated 使用 {@link DirStore#with(String, FileIOAdapter)} 获得新的实例。
+     */
+    @Deprecated
+    @Override public void setAdapter(FileIOAdapter<T> adapter) {
+      throw new UnsupportedOperationException("FileStore is immutable, use DirStore.with.");
+    }
 
-  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter") // lock 为成员变量。
-  @Override public void deleteSelf() {
-    sWritingService.execute(new Runnable() {
-      @Override public void run() {
-        final File dir = new File(mDataPath);
-        if (!dir.exists() || !dir.isDirectory()) {
-          return;
-        }
-        final File[] files = dir.listFiles();
-        if (files.length == 0) {
-          return;
+    /**
+     * 打开文件输入流，用于逐步读取较大的文件，不经过适配器。
+     * <p>
+     * 流关闭前持有文件读锁（原子写入模式下不加锁），流必须在打开它的线程中关闭。
+     */
+    public InputStream openRead() throws IOException {
+      final Lock lock = mAtomicWrite ? null : mLocks.get(name).readLock();
+      lockQuietly(lock);
+
+      boolean opened = false;
+      try {
+        checkUsable();
+        final InputStream in = new FileStreams.Input(new FileInputStream(path), unlocker(lock));
+        opened = true;
+        return in;
+      } finally {
+        if (!opened) {
+          unlockQuietly(lock);
         }
+      }
+    }
 
-        for (File file : files) {
-          final String name = file.getName();
-          // get lock.
-          final Object lock = sLocks.get(name);
-          final AtomicInteger writeLock = sWriteLocks.get(name);
-          final AtomicInteger readLock = sReadLocks.get(name);
-
-          if (lock == null || writeLock == null || readLock == null) {
-            throw new AssertionError("unexpected error.");
-          }
+    /**
+     * 打开文件读取通道，用于逐步读取较大的文件，不经过适配器。
+     * <p>
+     * 通道关闭前持有文件读锁（原子写入模式下不加锁），通道必须在打开它的线程中关闭。
+     */
+    public ReadableByteChannel openReadChannel() throws IOException {
+      final Lock lock = mAtomicWrite ? null : mLocks.get(name).readLock();
+      lockQuietly(lock);
+
+      boolean opened = false;
+      try {
+        checkUsable();
+        final ReadableByteChannel channel = new FileStreams.Channel(
+            new FileInputStream(path).getChannel(), unlocker(lock));
+        opened = true;
+        return channel;
+      } finally {
+        if (!opened) {
+          unlockQuietly(lock);
+        }
+      }
+    }
 
-          synchronized (lock) {
-            // wait read and write threads.
-            while (writeLock.get() != 0 || readLock.get() != 0) {
-              try {
-                lock.wait();
-              } catch (InterruptedException e) {
-                if (DEBUG) {
-                  Log.i(TAG, "deleteAll interrupted.");
+    /**
+     * 打开文件输出流，用于逐步写入较大的文件，不经过适配器。
+     * <p>
+     * 流关闭前持有文件写锁，流必须在打开它的线程中关闭。原子写入模式下写入临时文件，
+     * 关闭时同步并重命名覆盖目标文件，写入过程中发生异常则放弃写入的内容。
+     */
+    public OutputStream openWrite() throws IOException {
+      cancelPendingWrite(name);
+      ensureShardDir(name);
+      final Lock lock = mLocks.get(name).writeLock();
+      lock.lock();
+
+      boolean opened = false;
+      try {
+        checkUsable();
+        final File target = new File(mAtomicWrite ? path + TEMP_SUFFIX : path);
+        final OutputStream out = new FileStreams.Output(new FileOutputStream(target),
+            new FileStreams.OnClose() {
+              @Override public void onClose(boolean failed) throws IOException {
+                try {
+                  if (mAtomicWrite) {
+                    commitTemp(target, path, failed);
+                  }
+                } finally {
+                  if (mCache != null) {
+                    mCache.remove(name);
+                  }
+
+                  mExpiry.remove(name);
+                  updateIndex(name, path);
+                  lock.unlock();
                 }
               }
-            }
-          }
+            });
+        opened = true;
+        return out;
+      } finally {
+        if (!opened) {
+          lock.unlock();
+        }
+      }
+    }
+  }
 
-          if (file.delete()) {
-            if (DEBUG) {
-              Log.i(TAG, "delete file: " + file + " ok.");
-            }
-          }
+  private static void commitTemp(File temp, String path, boolean failed) throws IOException {
+    boolean committed = false;
+    try {
+      if (!failed) {
+        sync(temp);
+        if (!temp.renameTo(new File(path))) {
+          throw new IOException("rename " + temp + " to " + path + " failed.");
         }
+
+        committed = true;
       }
-    });
+    } finally {
+      if (!committed) {
+        deleteTarget(temp);
+      }
+    }
   }
 
-  public static FileIOAdapter<String> STRING_IO_ADAPTER = new FileIOAdapter<String>() {
-    @Override public Class<String> typeToken() {
-      return String.class;
+  /* 默认过期时间点，只对 BufferIOAdapter 生效 */
+  private long defaultExpiresAt(FileIOAdapter<?> adapter) {
+    if (mDefaultTtl <= 0 || !(adapter instanceof BufferIOAdapter)) {
+      return 0;
     }
 
-    @Override public void write(String file, String value) throws IOException {
-      FileWriter writer = null;
-      try {
-        writer = new FileWriter(file);
-        writer.write(value);
+    return System.currentTimeMillis() + mDefaultTtl;
+  }
 
-      } finally {
-        closeQuietly(writer);
+  private long expiresAt(FileIOAdapter<?> adapter, long ttl, TimeUnit timeUnit) {
+    if (mFormat == null) {
+      throw new IllegalStateException("expiry requires expireAfterWrite, expirySweep, " +
+          "compression or checksum to be enabled.");
+    }
+
+    if (!(adapter instanceof BufferIOAdapter)) {
+      throw new IllegalArgumentException("expiry requires a BufferIOAdapter.");
+    }
+
+    return System.currentTimeMillis() + Math.max(1, timeUnit.toMillis(ttl));
+  }
+
+  private static FileStreams.OnClose unlocker(final Lock lock) {
+    return new FileStreams.OnClose() {
+      @Override public void onClose(boolean failed) {
+        unlockQuietly(lock);
       }
+    };
+  }
+
+  private static void lockQuietly(Lock lock) {
+    if (lock != null) {
+      lock.lock();
     }
+  }
+
+  private static void unlockQuietly(Lock lock) {
+    if (lock != null) {
+      lock.unlock();
+    }
+  }
+
+  /* 合并中的异步写入，只保留最后一次写入的值 */
+  private final class PendingWrite implements Runnable {
+    final String name;
+    String path;
+    FileIOAdapter<Object> adapter;
+    Object value;
+    long expiresAt;
+    final List<StoreFuture<Void>> futures = new ArrayList<>(1);
+    /* 第一次提交的时间 */
+    final long submitted = System.nanoTime();
+
+    PendingWrite(String name) {
+      this.name = name;
+    }
+
+    @Override public void run() {
+      synchronized (mPendingWrites) {
+        // 已被同步写入或删除操作取消。
+        if (mPendingWrites.get(name) != this) {
+          return;
+        }
+
+        mPendingWrites.remove(name);
+      }
 
-    @Override public String read(String file) throws IOException {
-      BufferedReader br = null;
       try {
-        StringBuilder builder = new StringBuilder();
-        br = new BufferedReader(new FileReader(file));
-        String line;
-        while ((line = br.readLine()) != null) {
-          builder.append(line);
+        doWrite(name, path, adapter, value, expiresAt, System.nanoTime() - submitted);
+      } catch (IOException | RuntimeException e) {
+        if (DEBUG) {
+          Log.e(TAG, "write file: " + name + " error", e);
         }
-        return builder.toString();
 
-      } finally {
-        closeQuietly(br);
+        for (StoreFuture<Void> future : futures) {
+          future.fail(e);
+        }
+        return;
+      }
+
+      for (StoreFuture<Void> future : futures) {
+        future.complete(null);
       }
     }
-  };
 
-  // file utils:
+    /* 被同步写入或删除取消 */
+    void cancel() {
+      for (StoreFuture<Void> future : futures) {
+        future.cancel(false);
+      }
+    }
+  }
 
-  private static void checkAndCreateFile(String path) {
-    File file = new File(path);
-    try {
-      if (!file.exists()) {
-        if (file.createNewFile()) {
-          if (DEBUG) {
-            Log.i(TAG, "create file: " + file + " ok.");
-          }
-        }
+  @SuppressWarnings("unchecked")
+  private <T> void coalesceWrite(String name, String path, FileIOAdapter<T> adapter, T value,
+                                 long expiresAt, StoreFuture<Void> future) {
+    synchronized (mPendingWrites) {
+      if (mCoalesceScheduler.isShutdown()) {
+        throw new RejectedExecutionException("DirStore has been closed.");
       }
-    } catch (IOException e) {
-      if (DEBUG) {
-        Log.e(TAG, "create file: " + file + " error", e);
+
+      PendingWrite pending = mPendingWrites.get(name);
+      final boolean isNew = pending == null;
+      if (isNew) {
+        pending = new PendingWrite(name);
+        mPendingWrites.put(name, pending);
       }
+
+      pending.path = path;
+      pending.adapter = (FileIOAdapter<Object>) adapter;
+      pending.value = value;
+      pending.expiresAt = expiresAt;
+      pending.futures.add(future);
+
+      if (isNew) {
+        // 窗口从第一次写入开始计算，窗口内的写入合并为一次。
+        final PendingWrite task = pending;
+        mCoalesceScheduler.schedule(new Runnable() {
+          @Override public void run() {
+            mWriteLanes.execute(task.name, task);
+          }
+        }, mCoalesceDelay, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  private void cancelPendingWrite(String name) {
+    if (mCoalesceDelay > 0) {
+      final PendingWrite pending;
+      synchronized (mPendingWrites) {
+        pending = mPendingWrites.remove(name);
+      }
+
+      if (pending != null) {
+        pending.cancel();
+      }
+    }
+  }
+
+  private void cancelAllPendingWrites() {
+    if (mCoalesceDelay > 0) {
+      final List<PendingWrite> pendings;
+      synchronized (mPendingWrites) {
+        pendings = new ArrayList<>(mPendingWrites.values());
+        mPendingWrites.clear();
+      }
+
+      for (PendingWrite pending : pendings) {
+        pending.cancel();
+      }
+    }
+  }
+
+  private <T> void doWrite(String name, String path, FileIOAdapter<T> adapter, T value,
+                           long expiresAt, long queueWaitNanos) throws IOException {
+    final OpTrace trace = OpTrace.begin(queueWaitNanos);
+    ensureShardDir(name);
+    // 原子模式下写锁仅用于写入之间互斥，读取不加锁。
+    final Lock lock = mLocks.get(name).writeLock();
+    lock(lock, trace);
+    boolean written = false;
+    try {
+      if (mAtomicWrite) {
+        commitAtomic(path, adapter, value, expiresAt, trace);
+      } else {
+        writeValue(path, adapter, value, expiresAt, trace);
+      }
+      written = true;
+    } catch (IOException e) {
+      mListener.onError(StoreListener.OP_WRITE, name, e);
+      throw e;
+    } finally {
+      if (mCache != null) {
+        if (written) {
+          mCache.put(name, adapter.typeToken(), value);
+        } else {
+          // 写入失败时文件内容未知。
+          mCache.remove(name);
+        }
+      }
+
+      noteExpiry(name, written ? expiresAt : 0);
+      updateIndex(name, path);
+      lock.unlock();
+    }
+
+    trace.report(mListener, StoreListener.OP_WRITE, name);
+  }
+
+  private <T> void commitAtomic(String path, FileIOAdapter<T> adapter, T value, long expiresAt,
+                                OpTrace trace) throws IOException {
+    final File temp = new File(path + TEMP_SUFFIX);
+    boolean written = false;
+    try {
+      writeValue(temp.getPath(), adapter, value, expiresAt, trace);
+      written = true;
+    } finally {
+      final long start = System.nanoTime();
+      commitTemp(temp, path, !written);
+      trace.ioNanos += System.nanoTime() - start;
+    }
+  }
+
+  private <T> T doRead(String name, String path, FileIOAdapter<T> adapter, long queueWaitNanos)
+      throws IOException {
+    if (mCache == null) {
+      return readFile(name, path, adapter, queueWaitNanos);
+    }
+
+    final Class<T> type = adapter.typeToken();
+    final T cached = mCache.get(name, type);
+    if (cached != null && !isExpired(name, System.currentTimeMillis())) {
+      return cached;
+    }
+
+    final long version = mCache.version(name);
+    final T value = readFile(name, path, adapter, queueWaitNanos);
+    return mCache.putIfUnchanged(name, type, value, version);
+  }
+
+  private <T> T readFile(String name, String path, FileIOAdapter<T> adapter, long queueWaitNanos)
+      throws IOException {
+    final OpTrace trace = OpTrace.begin(queueWaitNanos);
+    T value;
+    try {
+      value = readFromAdapter(name, path, adapter, trace);
+    } catch (FileNotFoundException e) {
+      // 文件在第一次写入时创建，未写入的文件视为空值。
+      if (new File(path).exists()) {
+        mListener.onError(StoreListener.OP_READ, name, e);
+        throw e;
+      }
+
+      value = null;
+    } catch (IOException e) {
+      mListener.onError(StoreListener.OP_READ, name, e);
+      throw e;
+    }
+
+    trace.report(mListener, StoreListener.OP_READ, name);
+    return value;
+  }
+
+  private <T> T readFromAdapter(String name, String path, FileIOAdapter<T> adapter, OpTrace trace)
+      throws IOException {
+    if (mAtomicWrite) {
+      // 文件只会被整体替换，已打开的文件句柄始终指向完整的文件。
+      return readValue(name, path, adapter, trace);
+    }
+
+    final Lock lock = mLocks.get(name).readLock();
+    lock(lock, trace);
+    try {
+      return readValue(name, path, adapter, trace);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /* 写入值，启用编码时由 DirStore 写入编码后的内容 */
+  private <T> void writeValue(String path, FileIOAdapter<T> adapter, T value, long expiresAt,
+                              OpTrace trace) throws IOException {
+    checkUsable();
+    final long start = System.nanoTime();
+    if (mFormat == null || !(adapter instanceof BufferIOAdapter)) {
+      adapter.write(path, value);
+      trace.adapterNanos += System.nanoTime() - start;
+      if (mListener != StoreListener.NONE) {
+        trace.bytes += new File(path).length();
+      }
+      return;
+    }
+
+    final ByteBuffer file = mFormat.pack(((BufferIOAdapter<T>) adapter).encode(value), expiresAt);
+    final long encoded = System.nanoTime();
+    trace.adapterNanos += encoded - start;
+    trace.bytes += file.remaining();
+    ValueFormat.writeFile(path, file);
+    trace.ioNanos += System.nanoTime() - encoded;
+  }
+
+  private <T> T readValue(String name, String path, FileIOAdapter<T> adapter, OpTrace trace)
+      throws IOException {
+    checkUsable();
+    final long start = System.nanoTime();
+    if (mFormat == null || !(adapter instanceof BufferIOAdapter)) {
+      final T value = adapter.read(path);
+      trace.adapterNanos += System.nanoTime() - start;
+      if (mListener != StoreListener.NONE) {
+        trace.bytes += new File(path).length();
+      }
+      return value;
+    }
+
+    // 使用适配器读取文件，直接缓冲区和内存映射的适配器读到的值仍然是直接缓冲区和内存映射。
+    final ByteBuffer file = adapter instanceof ChannelIOAdapter ?
+        ((ChannelIOAdapter<T>) adapter).readFile(path) : ValueFormat.readFile(path);
+    final long read = System.nanoTime();
+    trace.ioNanos += read - start;
+    trace.bytes += file.remaining();
+    final long expiresAt = ValueFormat.expiresAt(file);
+    noteExpiry(name, expiresAt);
+    if (expiresAt > 0 && expiresAt <= System.currentTimeMillis()) {
+      expireLater(name);
+      return null;
+    }
+
+    final T value = ((BufferIOAdapter<T>) adapter).decode(mFormat.unpack(file));
+    trace.adapterNanos += System.nanoTime() - read;
+    return value;
+  }
+
+  /* 批量操作执行失败后存储不再可用 */
+  private void checkUsable() throws IOException {
+    final IOException failure = mFailure;
+    if (failure != null) {
+      throw new IOException("DirStore is unusable after a failed batch, recreate it to recover.",
+          failure);
+    }
+  }
+
+  private static void lock(Lock lock, OpTrace trace) {
+    final long start = System.nanoTime();
+    lock.lock();
+    trace.lockWaitNanos += System.nanoTime() - start;
+  }
+
+  /**
+   * 获得文件存储，不会访问文件系统，文件在第一次写入时创建。
+   * <p>
+   * 返回的实例不可变并且线程安全，可以长期持有。
+   */
+  @Override public <T> FileStore<T> with(String fileName, FileIOAdapter<T> adapter) {
+    return mFileStores.get(fileName, adapter);
+  }
+
+  /* 文件存储缓存的键，适配器按实例区分 */
+  private static final class FileStoreKey {
+    final String name;
+    final FileIOAdapter<?> adapter;
+
+    FileStoreKey(String name, FileIOAdapter<?> adapter) {
+      this.name = name;
+      this.adapter = adapter;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+
+      if (!(o instanceof FileStoreKey)) {
+        return false;
+      }
+
+      final FileStoreKey key = (FileStoreKey) o;
+      return adapter == key.adapter && name.equals(key.name);
+    }
+
+    @Override public int hashCode() {
+      return name.hashCode() * 31 + System.identityHashCode(adapter);
+    }
+  }
+
+  /*
+   * 分段的文件存储缓存，每段是一个按访问排序的 LinkedHashMap，with 只锁定键所在的段，
+   * 不同文件的调用方之间很少竞争。
+   */
+  private final class FileStoreCache {
+    private final List<Map<FileStoreKey, FileStore<?>>> mStripes =
+        new ArrayList<>(FILE_STORE_STRIPES);
+
+    FileStoreCache() {
+      for (int i = 0; i < FILE_STORE_STRIPES; i++) {
+        mStripes.add(new LinkedHashMap<FileStoreKey, FileStore<?>>(16, 0.75F, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<FileStoreKey, FileStore<?>> eldest) {
+            return size() > MAX_CACHED_FILE_STORES / FILE_STORE_STRIPES;
+          }
+        });
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> FileStore<T> get(String fileName, FileIOAdapter<T> adapter) {
+      final FileStoreKey key = new FileStoreKey(fileName, adapter);
+      int h = key.hashCode();
+      h ^= (h >>> 16);
+      final Map<FileStoreKey, FileStore<?>> stripe = mStripes.get(h & (FILE_STORE_STRIPES - 1));
+      synchronized (stripe) {
+        FileStore<T> fileStore = (FileStore<T>) stripe.get(key);
+        if (fileStore == null) {
+          fileStore = new FileStore<>(fileName, adapter);
+          stripe.put(key, fileStore);
+        }
+
+        return fileStore;
+      }
+    }
+  }
+
+  @Override public Batch batch() {
+    return new Batch();
+  }
+
+  /**
+   * 批量操作。
+   * <p>
+   * 提交时按顺序获取涉及的每个分段写锁，写入临时文件并同步到磁盘，再写入日志，
+   * 最后将临时文件重命名到目标文件并删除日志。提交过程中崩溃时，下次创建 DirStore 会根据日志
+   * 继续完成或放弃这次提交。
+   * <p>
+   * 提交需要 N + 1 次同步（N 为写入的文件数量）：日志只记录文件名，恢复时直接重命名临时文件，
+   * 因此日志落盘前每个临时文件的内容都必须已经落盘，否则崩溃后可能用不完整的临时文件覆盖目标文件。
+   * 如果把值写入日志只同步一次，删除日志前仍需要同步每个目标文件，次数相同。
+   * <p>
+   * 日志写入后执行失败时立即重试一次，仍然失败则在释放锁之前使存储不可用，之后的读写抛出
+   * {@link IOException}，不会读取到执行了一半的批量操作，重新创建 DirStore 时根据日志完成提交。
+   */
+  public final class Batch implements IDirStore.Batch {
+
+    private final class Op {
+      final FileIOAdapter<Object> adapter;
+      final Object value;
+      final boolean isDelete;
+      final long expiresAt;
+
+      Op(FileIOAdapter<Object> adapter, Object value, boolean isDelete) {
+        this.adapter = adapter;
+        this.value = value;
+        this.isDelete = isDelete;
+        this.expiresAt = isDelete ? 0 : defaultExpiresAt(adapter);
+      }
+    }
+
+    private final Map<String, Op> mOps = new LinkedHashMap<>();
+
+    private Batch() {}
+
+    @SuppressWarnings("unchecked")
+    @Override public <T> Batch write(String fileName, FileIOAdapter<T> adapter, T value) {
+      mOps.put(fileName, new Op((FileIOAdapter<Object>) adapter, value, false));
+      return this;
+    }
+
+    @Override public Batch delete(String fileName) {
+      mOps.put(fileName, new Op(null, null, true));
+      return this;
+    }
+
+    @Override public void commit() throws IOException {
+      if (mOps.isEmpty()) {
+        return;
+      }
+
+      final OpTrace trace = OpTrace.begin(0);
+      synchronized (mJournalLock) {
+        final int[] stripes = stripesOf(mOps.keySet());
+        for (int stripe : stripes) {
+          lock(mLocks.getAt(stripe).writeLock(), trace);
+        }
+
+        try {
+          commitLocked(trace);
+        } catch (IOException e) {
+          mListener.onError(StoreListener.OP_BATCH, null, e);
+          throw e;
+        } finally {
+          for (int i = stripes.length - 1; i >= 0; i--) {
+            mLocks.getAt(stripes[i]).writeLock().unlock();
+          }
+        }
+      }
+
+      trace.report(mListener, StoreListener.OP_BATCH, null);
+    }
+
+    private void commitLocked(OpTrace trace) throws IOException {
+      final List<BatchJournal.Op> journal = new ArrayList<>(mOps.size());
+      boolean prepared = false;
+      try {
+        for (Map.Entry<String, Op> entry : mOps.entrySet()) {
+          final String name = entry.getKey();
+          final Op op = entry.getValue();
+          cancelPendingWrite(name);
+
+          if (op.isDelete) {
+            journal.add(new BatchJournal.Op(BatchJournal.OP_DELETE, name));
+          } else {
+            ensureShardDir(name);
+            final File temp = new File(getFilePath(name) + BATCH_SUFFIX);
+            writeValue(temp.getPath(), op.adapter, op.value, op.expiresAt, trace);
+            final long start = System.nanoTime();
+            sync(temp);
+            trace.ioNanos += System.nanoTime() - start;
+            journal.add(new BatchJournal.Op(BatchJournal.OP_WRITE, name));
+          }
+        }
+
+        // 日志写入完成即视为提交。
+        final long start = System.nanoTime();
+        BatchJournal.write(getJournalFile(), journal);
+        trace.ioNanos += System.nanoTime() - start;
+        prepared = true;
+      } finally {
+        if (!prepared) {
+          for (String name : mOps.keySet()) {
+            deleteTarget(new File(getFilePath(name) + BATCH_SUFFIX));
+          }
+        }
+
+        if (mCache != null) {
+          for (String name : mOps.keySet()) {
+            mCache.remove(name);
+          }
+        }
+      }
+
+      // 执行失败时保留日志，下次创建 DirStore 时继续执行。
+      final long start = System.nanoTime();
+      try {
+        applyBatch(journal);
+      } catch (IOException e) {
+        // 执行可以重复，重试一次，仍然失败时在释放锁之前使存储不可用。
+        try {
+          applyBatch(journal);
+        } catch (IOException retry) {
+          mFailure = retry;
+          throw retry;
+        }
+      }
+
+      deleteTarget(getJournalFile());
+      trace.ioNanos += System.nanoTime() - start;
+
+      for (Map.Entry<String, Op> entry : mOps.entrySet()) {
+        noteExpiry(entry.getKey(), entry.getValue().expiresAt);
+      }
+
+      if (mCache != null) {
+        for (Map.Entry<String, Op> entry : mOps.entrySet()) {
+          final Op op = entry.getValue();
+          if (!op.isDelete) {
+            mCache.put(entry.getKey(), op.adapter.typeToken(), op.value);
+          }
+        }
+      }
+    }
+  }
+
+  private int[] stripesOf(Set<String> names) {
+    final Set<Integer> stripes = new TreeSet<>();
+    for (String name : names) {
+      stripes.add(mLocks.indexOf(name));
+    }
+
+    final int[] result = new int[stripes.size()];
+    int i = 0;
+    for (Integer stripe : stripes) {
+      result[i++] = stripe;
+    }
+
+    return result;
+  }
+
+  private File getJournalFile() {
+    return new File(mDataPath, JOURNAL_NAME);
+  }
+
+  private void applyBatch(List<BatchJournal.Op> ops) throws IOException {
+    for (BatchJournal.Op op : ops) {
+      final File target = new File(getFilePath(op.name));
+      if (op.type == BatchJournal.OP_DELETE) {
+        deleteTarget(target);
+        mIndex.remove(op.name);
+        continue;
+      }
+
+      final File temp = new File(target.getPath() + BATCH_SUFFIX);
+      // 恢复时临时文件可能已经被重命名。
+      if (temp.exists() && !temp.renameTo(target)) {
+        throw new IOException("rename " + temp + " to " + target + " failed.");
+      }
+
+      updateIndex(op.name, target.getPath());
+    }
+  }
+
+  /*
+   * 根据日志完成或放弃上次未完成的批量操作。
+   * 写入日志之前中断时没有日志，临时文件同样需要删除。
+   */
+  private void recoverBatch() {
+    final File journal = getJournalFile();
+    try {
+      final List<BatchJournal.Op> ops = journal.exists() ? BatchJournal.read(journal) : null;
+      if (ops != null) {
+        applyBatch(ops);
+      }
+
+      // 已提交的临时文件都已重命名，剩下的临时文件属于未提交的批量操作。
+      for (File file : listDataFiles()) {
+        if (file.getName().endsWith(BATCH_SUFFIX)) {
+          deleteTarget(file);
+        }
+      }
+
+      deleteTarget(journal);
+    } catch (IOException e) {
+      if (DEBUG) {
+        Log.e(TAG, "recover batch error", e);
+      }
+    }
+  }
+
+  @Override public void deleteFile(final String fileName) {
+    cancelPendingWrite(fileName);
+    final long submitted = System.nanoTime();
+    mWriteLanes.execute(fileName, new Runnable() {
+      @Override public void run() {
+        doDelete(fileName, System.nanoTime() - submitted);
+      }
+    });
+  }
+
+  @Override public void deleteSelf() {
+    cancelAllPendingWrites();
+    // 等待所有通道中已提交的写入完成。
+    mWriteLanes.executeBarrier(new Runnable() {
+      @Override public void run() {
+        deleteAllFiles();
+      }
+    });
+  }
+
+  /**
+   * 关闭存储，停止后台线程。
+   * <p>
+   * 尚未执行的合并写入立即提交，等待所有已提交的异步写入和删除完成，停止过期清理。
+   * 关闭后提交异步操作抛出 {@link RejectedExecutionException}，可以重复调用。
+   */
+  @Override public void close() {
+    final List<PendingWrite> pendings;
+    if (mCoalesceScheduler != null) {
+      synchronized (mPendingWrites) {
+        mCoalesceScheduler.shutdownNow();
+        pendings = new ArrayList<>(mPendingWrites.values());
+      }
+    } else {
+      pendings = Collections.emptyList();
+    }
+
+    for (PendingWrite pending : pendings) {
+      try {
+        mWriteLanes.execute(pending.name, pending);
+      } catch (RejectedExecutionException e) {
+        // 重复关闭时通道已停止，合并写入已在上次关闭时提交。
+        break;
+      }
+    }
+
+    if (mExpirySweeper != null) {
+      mExpirySweeper.shutdownNow();
+    }
+
+    mWriteLanes.shutdown();
+    sReadingService.shutdown();
+    try {
+      mWriteLanes.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      if (mExpirySweeper != null) {
+        mExpirySweeper.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /* 持有所有分段写锁，删除目录中的所有内容，包括临时文件、隔离目录和尚未建立索引的文件 */
+  private void deleteAllFiles() {
+    final int stripes = mLocks.size();
+    for (int i = 0; i < stripes; i++) {
+      mLocks.getAt(i).writeLock().lock();
+    }
+
+    try {
+      final File[] files = new File(mDataPath).listFiles();
+      if (files != null) {
+        for (File file : files) {
+          deleteRecursively(file);
+        }
+      }
+
+      mShardDirs.clear();
+      mIndex.clear();
+      mExpiry.clear();
+      if (mCache != null) {
+        mCache.clear();
+      }
+    } finally {
+      for (int i = stripes - 1; i >= 0; i--) {
+        mLocks.getAt(i).writeLock().unlock();
+      }
+    }
+  }
+
+  private void doDelete(String name, long queueWaitNanos) {
+    final OpTrace trace = OpTrace.begin(queueWaitNanos);
+    final Lock lock = mLocks.get(name).writeLock();
+    lock(lock, trace);
+    try {
+      checkUsable();
+      final long start = System.nanoTime();
+      deleteTarget(new File(getFilePath(name)));
+      trace.ioNanos += System.nanoTime() - start;
+      mIndex.remove(name);
+      mExpiry.remove(name);
+      if (mCache != null) {
+        mCache.remove(name);
+      }
+    } catch (IOException e) {
+      mListener.onError(StoreListener.OP_DELETE, name, e);
+      return;
+    } finally {
+      lock.unlock();
+    }
+
+    trace.report(mListener, StoreListener.OP_DELETE, name);
+  }
+
+  /* 记录过期时间点，为 0 时移除 */
+  private void noteExpiry(String name, long expiresAt) {
+    if (expiresAt > 0) {
+      mExpiry.put(name, expiresAt);
+    } else {
+      mExpiry.remove(name);
+    }
+  }
+
+  private boolean isExpired(String name, long now) {
+    final Long expiresAt = mExpiry.get(name);
+    return expiresAt != null && expiresAt <= now;
+  }
+
+  /* 读取时发现过期，提交到清理线程删除，未启用清理时使用文件所在的写入通道 */
+  private void expireLater(final String name) {
+    if (!mExpiring.add(name)) {
+      return;
+    }
+
+    final Runnable task = new Runnable() {
+      @Override public void run() {
+        try {
+          final Lock lock = mLocks.get(name).writeLock();
+          lock.lock();
+          try {
+            expireLocked(name, System.currentTimeMillis());
+          } finally {
+            lock.unlock();
+          }
+        } finally {
+          mExpiring.remove(name);
+        }
+      }
+    };
+
+    try {
+      if (mExpirySweeper != null) {
+        mExpirySweeper.execute(task);
+      } else {
+        mWriteLanes.execute(name, task);
+      }
+    } catch (RejectedExecutionException e) {
+      // 已关闭，过期的文件留到下次创建后删除。
+      mExpiring.remove(name);
+    }
+  }
+
+  /* 定期清理，分批删除已过期的文件 */
+  private void sweepExpired() {
+    try {
+      if (!isExpiryLoaded) {
+        loadExpiry();
+        isExpiryLoaded = true;
+      }
+
+      final long now = System.currentTimeMillis();
+      final List<String> batch = new ArrayList<>(SWEEP_BATCH_SIZE);
+      for (Map.Entry<String, Long> entry : mExpiry.entrySet()) {
+        if (entry.getValue() > now) {
+          continue;
+        }
+
+        batch.add(entry.getKey());
+        if (batch.size() == SWEEP_BATCH_SIZE) {
+          deleteExpired(batch, now);
+          batch.clear();
+        }
+      }
+
+      if (!batch.isEmpty()) {
+        deleteExpired(batch, now);
+      }
+    } catch (RuntimeException e) {
+      // 异常会取消定期任务。
+      if (DEBUG) {
+        Log.e(TAG, "sweep expired error", e);
+      }
+    }
+  }
+
+  /* 读取所有文件的文件头，获得过期时间点 */
+  private void loadExpiry() {
+    for (File file : listDataFiles()) {
+      final String name = file.getName();
+      if (isInternalFile(name)) {
+        continue;
+      }
+
+      try {
+        final long expiresAt = ValueFormat.readExpiresAt(file.getPath());
+        if (expiresAt > 0) {
+          mExpiry.putIfAbsent(name, expiresAt);
+        }
+      } catch (IOException e) {
+        if (DEBUG) {
+          Log.e(TAG, "read expiry: " + file + " error", e);
+        }
+      }
+    }
+  }
+
+  /* 按分段删除一批过期文件，每个分段只获取一次写锁，分段被占用时跳过 */
+  private void deleteExpired(List<String> names, long now) {
+    final Map<Integer, List<String>> stripes = new HashMap<>();
+    for (String name : names) {
+      final int stripe = mLocks.indexOf(name);
+      List<String> stripeNames = stripes.get(stripe);
+      if (stripeNames == null) {
+        stripeNames = new ArrayList<>();
+        stripes.put(stripe, stripeNames);
+      }
+
+      stripeNames.add(name);
+    }
+
+    for (Map.Entry<Integer, List<String>> entry : stripes.entrySet()) {
+      final Lock lock = mLocks.getAt(entry.getKey()).writeLock();
+      if (!lock.tryLock()) {
+        continue;
+      }
+
+      try {
+        for (String name : entry.getValue()) {
+          expireLocked(name, now);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /* 持有写锁时根据文件头确认过期，并删除文件 */
+  private void expireLocked(String name, long now) {
+    final OpTrace trace = OpTrace.begin(0);
+    final String path = getFilePath(name);
+    final long start = System.nanoTime();
+    try {
+      final long expiresAt = ValueFormat.readExpiresAt(path);
+      if (expiresAt == 0 || expiresAt > now) {
+        // 已被重新写入。
+        noteExpiry(name, expiresAt);
+        return;
+      }
+    } catch (IOException e) {
+      mListener.onError(StoreListener.OP_DELETE, name, e);
+      return;
+    }
+
+    deleteTarget(new File(path));
+    trace.ioNanos += System.nanoTime() - start;
+    mIndex.remove(name);
+    mExpiry.remove(name);
+    if (mCache != null) {
+      mCache.remove(name);
+    }
+
+    trace.report(mListener, StoreListener.OP_DELETE, name);
+  }
+
+  @Override public Set<String> keys() {
+    return mIndex.keys();
+  }
+
+  @Override public boolean contains(String fileName) {
+    return mIndex.contains(fileName);
+  }
+
+  @Override public long size(String fileName) {
+    return mIndex.size(fileName);
+  }
+
+  /* 写入后更新索引中的文件大小 */
+  private void updateIndex(String name, String path) {
+    mIndex.update(name, new File(path));
+  }
+
+  /* 扫描目录建立索引，跳过内部使用的临时文件和日志文件 */
+  private void scanKeys(Map<String, Long> sizes) {
+    for (File file : listDataFiles()) {
+      final String name = file.getName();
+      if (!isInternalFile(name)) {
+        sizes.put(name, file.length());
+      }
+    }
+  }
+
+  private static boolean isInternalFile(String name) {
+    return name.endsWith(TEMP_SUFFIX) || name.endsWith(BATCH_SUFFIX) ||
+        name.equals(JOURNAL_NAME) || name.equals(SHARDED_MARKER);
+  }
+
+  /* 并行校验所有文件，隔离损坏的文件 */
+  private void verifyFiles() {
+    final List<File> files = listDataFiles();
+    if (files.isEmpty()) {
+      return;
+    }
+
+    final int threads = Math.min(files.size(), Runtime.getRuntime().availableProcessors());
+    final ThreadPoolExecutor executor = ExecutorCreator.custom()
+        .coreSize(threads)
+        .maxPoolSize(threads)
+        .threadLabel("DirStore verify")
+        .create();
+
+    final List<Future<?>> futures = new ArrayList<>(files.size());
+    try {
+      for (final File file : files) {
+        futures.add(executor.submit(new Runnable() {
+          @Override public void run() {
+            verifyFile(file);
+          }
+        }));
+      }
+
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if (DEBUG) {
+            Log.e(TAG, "verify error", e);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void verifyFile(File file) {
+    final String name = file.getName();
+    if (name.endsWith(TEMP_SUFFIX)) {
+      // 原子写入未完成时残留的临时文件。
+      deleteTarget(file);
+      return;
+    }
+
+    if (isInternalFile(name)) {
+      return;
+    }
+
+    try {
+      ValueFormat.check(ValueFormat.readFile(file.getPath()));
+    } catch (CorruptFileException e) {
+      quarantine(file);
+    } catch (IOException e) {
+      if (DEBUG) {
+        Log.e(TAG, "verify file: " + file + " error", e);
+      }
+    }
+  }
+
+  private void quarantine(File file) {
+    final File dir = new File(mDataPath, QUARANTINE_DIR);
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      return;
+    }
+
+    final File target = new File(dir, file.getName());
+    deleteTarget(target);
+    if (!file.renameTo(target)) {
+      if (DEBUG) {
+        Log.e(TAG, "quarantine " + file + " failed.");
+      }
+      return;
+    }
+
+    mIndex.remove(file.getName());
+    if (DEBUG) {
+      Log.w(TAG, "quarantine corrupt file: " + file);
+    }
+  }
+
+  /**
+   * 将所有文件打包为一个只读快照文件，使用 {@link SnapshotDirStore} 读取。
+   * <p>
+   * 值在打包时解码（解压）并校验，快照中不包含文件头，已过期的值不打包，快照中的值不会过期。打包过程中每个文件加读锁，
+   * 不保证多个文件之间的一致性，应在没有写入时调用。
+   *
+   * @param snapshotPath 快照文件路径，已存在时被替换。
+   * @throws IOException 读取文件或写入快照失败，此时不会生成快照文件。
+   */
+  public void writeSnapshot(String snapshotPath) throws IOException {
+    // 未启用编码时仍然需要识别文件头。
+    final ValueFormat format = mFormat != null ? mFormat : new ValueFormat(null, 0, false);
+    final SnapshotDirStore.Writer writer = new SnapshotDirStore.Writer(snapshotPath);
+    boolean written = false;
+    try {
+      for (String name : new TreeSet<>(mIndex.keys())) {
+        final ByteBuffer file;
+        final Lock lock = mAtomicWrite ? null : mLocks.get(name).readLock();
+        lockQuietly(lock);
+        try {
+          file = ValueFormat.readFile(getFilePath(name));
+        } catch (FileNotFoundException e) {
+          // 打包过程中被删除。
+          continue;
+        } finally {
+          unlockQuietly(lock);
+        }
+
+        final long expiresAt = ValueFormat.expiresAt(file);
+        if (expiresAt > 0 && expiresAt <= System.currentTimeMillis()) {
+          continue;
+        }
+
+        writer.add(name, format.unpack(file));
+      }
+
+      writer.commit();
+      written = true;
+    } finally {
+      if (!written) {
+        writer.abort();
+      }
+    }
+  }
+
+  /**
+   * 获得被隔离的损坏文件。
+   *
+   * @return 损坏文件在隔离目录中的路径，没有时返回空列表。
+   * @see Builder#verifyOnStartup()
+   */
+  public List<String> quarantinedFiles() {
+    final File[] files = new File(mDataPath, QUARANTINE_DIR).listFiles();
+    if (files == null) {
+      return Collections.emptyList();
+    }
+
+    final List<String> result = new ArrayList<>(files.length);
+    for (File file : files) {
+      result.add(file.getPath());
+    }
+
+    return result;
+  }
+
+  private static void deleteRecursively(File file) {
+    final File[] children = file.isDirectory() ? file.listFiles() : null;
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+
+    deleteTarget(file);
+  }
+
+  private static void deleteTarget(File target) {
+    if (!target.exists()) { return; }
+
+    try {
+      if (target.delete()) {
+        if (DEBUG) {
+          Log.i(TAG, "delete file: " + target + " ok.");
+        }
+      }
+    } catch (Exception e) {
+      if (DEBUG) {
+        Log.e(TAG, "delete file: " + target, e);
+      }
+    }
+  }
+
+  /** UTF-8 字符串，保留原始内容（包括换行符） */
+  public static FileIOAdapter<String> STRING_IO_ADAPTER = new ChannelIOAdapter<String>() {
+    @Override public Class<String> typeToken() {
+      return String.class;
+    }
+
+    @Override public ByteBuffer encode(String value) {
+      return ByteBuffer.wrap(value.getBytes(UTF_8));
+    }
+
+    @Override public String decode(ByteBuffer buffer) {
+      return UTF_8.decode(buffer).toString();
+    }
+  };
+
+  /** 字节数组 */
+  public static final FileIOAdapter<byte[]> BYTES_IO_ADAPTER = new ChannelIOAdapter<byte[]>() {
+    @Override public Class<byte[]> typeToken() {
+      return byte[].class;
+    }
+
+    @Override public ByteBuffer encode(byte[] value) {
+      return ByteBuffer.wrap(value);
+    }
+
+    @Override public byte[] decode(ByteBuffer buffer) {
+      // 读取的缓冲区与文件大小一致时直接返回底层数组。
+      if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 &&
+          buffer.remaining() == buffer.array().length) {
+        return buffer.array();
+      }
+
+      final byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return bytes;
+    }
+  };
+
+  /** 字节缓冲区，读取时使用直接缓冲区 */
+  public static final FileIOAdapter<ByteBuffer> BYTE_BUFFER_IO_ADAPTER =
+      new ChannelIOAdapter<ByteBuffer>() {
+        @Override public Class<ByteBuffer> typeToken() {
+          return ByteBuffer.class;
+        }
+
+        @Override public ByteBuffer encode(ByteBuffer value) {
+          // 不改变调用方缓冲区的 position。
+          return value.duplicate();
+        }
+
+        @Override public ByteBuffer decode(ByteBuffer buffer) {
+          return buffer;
+        }
+
+        @Override protected ByteBuffer allocate(int size) {
+          return ByteBuffer.allocateDirect(size);
+        }
+      };
+
+  /**
+   * 字节缓冲区，读取时使用只读内存映射，适合较大的文件。
+   * <p>
+   * 映射在缓冲区被回收前一直有效，文件被替换或删除后仍可读取映射时的内容（原子写入模式）。
+   */
+  public static final FileIOAdapter<ByteBuffer> MAPPED_IO_ADAPTER =
+      new ChannelIOAdapter<ByteBuffer>() {
+        @Override public Class<ByteBuffer> typeToken() {
+          return ByteBuffer.class;
+        }
+
+        @Override public ByteBuffer encode(ByteBuffer value) {
+          return value.duplicate();
+        }
+
+        @Override public ByteBuffer decode(ByteBuffer buffer) {
+          return buffer;
+        }
+
+        @Override ByteBuffer readFile(String file) throws IOException {
+          FileInputStream in = null;
+          try {
+            in = new FileInputStream(file);
+            final FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, checkSize(channel.size()));
+          } finally {
+            closeQuietly(in);
+          }
+        }
+      };
+
+  // file utils:
+
+  private static void sync(File file) throws IOException {
+    FileOutputStream out = null;
+    try {
+      out = new FileOutputStream(file, true);
+      out.getFD().sync();
+    } finally {
+      closeQuietly(out);
     }
   }
 
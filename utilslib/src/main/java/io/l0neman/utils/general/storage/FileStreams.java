@@ -0,0 +1,127 @@
+package io.l0neman.utils.general.storage;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * DirStore 流式读写使用的流包装，关闭时执行一次回调（提交写入、释放文件锁）。
+ */
+final class FileStreams {
+
+  /** 关闭回调 */
+  interface OnClose {
+    /**
+     * @param failed 读写过程中是否发生过异常。
+     */
+    void onClose(boolean failed) throws IOException;
+  }
+
+  private FileStreams() {}
+
+  static final class Input extends FilterInputStream {
+    private final OnClose mOnClose;
+    private boolean isClosed;
+
+    Input(InputStream in, OnClose onClose) {
+      super(in);
+      this.mOnClose = onClose;
+    }
+
+    @Override public void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+
+      isClosed = true;
+      try {
+        super.close();
+      } finally {
+        mOnClose.onClose(false);
+      }
+    }
+  }
+
+  static final class Output extends FilterOutputStream {
+    private final OnClose mOnClose;
+    private boolean isClosed;
+    private boolean isFailed;
+
+    Output(OutputStream out, OnClose onClose) {
+      super(out);
+      this.mOnClose = onClose;
+    }
+
+    @Override public void write(int b) throws IOException {
+      try {
+        out.write(b);
+      } catch (IOException e) {
+        isFailed = true;
+        throw e;
+      }
+    }
+
+    // FilterOutputStream 默认逐字节写入。
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      try {
+        out.write(b, off, len);
+      } catch (IOException e) {
+        isFailed = true;
+        throw e;
+      }
+    }
+
+    @Override public void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+
+      isClosed = true;
+      try {
+        out.close();
+      } catch (IOException e) {
+        isFailed = true;
+        throw e;
+      } finally {
+        mOnClose.onClose(isFailed);
+      }
+    }
+  }
+
+  static final class Channel implements ReadableByteChannel {
+    private final FileChannel mChannel;
+    private final OnClose mOnClose;
+    private boolean isClosed;
+
+    Channel(FileChannel channel, OnClose onClose) {
+      this.mChannel = channel;
+      this.mOnClose = onClose;
+    }
+
+    @Override public int read(ByteBuffer dst) throws IOException {
+      return mChannel.read(dst);
+    }
+
+    @Override public boolean isOpen() {
+      return mChannel.isOpen();
+    }
+
+    @Override public void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+
+      isClosed = true;
+      try {
+        mChannel.close();
+      } finally {
+        mOnClose.onClose(false);
+      }
+    }
+  }
+}
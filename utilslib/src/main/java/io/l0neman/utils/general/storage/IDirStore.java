@@ -1,13 +1,18 @@
 package io.l0neman.utils.general.storage;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 /**
  * Created by l0neman on 2019/04/24.
  * <p>
  * 基于目录的存储接口。
  */
-public interface IDirStore {
+public interface IDirStore extends Closeable {
 
   interface ErrorCallback {
     void onError(IOException e);
@@ -42,6 +47,21 @@ public interface IDirStore {
     T read(String file) throws IOException;
   }
 
+  /**
+   * 基于字节缓冲区的文件输入输出适配器。
+   * <p>
+   * 提供值与字节之间的转换，存储实现可以在不经过文件路径的情况下编码和解码。
+   *
+   * @param <T> 输入输出数据类型。
+   */
+  interface BufferIOAdapter<T> extends FileIOAdapter<T> {
+    /** 将值编码为字节，返回的缓冲区已准备好读取 */
+    ByteBuffer encode(T value) throws IOException;
+
+    /** 从字节解码值，读取缓冲区中 position 到 limit 的内容 */
+    T decode(ByteBuffer buffer) throws IOException;
+  }
+
   /**
    * 基于文件的存储接口。
    *
@@ -52,26 +72,77 @@ public interface IDirStore {
     /** 同步保存数据 */
     void write(T value) throws IOException;
 
-    /** 异步保存数据 */
-    void writeAsync(T value, WriteCallback callback);
+    /**
+     * 异步保存数据，回调在存储默认的回调线程池中执行。
+     *
+     * @param callback 错误回调，可为 null。
+     * @return 写入完成时完成的 Future。
+     */
+    Future<Void> writeAsync(T value, WriteCallback callback);
+
+    /**
+     * 异步保存数据。
+     *
+     * @param callback         错误回调，可为 null。
+     * @param callbackExecutor 执行回调的线程池，参考 {@link CallbackExecutors}。
+     * @return 写入完成时完成的 Future。
+     */
+    Future<Void> writeAsync(T value, WriteCallback callback, Executor callbackExecutor);
 
     /** 同步读取数据 */
     T read() throws IOException;
 
-    /** 异步读取数据 */
-    void readAsync(ReadCallback<T> callback);
-
-    /** 设置 IO 适配器 */
+    /**
+     * 异步读取数据，回调在存储默认的回调线程池中执行。
+     *
+     * @param callback 读取回调，可为 null。
+     * @return 读取结果的 Future。
+     */
+    Future<T> readAsync(ReadCallback<T> callback);
+
+    /**
+     * 异步读取数据。
+     *
+     * @param callback         读取回调，可为 null。
+     * @param callbackExecutor 执行回调的线程池，参考 {@link CallbackExecutors}。
+     * @return 读取结果的 Future。
+     */
+    Future<T> readAsync(ReadCallback<T> callback, Executor callbackExecutor);
+
+    /**
+     * 设置 IO 适配器。
+     *
+     * @deprecated 文件存储实例不可变，使用 {@link IDirStore#with(String, FileIOAdapter)} 获得新的实例。
+     */
+    @Deprecated
     void setAdapter(FileIOAdapter<T> adapter);
   }
 
+  /**
+   * 批量操作。
+   * <p>
+   * 暂存多个文件的写入和删除，提交时一起执行，要么全部生效，要么全部不生效。
+   * 同一文件多次操作时以最后一次为准。
+   */
+  interface Batch {
+
+    /** 暂存写入 */
+    <T> Batch write(String fileName, FileIOAdapter<T> adapter, T value);
+
+    /** 暂存删除 */
+    Batch delete(String fileName);
+
+    /** 同步提交所有操作 */
+    void commit() throws IOException;
+  }
+
   /**
    * 获得一个文件存储。
    *
    * @param adapter  类型存储适配器。
    * @param fileName 存储文件名。
    * @param <T>      存储数据类型。
-   * @return 返回文件存储对象。
+   * @return 返回文件存储对象，不可变并且线程安全。
    */
   <T> IDirStore.FileStore<T> with(String fileName, FileIOAdapter<T> adapter);
 
@@ -82,6 +153,42 @@ public interface IDirStore {
    */
   void deleteFile(String fileName);
 
+  /**
+   * 开始批量操作。
+   *
+   * @return 批量操作对象，调用 {@link Batch#commit()} 提交。
+   */
+  Batch batch();
+
+  /**
+   * 获得所有文件名，使用内存索引，不扫描目录。
+   *
+   * @return 不可修改的文件名集合快照。
+   */
+  Set<String> keys();
+
+  /**
+   * 文件是否存在，使用内存索引，不访问文件系统。
+   *
+   * @param fileName 文件名。
+   */
+  boolean contains(String fileName);
+
+  /**
+   * 获得文件大小，使用内存索引，不访问文件系统。
+   *
+   * @param fileName 文件名。
+   * @return 文件大小（字节），文件不存在时返回 -1。
+   */
+  long size(String fileName);
+
   /** 删除整个目录 */
   void deleteSelf();
+
+  /**
+   * 关闭存储，等待已提交的异步写入完成，停止后台线程。
+   * <p>
+   * 关闭后不能再提交异步操作，按作用域创建存储时应在不再使用时关闭。
+   */
+  @Override void close();
 }
@@ -0,0 +1,155 @@
+package io.l0neman.utils.general.storage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DirStore 的内存文件索引，记录存在的文件名和文件大小。
+ * <p>
+ * 第一次使用时通过 {@link Loader} 扫描目录建立索引，之后在写入和删除时更新，不再扫描目录。
+ * 扫描期间不阻塞更新，扫描期间的更新被记录下来，扫描完成后按顺序重放，不会丢失。
+ */
+final class KeyIndex {
+
+  /** 扫描目录，建立索引 */
+  interface Loader {
+    void load(Map<String, Long> sizes);
+  }
+
+  /* 文件已删除 */
+  private static final long ABSENT = -1;
+
+  /* 扫描期间的更新，key 为 null 表示清空 */
+  private static final class Update {
+    final String key;
+    final long size;
+
+    Update(String key, long size) {
+      this.key = key;
+      this.size = size;
+    }
+  }
+
+  private final Loader mLoader;
+  private final Map<String, Long> mSizes = new ConcurrentHashMap<>();
+  /* 建立索引的锁，同一时间只有一个扫描 */
+  private final Object mLoadLock = new Object();
+  /* 更新和扫描完成之间的锁 */
+  private final Object mLock = new Object();
+  /* 扫描期间不为 null */
+  private List<Update> mPending;
+  private volatile boolean isLoaded;
+
+  KeyIndex(Loader loader) {
+    this.mLoader = loader;
+  }
+
+  private void ensureLoaded() {
+    if (isLoaded) {
+      return;
+    }
+
+    synchronized (mLoadLock) {
+      if (isLoaded) {
+        return;
+      }
+
+      synchronized (mLock) {
+        mPending = new ArrayList<>();
+      }
+
+      // 扫描时不持有更新锁，之后开始的更新都会被记录。
+      final Map<String, Long> sizes = new HashMap<>();
+      mLoader.load(sizes);
+
+      synchronized (mLock) {
+        mSizes.clear();
+        mSizes.putAll(sizes);
+        for (Update update : mPending) {
+          if (update.key == null) {
+            mSizes.clear();
+          } else {
+            set(update.key, update.size);
+          }
+        }
+
+        mPending = null;
+        isLoaded = true;
+      }
+    }
+  }
+
+  /* 同一文件名的更新由调用方的文件锁保证顺序 */
+  private void update(String key, long size) {
+    if (!isLoaded) {
+      synchronized (mLock) {
+        if (!isLoaded) {
+          // 未开始扫描时无需记录，扫描时会看到最新状态。
+          if (mPending != null) {
+            mPending.add(new Update(key, size));
+          }
+          return;
+        }
+      }
+    }
+
+    set(key, size);
+  }
+
+  private void set(String key, long size) {
+    if (key == null) {
+      mSizes.clear();
+    } else if (size == ABSENT) {
+      mSizes.remove(key);
+    } else {
+      mSizes.put(key, size);
+    }
+  }
+
+  /** 文件写入或删除后根据文件状态更新，未建立索引时不访问文件系统 */
+  void update(String key, File file) {
+    if (isLoaded || isTracking()) {
+      update(key, file.exists() ? file.length() : ABSENT);
+    }
+  }
+
+  /* 已建立索引或正在扫描，扫描结束时两个状态在同一个锁内切换 */
+  private boolean isTracking() {
+    synchronized (mLock) {
+      return isLoaded || mPending != null;
+    }
+  }
+
+  /** 文件删除后移除 */
+  void remove(String key) {
+    update(key, ABSENT);
+  }
+
+  /** 所有文件删除后清空，调用时不能有其他更新 */
+  void clear() {
+    update(null, ABSENT);
+  }
+
+  Set<String> keys() {
+    ensureLoaded();
+    return Collections.unmodifiableSet(new HashSet<>(mSizes.keySet()));
+  }
+
+  boolean contains(String key) {
+    ensureLoaded();
+    return mSizes.containsKey(key);
+  }
+
+  long size(String key) {
+    ensureLoaded();
+    final Long size = mSizes.get(key);
+    return size == null ? ABSENT : size;
+  }
+}
@@ -0,0 +1,996 @@
+package io.l0neman.utils.general.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import io.l0neman.utils.general.concurrent.ExecutorCreator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 基于追加日志的 {@link IDirStore} 实现。
+ * <p>
+ * 写入和删除都追加为日志记录（文件名、版本、值）写入段文件，内存中维护文件名到记录位置的索引，
+ * 读取时根据索引直接定位读取。段文件达到指定大小后切换到新的段文件，无效数据过多时在后台合并段文件。
+ * 启动时扫描所有段文件，按照记录的版本恢复索引，末尾不完整的记录会被截断。
+ * <p>
+ * 适合频繁修改的小数据，值的读写使用 {@link BufferIOAdapter} 直接编码解码，
+ * 其他适配器通过临时文件转换。
+ */
+public class LogDirStore implements IDirStore {
+
+  private static final String TAG = LogDirStore.class.getSimpleName();
+
+  /* 调试开关 */
+  private static final boolean DEBUG = false;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String SEGMENT_PREFIX = "seg-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String SCRATCH_DIR = "scratch";
+
+  /* 默认段文件大小 */
+  private static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  /* 记录头：文件名长度、值长度（-1 表示删除）、版本 */
+  private static final int HEADER_SIZE = 4 + 4 + 8;
+  /* 记录尾：CRC32 校验 */
+  private static final int TRAILER_SIZE = 4;
+  private static final int TOMBSTONE = -1;
+  /* 批量记录的文件名长度标记 */
+  private static final int BATCH = -2;
+
+  private final File mDir;
+  private final File mScratchDir;
+  private final long mSegmentSize;
+
+  /* 段文件编号到段文件 */
+  private final Map<Long, Segment> mSegments = new ConcurrentHashMap<>();
+  /* 文件名到最新记录的索引 */
+  private final Map<String, Location> mIndex = new ConcurrentHashMap<>();
+  /* 段文件删除时使用写锁，读取时使用读锁 */
+  private final ReadWriteLock mSegmentsLock = new ReentrantReadWriteLock();
+  /* 追加写入锁 */
+  private final Object mAppendLock = new Object();
+
+  private Segment mActive;
+  private long mVersion;
+  private long mTotalBytes;
+  private long mLiveBytes;
+
+  private final AtomicBoolean mCompacting = new AtomicBoolean(false);
+
+  // 异步存储线程池。
+  private final ExecutorService mWritingService = ExecutorCreator.single()
+      .threadFactory(new DaemonThreadFactory("LogDirStore write"))
+      .create();
+  // 异步读取线程池。
+  private final ExecutorService mReadingService =
+      Executors.newCachedThreadPool(new DaemonThreadFactory("LogDirStore read"));
+  // 后台合并线程池。
+  private final ExecutorService mCompactService = ExecutorCreator.single()
+      .threadFactory(new DaemonThreadFactory("LogDirStore compact"))
+      .create();
+
+  public LogDirStore(Context context) {
+    this(context.getFilesDir().getPath() + File.separator + "lds");
+  }
+
+  public LogDirStore(String dataPath) {
+    this(dataPath, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * @param dataPath    存储目录。
+   * @param segmentSize 段文件大小，超过后切换新的段文件。
+   */
+  public LogDirStore(String dataPath, long segmentSize) {
+    this.mDir = new File(dataPath);
+    this.mScratchDir = new File(mDir, SCRATCH_DIR);
+    this.mSegmentSize = segmentSize;
+
+    synchronized (mAppendLock) {
+      try {
+        recover();
+      } catch (IOException e) {
+        throw new IllegalStateException("recover " + dataPath + " error", e);
+      }
+    }
+  }
+
+  /* 段文件 */
+  private static final class Segment {
+    final long id;
+    final File file;
+    final RandomAccessFile raf;
+    final FileChannel channel;
+    /* 段文件中记录的最大版本，决定合并后删除段文件的顺序，需持有 mAppendLock */
+    long maxVersion;
+
+    Segment(long id, File file) throws IOException {
+      this.id = id;
+      this.file = file;
+      this.raf = new RandomAccessFile(file, "rw");
+      this.channel = raf.getChannel();
+    }
+
+    void close() {
+      ChannelIOAdapter.closeQuietly(raf);
+    }
+  }
+
+  /* 记录位置 */
+  private static final class Location {
+    final long segment;
+    /* 记录起始位置 */
+    final long offset;
+    final int recordSize;
+    final int valueOffset;
+    final int valueSize;
+    final long version;
+
+    Location(long segment, long offset, int keySize, int valueSize, long version) {
+      this.segment = segment;
+      this.offset = offset;
+      this.recordSize = recordSize(keySize, valueSize);
+      this.valueOffset = HEADER_SIZE + keySize;
+      this.valueSize = valueSize;
+      this.version = version;
+    }
+  }
+
+  private static int recordSize(int keySize, int valueSize) {
+    return HEADER_SIZE + keySize + Math.max(valueSize, 0) + TRAILER_SIZE;
+  }
+
+  public final class FileStore<T> implements IDirStore.FileStore<T> {
+
+    private final String name;
+    private final FileIOAdapter<T> adapter;
+
+    private FileStore(String name, FileIOAdapter<T> adapter) {
+      this.name = name;
+      this.adapter = adapter;
+    }
+
+    @Override public void write(T value) throws IOException {
+      doWrite(name, adapter, value);
+    }
+
+    @Override public Future<Void> writeAsync(T value, WriteCallback callback) {
+      return writeAsync(value, callback, CallbackExecutors.mainThread());
+    }
+
+    @Override public Future<Void> writeAsync(final T value, WriteCallback callback,
+                                             Executor callbackExecutor) {
+      final StoreFuture<Void> future = new StoreFuture<>(new Callable<Void>() {
+        @Override public Void call() throws IOException {
+          try {
+            doWrite(name, adapter, value);
+            return null;
+          } catch (IOException e) {
+            if (DEBUG) {
+              Log.e(TAG, "write file: " + name + " error", e);
+            }
+
+            throw e;
+          }
+        }
+      }, callback, callbackExecutor);
+      mWritingService.execute(future);
+      return future;
+    }
+
+    @Override public T read() throws IOException {
+      return doRead(name, adapter);
+    }
+
+    @Override public Future<T> readAsync(ReadCallback<T> callback) {
+      return readAsync(callback, CallbackExecutors.mainThread());
+    }
+
+    @Override public Future<T> readAsync(ReadCallback<T> callback, Executor callbackExecutor) {
+      final StoreFuture<T> future = new StoreFuture<>(new Callable<T>() {
+        @Override public T call() throws IOException {
+          try {
+            return doRead(name, adapter);
+          } catch (IOException e) {
+            if (DEBUG) {
+              Log.e(TAG, "read file: " + name + " error", e);
+            }
+
+            throw e;
+          }
+        }
+      }, callback, callbackExecutor);
+      mReadingService.execute(future);
+      return future;
+    }
+
+    /**
+     * 文件存储实例不可变，不支持修改适配器。
+     *
+     * @throws UnsupportedOperationException 总是抛出。
+     * @deprecated 使用 {@link LogDirStore#with(String, FileIOAdapter)} 获得新的实例。
+     */
+    @Deprecated
+    @Override public void setAdapter(FileIOAdapter<T> adapter) {
+      throw new UnsupportedOperationException("FileStore is immutable, use LogDirStore.with.");
+    }
+  }
+
+  @Override public <T> FileStore<T> with(String fileName, FileIOAdapter<T> adapter) {
+    return new FileStore<>(fileName, adapter);
+  }
+
+  @Override public Batch batch() {
+    return new Batch();
+  }
+
+  /**
+   * 批量操作，所有操作写入同一条批量记录。
+   * <p>
+   * 提交时将段文件强制写入磁盘后返回；单条写入和删除不强制写入磁盘。
+   */
+  public final class Batch implements IDirStore.Batch {
+
+    private final Map<String, ByteBuffer> mOps = new LinkedHashMap<>();
+    private IOException mError;
+
+    private Batch() {}
+
+    @Override public <T> Batch write(String fileName, FileIOAdapter<T> adapter, T value) {
+      try {
+        mOps.put(fileName, encode(adapter, value));
+      } catch (IOException e) {
+        // 在提交时抛出。
+        mError = e;
+      }
+
+      return this;
+    }
+
+    @Override public Batch delete(String fileName) {
+      mOps.put(fileName, null);
+      return this;
+    }
+
+    @Override public void commit() throws IOException {
+      if (mError != null) {
+        throw mError;
+      }
+
+      if (mOps.isEmpty()) {
+        return;
+      }
+
+      synchronized (mAppendLock) {
+        appendBatch(new ArrayList<>(mOps.keySet()), new ArrayList<>(mOps.values()), ++mVersion);
+      }
+
+      maybeCompact();
+    }
+  }
+
+  @Override public void deleteFile(final String fileName) {
+    mWritingService.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          synchronized (mAppendLock) {
+            if (mIndex.containsKey(fileName)) {
+              append(fileName, null, ++mVersion);
+            }
+          }
+        } catch (IOException e) {
+          if (DEBUG) {
+            Log.e(TAG, "delete file: " + fileName + " error", e);
+          }
+        }
+      }
+    });
+  }
+
+  @Override public void deleteSelf() {
+    mWritingService.execute(new Runnable() {
+      @Override public void run() {
+        synchronized (mAppendLock) {
+          mSegmentsLock.writeLock().lock();
+          try {
+            for (Segment segment : mSegments.values()) {
+              segment.close();
+              deleteQuietly(segment.file);
+            }
+
+            mSegments.clear();
+            mIndex.clear();
+            mActive = null;
+            mTotalBytes = 0;
+            mLiveBytes = 0;
+          } finally {
+            mSegmentsLock.writeLock().unlock();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * 关闭存储，等待已提交的异步写入和正在进行的合并完成，然后关闭段文件。
+   * <p>
+   * 关闭后提交异步操作抛出 {@link RejectedExecutionException}，可以重复调用。
+   */
+  @Override public void close() {
+    mWritingService.shutdown();
+    mCompactService.shutdown();
+    mReadingService.shutdown();
+    try {
+      mWritingService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      mCompactService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      mReadingService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    synchronized (mAppendLock) {
+      mSegmentsLock.writeLock().lock();
+      try {
+        for (Segment segment : mSegments.values()) {
+          segment.close();
+        }
+      } finally {
+        mSegmentsLock.writeLock().unlock();
+      }
+    }
+  }
+
+  @Override public Set<String> keys() {
+    return Collections.unmodifiableSet(new HashSet<>(mIndex.keySet()));
+  }
+
+  @Override public boolean contains(String fileName) {
+    return mIndex.containsKey(fileName);
+  }
+
+  @Override public long size(String fileName) {
+    final Location location = mIndex.get(fileName);
+    return location == null ? -1 : location.valueSize;
+  }
+
+  private <T> void doWrite(String name, FileIOAdapter<T> adapter, T value) throws IOException {
+    final ByteBuffer encoded = encode(adapter, value);
+    synchronized (mAppendLock) {
+      append(name, encoded, ++mVersion);
+    }
+
+    maybeCompact();
+  }
+
+  private <T> T doRead(String name, FileIOAdapter<T> adapter) throws IOException {
+    final ByteBuffer value;
+    mSegmentsLock.readLock().lock();
+    try {
+      final Location location = mIndex.get(name);
+      if (location == null) {
+        return null;
+      }
+
+      value = readValue(location);
+    } finally {
+      mSegmentsLock.readLock().unlock();
+    }
+
+    return decode(adapter, value);
+  }
+
+  /* 调用时需持有 mSegmentsLock 读锁 */
+  private ByteBuffer readValue(Location location) throws IOException {
+    final Segment segment = mSegments.get(location.segment);
+    if (segment == null) {
+      throw new IOException("segment missing: " + location.segment);
+    }
+
+    final ByteBuffer buffer = ByteBuffer.allocate(location.valueSize);
+    readFully(segment.channel, buffer, location.offset + location.valueOffset);
+    buffer.flip();
+    return buffer;
+  }
+
+  // append:
+
+  /* 调用时需持有 mAppendLock，value 为 null 表示删除 */
+  private void append(String name, ByteBuffer value, long version) throws IOException {
+    final byte[] key = name.getBytes(UTF_8);
+    final ByteBuffer record = ByteBuffer.allocate(
+        recordSize(key.length, value == null ? TOMBSTONE : value.remaining()));
+    putRecord(record, key, value, version);
+    record.flip();
+
+    final long offset = writeRecord(record);
+    mActive.maxVersion = Math.max(mActive.maxVersion, version);
+    applyRecord(name, mActive.id, offset, key.length,
+        value == null ? TOMBSTONE : value.remaining(), version);
+  }
+
+  /**
+   * 追加批量记录，调用时需持有 mAppendLock。
+   * <p>
+   * 批量记录的内容为多条普通记录，整体使用一个校验，恢复时要么全部生效，要么全部丢弃。
+   */
+  private void appendBatch(List<String> names, List<ByteBuffer> values, long version)
+      throws IOException {
+    final int count = names.size();
+    final byte[][] keys = new byte[count][];
+    int payloadSize = 0;
+    for (int i = 0; i < count; i++) {
+      keys[i] = names.get(i).getBytes(UTF_8);
+      final ByteBuffer value = values.get(i);
+      payloadSize += recordSize(keys[i].length, value == null ? TOMBSTONE : value.remaining());
+    }
+
+    final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payloadSize + TRAILER_SIZE);
+    record.putInt(BATCH).putInt(payloadSize).putLong(version);
+    final int[] positions = new int[count];
+    for (int i = 0; i < count; i++) {
+      positions[i] = record.position();
+      putRecord(record, keys[i], values.get(i), version);
+    }
+
+    putCrc(record);
+    record.flip();
+
+    final long offset = writeRecord(record);
+    // 提交返回前批量记录已写入磁盘。
+    forceSegment(mActive.channel);
+    mActive.maxVersion = Math.max(mActive.maxVersion, version);
+    for (int i = 0; i < count; i++) {
+      applyRecord(names.get(i), mActive.id, offset + positions[i], keys[i].length,
+          values.get(i) == null ? TOMBSTONE : values.get(i).remaining(), version);
+    }
+  }
+
+  private static void putRecord(ByteBuffer record, byte[] key, ByteBuffer value, long version) {
+    final int start = record.position();
+    record.putInt(key.length)
+        .putInt(value == null ? TOMBSTONE : value.remaining())
+        .putLong(version)
+        .put(key);
+    if (value != null) {
+      record.put(value.duplicate());
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(record.array(), start, record.position() - start);
+    record.putInt((int) crc.getValue());
+  }
+
+  private static void putCrc(ByteBuffer record) {
+    final CRC32 crc = new CRC32();
+    crc.update(record.array(), 0, record.position());
+    record.putInt((int) crc.getValue());
+  }
+
+  /* 将记录写入当前段文件，返回记录起始位置 */
+  private long writeRecord(ByteBuffer record) throws IOException {
+    final int size = record.remaining();
+    if (mActive == null || mActive.channel.size() + size > mSegmentSize &&
+        mActive.channel.size() > 0) {
+      rollSegment();
+    }
+
+    final FileChannel channel = mActive.channel;
+    final long offset = channel.size();
+    while (record.hasRemaining()) {
+      channel.write(record, offset + record.position());
+    }
+
+    mTotalBytes += size;
+    return offset;
+  }
+
+  /* 更新索引和有效数据大小 */
+  private void applyRecord(String name, long segment, long offset, int keySize, int valueSize,
+                           long version) {
+    final Location old;
+    if (valueSize == TOMBSTONE) {
+      old = mIndex.remove(name);
+    } else {
+      final Location location = new Location(segment, offset, keySize, valueSize, version);
+      old = mIndex.put(name, location);
+      mLiveBytes += location.recordSize;
+    }
+
+    if (old != null) {
+      mLiveBytes -= old.recordSize;
+    }
+  }
+
+  private void rollSegment() throws IOException {
+    mActive = createSegment();
+  }
+
+  /* 调用时需持有 mAppendLock，创建编号最大的段文件 */
+  private Segment createSegment() throws IOException {
+    long id = 1;
+    for (Long segment : mSegments.keySet()) {
+      id = Math.max(id, segment + 1);
+    }
+
+    final Segment segment = new Segment(id, new File(mDir, segmentName(id)));
+    mSegments.put(id, segment);
+    return segment;
+  }
+
+  private static String segmentName(long id) {
+    return SEGMENT_PREFIX + String.format("%012d", id) + SEGMENT_SUFFIX;
+  }
+
+  // compaction:
+
+  private void maybeCompact() {
+    synchronized (mAppendLock) {
+      // 无效数据超过一半，并且存在已写满的段文件时合并。
+      if (mSegments.size() < 2 || mTotalBytes - mLiveBytes < mTotalBytes / 2) {
+        return;
+      }
+    }
+
+    if (!mCompacting.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      mCompactService.execute(new Runnable() {
+        @Override public void run() {
+          try {
+            compact();
+          } catch (IOException e) {
+            if (DEBUG) {
+              Log.e(TAG, "compact error", e);
+            }
+          } finally {
+            mCompacting.set(false);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // 已关闭，不再合并。
+      mCompacting.set(false);
+    }
+  }
+
+  /**
+   * 将已写满的段文件中仍然有效的记录复制到新的段文件，然后删除这些段文件。
+   * <p>
+   * 所有已写满的段文件一起合并，其中的删除记录不再需要保留。只在记录有效位置和替换索引时持有追加锁，
+   * 复制过程中前台写入继续追加到当前段文件，复制期间被修改或删除的记录在替换时丢弃。
+   * 复制的记录保留原来的版本，恢复时按照版本应用，与段文件的顺序无关。
+   */
+  private void compact() throws IOException {
+    final List<Segment> sealed = new ArrayList<>();
+    final List<String> names = new ArrayList<>();
+    final List<Location> locations = new ArrayList<>();
+    final Segment target;
+    synchronized (mAppendLock) {
+      for (Segment segment : mSegments.values()) {
+        if (segment != mActive) {
+          sealed.add(segment);
+        }
+      }
+
+      if (sealed.isEmpty()) {
+        return;
+      }
+
+      for (Map.Entry<String, Location> entry : mIndex.entrySet()) {
+        if (containsSegment(sealed, entry.getValue().segment)) {
+          names.add(entry.getKey());
+          locations.add(entry.getValue());
+        }
+      }
+
+      // 合并结果写入新的段文件，不作为当前段文件。
+      target = createSegment();
+    }
+
+    final List<Location> copies = new ArrayList<>(locations.size());
+    long size = 0;
+    long maxVersion = 0;
+    boolean copied = false;
+    try {
+      for (int i = 0; i < locations.size(); i++) {
+        final Location location = locations.get(i);
+        final ByteBuffer value;
+        mSegmentsLock.readLock().lock();
+        try {
+          value = readValue(location);
+        } finally {
+          mSegmentsLock.readLock().unlock();
+        }
+
+        final byte[] key = names.get(i).getBytes(UTF_8);
+        final ByteBuffer record = ByteBuffer.allocate(recordSize(key.length, value.remaining()));
+        putRecord(record, key, value, location.version);
+        record.flip();
+        while (record.hasRemaining()) {
+          target.channel.write(record, size + record.position());
+        }
+
+        copies.add(new Location(target.id, size, key.length, location.valueSize,
+            location.version));
+        size += record.limit();
+        maxVersion = Math.max(maxVersion, location.version);
+      }
+
+      // 删除已写满的段文件前确保复制的记录已写入磁盘。
+      target.channel.force(false);
+      copied = true;
+    } finally {
+      if (!copied) {
+        synchronized (mAppendLock) {
+          discardSegment(target);
+        }
+      }
+    }
+
+    synchronized (mAppendLock) {
+      if (mSegments.get(target.id) != target || !containsAll(sealed)) {
+        // 合并期间目录被删除。
+        discardSegment(target);
+        return;
+      }
+
+      for (int i = 0; i < copies.size(); i++) {
+        final String name = names.get(i);
+        // 位置未改变说明合并期间没有写入或删除。
+        if (mIndex.get(name) == locations.get(i)) {
+          mIndex.put(name, copies.get(i));
+        }
+      }
+
+      target.maxVersion = maxVersion;
+      mTotalBytes += size;
+      mSegmentsLock.writeLock().lock();
+      try {
+        // 删除记录不复制到新的段文件，按最大版本从小到大删除，先删除包含旧记录的段文件，
+        // 中途崩溃时保留的段文件中的旧记录仍然被删除记录覆盖。
+        Collections.sort(sealed, DELETE_ORDER);
+        for (Segment segment : sealed) {
+          mSegments.remove(segment.id);
+          mTotalBytes -= segment.channel.size();
+          segment.close();
+          deleteSegmentFile(segment.file);
+        }
+      } finally {
+        mSegmentsLock.writeLock().unlock();
+      }
+    }
+
+    if (DEBUG) {
+      Log.d(TAG, "compact " + sealed.size() + " segments.");
+    }
+  }
+
+  /*
+   * 合并后删除段文件的顺序。
+   * 当前段文件中的记录比已写满的段文件中的记录都新，合并写入的段文件只包含合并开始时已写满的段文件中的旧记录，
+   * 因此删除记录所在段文件的最大版本一定大于它覆盖的旧记录所在段文件的最大版本。
+   * 合并写入的段文件编号最大，不能按编号排序。
+   */
+  private static final Comparator<Segment> DELETE_ORDER = new Comparator<Segment>() {
+    @Override public int compare(Segment a, Segment b) {
+      if (a.maxVersion != b.maxVersion) {
+        return a.maxVersion < b.maxVersion ? -1 : 1;
+      }
+
+      return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+    }
+  };
+
+  /* 将段文件写入磁盘，测试中覆盖以检查提交时机 */
+  void forceSegment(FileChannel channel) throws IOException {
+    channel.force(false);
+  }
+
+  /* 删除合并后的段文件，测试中覆盖以模拟删除过程中崩溃 */
+  void deleteSegmentFile(File file) throws IOException {
+    deleteQuietly(file);
+  }
+
+  /* 调用时需持有 mAppendLock，放弃合并时写入的段文件 */
+  private void discardSegment(Segment segment) {
+    mSegmentsLock.writeLock().lock();
+    try {
+      // 已被 deleteSelf 删除时编号可能已被新的段文件使用。
+      if (mSegments.get(segment.id) == segment) {
+        mSegments.remove(segment.id);
+        segment.close();
+        deleteQuietly(segment.file);
+      }
+    } finally {
+      mSegmentsLock.writeLock().unlock();
+    }
+  }
+
+  private boolean containsAll(List<Segment> segments) {
+    for (Segment segment : segments) {
+      if (mSegments.get(segment.id) != segment) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean containsSegment(List<Segment> segments, long id) {
+    for (Segment segment : segments) {
+      if (segment.id == id) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  // recover:
+
+  private void recover() throws IOException {
+    if (!mDir.exists() && !mDir.mkdirs()) {
+      throw new IOException("create dir " + mDir + " error");
+    }
+
+    deleteDir(mScratchDir);
+
+    final File[] files = mDir.listFiles();
+    if (files == null) {
+      return;
+    }
+
+    final List<Long> ids = new ArrayList<>();
+    for (File file : files) {
+      final String name = file.getName();
+      if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+        try {
+          ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+              name.length() - SEGMENT_SUFFIX.length())));
+        } catch (NumberFormatException ignore) {
+        }
+      }
+    }
+
+    final Long[] sorted = ids.toArray(new Long[0]);
+    Arrays.sort(sorted);
+    // 删除记录的版本，避免合并复制的旧记录覆盖之后的删除。
+    final Map<String, Long> deleted = new HashMap<>();
+    for (Long id : sorted) {
+      final Segment segment = new Segment(id, new File(mDir, segmentName(id)));
+      mSegments.put(id, segment);
+      scanSegment(segment, deleted);
+    }
+
+    // 编号最大的段文件可能是合并写入的段文件，其中的旧记录不能与之后的写入放在同一个段文件中，
+    // 否则合并时删除了覆盖它们的删除记录，而这个段文件作为当前段文件不参与合并。
+    // 第一次写入时创建新的段文件。
+    mActive = null;
+  }
+
+  private void scanSegment(Segment segment, Map<String, Long> deleted) throws IOException {
+    final FileChannel channel = segment.channel;
+    final long size = channel.size();
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    long offset = 0;
+
+    while (offset + HEADER_SIZE <= size) {
+      header.clear();
+      readFully(channel, header, offset);
+      header.flip();
+      final int keySize = header.getInt();
+      final int valueSize = header.getInt();
+
+      // 损坏的记录头可能使 int 计算溢出，使用 long 计算。
+      final long recordSize;
+      if (keySize == BATCH) {
+        recordSize = (long) HEADER_SIZE + valueSize + TRAILER_SIZE;
+      } else if (keySize >= 0 && valueSize >= TOMBSTONE) {
+        recordSize = (long) HEADER_SIZE + keySize + Math.max(valueSize, 0) + TRAILER_SIZE;
+      } else {
+        break;
+      }
+
+      if (valueSize < TOMBSTONE || recordSize > size - offset ||
+          recordSize > Integer.MAX_VALUE) {
+        break;
+      }
+
+      final ByteBuffer record = ByteBuffer.allocate((int) recordSize);
+      readFully(channel, record, offset);
+      if (!checkCrc(record, 0, (int) recordSize)) {
+        break;
+      }
+
+      if (keySize == BATCH) {
+        // 批量记录整体校验通过，逐条应用其中的记录。
+        int position = HEADER_SIZE;
+        while (position < recordSize - TRAILER_SIZE) {
+          position += scanRecord(record, position, segment, offset, deleted);
+        }
+      } else {
+        scanRecord(record, 0, segment, offset, deleted);
+      }
+
+      offset += recordSize;
+    }
+
+    if (offset < size) {
+      // 不完整或损坏的记录，截断。
+      if (DEBUG) {
+        Log.w(TAG, "truncate " + segment.file + " at " + offset + ", size: " + size);
+      }
+
+      channel.truncate(offset);
+    }
+
+    mTotalBytes += offset;
+  }
+
+  /* 应用 buffer 中 position 位置的普通记录，版本较旧的记录被忽略，返回记录大小 */
+  private int scanRecord(ByteBuffer buffer, int position, Segment segment, long base,
+                         Map<String, Long> deleted) {
+    final int keySize = buffer.getInt(position);
+    final int valueSize = buffer.getInt(position + 4);
+    final long version = buffer.getLong(position + 8);
+    final String name = new String(buffer.array(), position + HEADER_SIZE, keySize, UTF_8);
+
+    mVersion = Math.max(mVersion, version);
+    segment.maxVersion = Math.max(segment.maxVersion, version);
+    final Location current = mIndex.get(name);
+    final Long deletedVersion = deleted.get(name);
+    if (current != null && current.version > version ||
+        deletedVersion != null && deletedVersion > version) {
+      return recordSize(keySize, valueSize);
+    }
+
+    if (valueSize == TOMBSTONE) {
+      deleted.put(name, version);
+    }
+
+    applyRecord(name, segment.id, base + position, keySize, valueSize, version);
+    return recordSize(keySize, valueSize);
+  }
+
+  private static boolean checkCrc(ByteBuffer record, int start, int size) {
+    final CRC32 crc = new CRC32();
+    crc.update(record.array(), start, size - TRAILER_SIZE);
+    return (int) crc.getValue() == record.getInt(start + size - TRAILER_SIZE);
+  }
+
+  // codec:
+
+  private <T> ByteBuffer encode(FileIOAdapter<T> adapter, T value) throws IOException {
+    if (adapter instanceof BufferIOAdapter) {
+      return ((BufferIOAdapter<T>) adapter).encode(value);
+    }
+
+    final File scratch = createScratchFile();
+    try {
+      adapter.write(scratch.getPath(), value);
+      return readFile(scratch);
+    } finally {
+      deleteQuietly(scratch);
+    }
+  }
+
+  private <T> T decode(FileIOAdapter<T> adapter, ByteBuffer value) throws IOException {
+    if (adapter instanceof BufferIOAdapter) {
+      return ((BufferIOAdapter<T>) adapter).decode(value);
+    }
+
+    final File scratch = createScratchFile();
+    try {
+      writeFile(scratch, value);
+      return adapter.read(scratch.getPath());
+    } finally {
+      deleteQuietly(scratch);
+    }
+  }
+
+  private File createScratchFile() throws IOException {
+    if (!mScratchDir.exists() && !mScratchDir.mkdirs() && !mScratchDir.exists()) {
+      throw new IOException("create dir " + mScratchDir + " error");
+    }
+
+    return File.createTempFile("value", null, mScratchDir);
+  }
+
+  // io utils:
+
+  /* 从文件的 position 位置读满缓冲区 */
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    long read = 0;
+    while (buffer.hasRemaining()) {
+      final int n = channel.read(buffer, position + read);
+      if (n < 0) {
+        throw new IOException("unexpected end of file.");
+      }
+
+      read += n;
+    }
+  }
+
+  private static ByteBuffer readFile(File file) throws IOException {
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      final FileChannel channel = in.getChannel();
+      final ByteBuffer buffer = ByteBuffer.allocate(ChannelIOAdapter.checkSize(channel.size()));
+      readFully(channel, buffer, 0);
+      buffer.flip();
+      return buffer;
+    } finally {
+      ChannelIOAdapter.closeQuietly(in);
+    }
+  }
+
+  private static void writeFile(File file, ByteBuffer buffer) throws IOException {
+    FileOutputStream out = null;
+    try {
+      out = new FileOutputStream(file);
+      final FileChannel channel = out.getChannel();
+      final ByteBuffer duplicate = buffer.duplicate();
+      while (duplicate.hasRemaining()) {
+        channel.write(duplicate);
+      }
+    } finally {
+      ChannelIOAdapter.closeQuietly(out);
+    }
+  }
+
+  private static void deleteDir(File dir) {
+    final File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        deleteQuietly(file);
+      }
+    }
+
+    deleteQuietly(dir);
+  }
+
+  private static void deleteQuietly(File file) {
+    if (file.exists() && !file.delete()) {
+      if (DEBUG) {
+        Log.w(TAG, "delete file: " + file + " failed.");
+      }
+    }
+  }
+}
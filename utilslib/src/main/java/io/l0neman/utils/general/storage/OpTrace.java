@@ -0,0 +1,40 @@
+package io.l0neman.utils.general.storage;
+
+/**
+ * DirStore 单次操作的耗时记录，每个线程复用同一个实例，不分配对象。
+ */
+final class OpTrace {
+
+  private static final ThreadLocal<OpTrace> CURRENT = new ThreadLocal<OpTrace>() {
+    @Override protected OpTrace initialValue() {
+      return new OpTrace();
+    }
+  };
+
+  long queueWaitNanos;
+  long lockWaitNanos;
+  long adapterNanos;
+  long ioNanos;
+  long bytes;
+
+  private OpTrace() {}
+
+  /**
+   * 开始记录当前线程的一次操作。
+   *
+   * @param queueWaitNanos 异步操作的排队等待时间。
+   */
+  static OpTrace begin(long queueWaitNanos) {
+    final OpTrace trace = CURRENT.get();
+    trace.queueWaitNanos = queueWaitNanos;
+    trace.lockWaitNanos = 0;
+    trace.adapterNanos = 0;
+    trace.ioNanos = 0;
+    trace.bytes = 0;
+    return trace;
+  }
+
+  void report(StoreListener listener, int op, String name) {
+    listener.onOperation(op, name, queueWaitNanos, lockWaitNanos, adapterNanos, ioNanos, bytes);
+  }
+}
@@ -0,0 +1,73 @@
+package io.l0neman.utils.general.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 普通 Java 对象的二进制适配器，不需要为每个类型编写适配器。
+ * <p>
+ * 类型需要无参构造器（可以是私有的），存储所有非 static、非 transient 字段（包括父类字段），字段支持：
+ * <ul>
+ * <li>基本类型及其包装类型、String、byte[]、枚举（按名称存储）；</li>
+ * <li>嵌套的记录类型，值必须是声明的类型本身，子类实例的字段无法存储，写入时抛出 IOException；</li>
+ * <li>以上类型元素的 List、Collection、ArrayList（读取为 ArrayList）。</li>
+ * </ul>
+ * 字段按名称哈希标记，类型增加或删除字段后旧数据仍可读取，缺少的字段保持构造器中的默认值。
+ * 字段结构在第一次获取适配器时通过反射解析并缓存，读写时不再查找字段。
+ *
+ * @param <T> 记录类型。
+ */
+public final class RecordIOAdapter<T> extends ChannelIOAdapter<T> {
+
+  private static final Map<Class<?>, RecordIOAdapter<?>> sAdapters = new ConcurrentHashMap<>();
+
+  private final RecordSchema<T> mSchema;
+  /* 上次编码的大小，用于估算缓冲区 */
+  private volatile int mLastSize = 64;
+
+  private RecordIOAdapter(RecordSchema<T> schema) {
+    this.mSchema = schema;
+  }
+
+  /**
+   * 获得类型的适配器，每个类型只创建一次。
+   *
+   * @throws IllegalArgumentException 类型没有无参构造器或包含不支持的字段类型。
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> RecordIOAdapter<T> of(Class<T> type) {
+    RecordIOAdapter<T> adapter = (RecordIOAdapter<T>) sAdapters.get(type);
+    if (adapter == null) {
+      adapter = new RecordIOAdapter<>(RecordSchema.of(type));
+      sAdapters.put(type, adapter);
+    }
+
+    return adapter;
+  }
+
+  @Override public Class<T> typeToken() {
+    return mSchema.type();
+  }
+
+  @Override public ByteBuffer encode(T value) throws IOException {
+    final RecordWriter out = new RecordWriter(mLastSize);
+    try {
+      mSchema.write(value, out);
+    } catch (IllegalAccessException | IllegalArgumentException e) {
+      throw new IOException("encode " + mSchema.type().getName() + " error", e);
+    }
+
+    mLastSize = out.size();
+    return out.toByteBuffer();
+  }
+
+  @Override public T decode(ByteBuffer buffer) throws IOException {
+    try {
+      return mSchema.read(buffer);
+    } catch (Exception e) {
+      throw new IOException("decode " + mSchema.type().getName() + " error", e);
+    }
+  }
+}
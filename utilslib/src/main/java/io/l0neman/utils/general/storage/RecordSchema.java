@@ -0,0 +1,563 @@
+package io.l0neman.utils.general.storage;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 记录类型的字段结构，每个类型只通过反射解析一次，之后读写只使用缓存的字段和构造器。
+ * <p>
+ * 编码格式为连续的字段：
+ *
+ * <pre><code>
+ *
+ *   tag(4) | type(1) | value
+ *
+ * </code></pre>
+ * <p>
+ * tag 为字段名哈希，读取时跳过未知的字段和类型不匹配的字段，类型增删字段后旧数据仍可读取。
+ */
+final class RecordSchema<T> {
+
+  /* 字段值类型 */
+  static final int T_NULL = 0;
+  static final int T_BOOLEAN = 1;
+  static final int T_BYTE = 2;
+  static final int T_SHORT = 3;
+  static final int T_CHAR = 4;
+  static final int T_INT = 5;
+  static final int T_LONG = 6;
+  static final int T_FLOAT = 7;
+  static final int T_DOUBLE = 8;
+  static final int T_STRING = 9;
+  static final int T_BYTES = 10;
+  static final int T_ENUM = 11;
+  static final int T_RECORD = 12;
+  static final int T_LIST = 13;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final ConcurrentMap<Class<?>, RecordSchema<?>> sSchemas =
+      new ConcurrentHashMap<>();
+
+  private final Class<T> mType;
+  private final Constructor<T> mConstructor;
+  /* 按 tag 排序 */
+  private final FieldCodec[] mFields;
+  private final int[] mTags;
+
+  @SuppressWarnings("unchecked")
+  static <T> RecordSchema<T> of(Class<T> type) {
+    RecordSchema<?> schema = sSchemas.get(type);
+    if (schema == null) {
+      // 并发创建时结果相同，保留先放入的实例。
+      schema = new RecordSchema<>(type);
+      final RecordSchema<?> previous = sSchemas.putIfAbsent(type, schema);
+      if (previous != null) {
+        schema = previous;
+      }
+    }
+
+    return (RecordSchema<T>) schema;
+  }
+
+  private RecordSchema(Class<T> type) {
+    if (type.isInterface() || type.isArray() || Modifier.isAbstract(type.getModifiers()) ||
+        type.getName().startsWith("java.")) {
+      throw new IllegalArgumentException("unsupported record type: " + type);
+    }
+
+    this.mType = type;
+    try {
+      mConstructor = type.getDeclaredConstructor();
+      mConstructor.setAccessible(true);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException("record type needs a no-arg constructor: " + type, e);
+    }
+
+    final List<FieldCodec> fields = new ArrayList<>();
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        final int modifiers = field.getModifiers();
+        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+          continue;
+        }
+
+        field.setAccessible(true);
+        fields.add(fieldCodec(field));
+      }
+    }
+
+    mFields = fields.toArray(new FieldCodec[0]);
+    Arrays.sort(mFields, new Comparator<FieldCodec>() {
+      @Override public int compare(FieldCodec a, FieldCodec b) {
+        return a.tag < b.tag ? -1 : (a.tag == b.tag ? 0 : 1);
+      }
+    });
+
+    mTags = new int[mFields.length];
+    for (int i = 0; i < mFields.length; i++) {
+      mTags[i] = mFields[i].tag;
+      if (i > 0 && mTags[i] == mTags[i - 1]) {
+        throw new IllegalArgumentException("field name hash collision in " + type + ": " +
+            mFields[i - 1].field.getName() + ", " + mFields[i].field.getName());
+      }
+    }
+  }
+
+  Class<T> type() {
+    return mType;
+  }
+
+  /**
+   * @throws IllegalArgumentException record 是子类实例，子类的字段不在结构中，写入会丢失。
+   */
+  void write(Object record, RecordWriter out) throws IllegalAccessException {
+    if (record.getClass() != mType) {
+      throw new IllegalArgumentException(record.getClass().getName() +
+          " is not " + mType.getName() + ", subclass fields would be lost.");
+    }
+
+    for (FieldCodec field : mFields) {
+      out.putInt(field.tag);
+      field.write(record, out);
+    }
+  }
+
+  /** 读取 in 中剩余的全部字段 */
+  T read(ByteBuffer in) throws Exception {
+    final T record = mConstructor.newInstance();
+    while (in.hasRemaining()) {
+      final int tag = in.getInt();
+      final int type = in.get();
+      final int index = Arrays.binarySearch(mTags, tag);
+      if (index < 0) {
+        skip(type, in);
+      } else {
+        mFields[index].read(record, type, in);
+      }
+    }
+
+    return record;
+  }
+
+  static void skip(int type, ByteBuffer in) {
+    switch (type) {
+    case T_NULL:
+      return;
+    case T_BOOLEAN:
+    case T_BYTE:
+      in.position(in.position() + 1);
+      return;
+    case T_SHORT:
+    case T_CHAR:
+      in.position(in.position() + 2);
+      return;
+    case T_INT:
+    case T_LONG:
+      RecordWriter.getVarLong(in);
+      return;
+    case T_FLOAT:
+      in.position(in.position() + 4);
+      return;
+    case T_DOUBLE:
+      in.position(in.position() + 8);
+      return;
+    case T_STRING:
+    case T_BYTES:
+    case T_ENUM:
+    case T_RECORD:
+    case T_LIST:
+      final int length = RecordWriter.getLength(in);
+      in.position(in.position() + length);
+      return;
+    default:
+      throw new IllegalArgumentException("unknown field type: " + type);
+    }
+  }
+
+  // field codecs:
+
+  private static FieldCodec fieldCodec(Field field) {
+    final Class<?> type = field.getType();
+    if (type.isPrimitive()) {
+      return new PrimitiveField(field, primitiveType(type));
+    }
+
+    return new ObjectField(field, valueCodec(type, field.getGenericType()));
+  }
+
+  private static int primitiveType(Class<?> type) {
+    if (type == boolean.class) { return T_BOOLEAN; }
+    if (type == byte.class) { return T_BYTE; }
+    if (type == short.class) { return T_SHORT; }
+    if (type == char.class) { return T_CHAR; }
+    if (type == int.class) { return T_INT; }
+    if (type == long.class) { return T_LONG; }
+    if (type == float.class) { return T_FLOAT; }
+    return T_DOUBLE;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static ValueCodec valueCodec(Class<?> type, Type genericType) {
+    if (type == Boolean.class) { return new BoxedCodec(T_BOOLEAN); }
+    if (type == Byte.class) { return new BoxedCodec(T_BYTE); }
+    if (type == Short.class) { return new BoxedCodec(T_SHORT); }
+    if (type == Character.class) { return new BoxedCodec(T_CHAR); }
+    if (type == Integer.class) { return new BoxedCodec(T_INT); }
+    if (type == Long.class) { return new BoxedCodec(T_LONG); }
+    if (type == Float.class) { return new BoxedCodec(T_FLOAT); }
+    if (type == Double.class) { return new BoxedCodec(T_DOUBLE); }
+    if (type == String.class) { return STRING_CODEC; }
+    if (type == byte[].class) { return BYTES_CODEC; }
+    if (type.isEnum()) { return new EnumCodec(type); }
+
+    if (type == List.class || type == Collection.class || type == ArrayList.class) {
+      if (!(genericType instanceof ParameterizedType)) {
+        throw new IllegalArgumentException("list element type is unknown: " + genericType);
+      }
+
+      final Type element = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+      if (!(element instanceof Class)) {
+        throw new IllegalArgumentException("unsupported list element type: " + element);
+      }
+
+      return new ListCodec(valueCodec((Class<?>) element, element));
+    }
+
+    if (type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers()) ||
+        type.getName().startsWith("java.")) {
+      throw new IllegalArgumentException("unsupported field type: " + type);
+    }
+
+    // 嵌套记录的结构在第一次读写时解析。
+    return new RecordCodec(type);
+  }
+
+  /* 字段读写 */
+  private abstract static class FieldCodec {
+    final Field field;
+    final int tag;
+
+    FieldCodec(Field field) {
+      this.field = field;
+      this.tag = field.getName().hashCode();
+    }
+
+    abstract void write(Object record, RecordWriter out) throws IllegalAccessException;
+
+    abstract void read(Object record, int type, ByteBuffer in) throws Exception;
+  }
+
+  /* 基本类型字段，读写不装箱 */
+  private static final class PrimitiveField extends FieldCodec {
+    private final int mType;
+
+    PrimitiveField(Field field, int type) {
+      super(field);
+      this.mType = type;
+    }
+
+    @Override void write(Object record, RecordWriter out) throws IllegalAccessException {
+      out.putByte(mType);
+      switch (mType) {
+      case T_BOOLEAN:
+        out.putByte(field.getBoolean(record) ? 1 : 0);
+        break;
+      case T_BYTE:
+        out.putByte(field.getByte(record));
+        break;
+      case T_SHORT:
+        out.putShort(field.getShort(record));
+        break;
+      case T_CHAR:
+        out.putShort(field.getChar(record));
+        break;
+      case T_INT:
+        out.putZigZag(field.getInt(record));
+        break;
+      case T_LONG:
+        out.putZigZag(field.getLong(record));
+        break;
+      case T_FLOAT:
+        out.putInt(Float.floatToIntBits(field.getFloat(record)));
+        break;
+      default:
+        out.putLong(Double.doubleToLongBits(field.getDouble(record)));
+        break;
+      }
+    }
+
+    @Override void read(Object record, int type, ByteBuffer in) throws IllegalAccessException {
+      if (type != mType) {
+        skip(type, in);
+        return;
+      }
+
+      switch (mType) {
+      case T_BOOLEAN:
+        field.setBoolean(record, in.get() != 0);
+        break;
+      case T_BYTE:
+        field.setByte(record, in.get());
+        break;
+      case T_SHORT:
+        field.setShort(record, in.getShort());
+        break;
+      case T_CHAR:
+        field.setChar(record, in.getChar());
+        break;
+      case T_INT:
+        field.setInt(record, (int) RecordWriter.getZigZag(in));
+        break;
+      case T_LONG:
+        field.setLong(record, RecordWriter.getZigZag(in));
+        break;
+      case T_FLOAT:
+        field.setFloat(record, Float.intBitsToFloat(in.getInt()));
+        break;
+      default:
+        field.setDouble(record, Double.longBitsToDouble(in.getLong()));
+        break;
+      }
+    }
+  }
+
+  /* 引用类型字段，可为 null */
+  private static final class ObjectField extends FieldCodec {
+    private final ValueCodec mCodec;
+
+    ObjectField(Field field, ValueCodec codec) {
+      super(field);
+      this.mCodec = codec;
+    }
+
+    @Override void write(Object record, RecordWriter out) throws IllegalAccessException {
+      writeValue(mCodec, field.get(record), out);
+    }
+
+    @Override void read(Object record, int type, ByteBuffer in)
+        throws Exception {
+      if (type == T_NULL) {
+        field.set(record, null);
+      } else if (type == mCodec.type) {
+        field.set(record, mCodec.read(in));
+      } else {
+        skip(type, in);
+      }
+    }
+  }
+
+  static void writeValue(ValueCodec codec, Object value, RecordWriter out)
+      throws IllegalAccessException {
+    if (value == null) {
+      out.putByte(T_NULL);
+      return;
+    }
+
+    out.putByte(codec.type);
+    codec.write(value, out);
+  }
+
+  // value codecs:
+
+  /* 引用类型值的读写 */
+  abstract static class ValueCodec {
+    final int type;
+
+    ValueCodec(int type) {
+      this.type = type;
+    }
+
+    abstract void write(Object value, RecordWriter out) throws IllegalAccessException;
+
+    abstract Object read(ByteBuffer in) throws Exception;
+  }
+
+  private static final class BoxedCodec extends ValueCodec {
+    BoxedCodec(int type) {
+      super(type);
+    }
+
+    @Override void write(Object value, RecordWriter out) {
+      switch (type) {
+      case T_BOOLEAN:
+        out.putByte((Boolean) value ? 1 : 0);
+        break;
+      case T_BYTE:
+        out.putByte((Byte) value);
+        break;
+      case T_SHORT:
+        out.putShort((Short) value);
+        break;
+      case T_CHAR:
+        out.putShort((Character) value);
+        break;
+      case T_INT:
+        out.putZigZag((Integer) value);
+        break;
+      case T_LONG:
+        out.putZigZag((Long) value);
+        break;
+      case T_FLOAT:
+        out.putInt(Float.floatToIntBits((Float) value));
+        break;
+      default:
+        out.putLong(Double.doubleToLongBits((Double) value));
+        break;
+      }
+    }
+
+    @Override Object read(ByteBuffer in) {
+      switch (type) {
+      case T_BOOLEAN:
+        return in.get() != 0;
+      case T_BYTE:
+        return in.get();
+      case T_SHORT:
+        return in.getShort();
+      case T_CHAR:
+        return in.getChar();
+      case T_INT:
+        return (int) RecordWriter.getZigZag(in);
+      case T_LONG:
+        return RecordWriter.getZigZag(in);
+      case T_FLOAT:
+        return Float.intBitsToFloat(in.getInt());
+      default:
+        return Double.longBitsToDouble(in.getLong());
+      }
+    }
+  }
+
+  private static final ValueCodec STRING_CODEC = new ValueCodec(T_STRING) {
+    @Override void write(Object value, RecordWriter out) {
+      out.putLengthPrefixed(((String) value).getBytes(UTF_8));
+    }
+
+    @Override Object read(ByteBuffer in) {
+      return new String(RecordWriter.getLengthPrefixed(in), UTF_8);
+    }
+  };
+
+  private static final ValueCodec BYTES_CODEC = new ValueCodec(T_BYTES) {
+    @Override void write(Object value, RecordWriter out) {
+      out.putLengthPrefixed((byte[]) value);
+    }
+
+    @Override Object read(ByteBuffer in) {
+      return RecordWriter.getLengthPrefixed(in);
+    }
+  };
+
+  /* 枚举按名称存储，调整顺序不影响旧数据 */
+  private static final class EnumCodec<E extends Enum<E>> extends ValueCodec {
+    private final Class<E> mType;
+
+    EnumCodec(Class<E> type) {
+      super(T_ENUM);
+      this.mType = type;
+    }
+
+    @Override void write(Object value, RecordWriter out) {
+      out.putLengthPrefixed(((Enum<?>) value).name().getBytes(UTF_8));
+    }
+
+    @Override Object read(ByteBuffer in) {
+      final String name = new String(RecordWriter.getLengthPrefixed(in), UTF_8);
+      try {
+        return Enum.valueOf(mType, name);
+      } catch (IllegalArgumentException e) {
+        // 已删除的枚举值。
+        return null;
+      }
+    }
+  }
+
+  /* 嵌套记录，第一次使用时解析结构，支持自引用类型 */
+  private static final class RecordCodec extends ValueCodec {
+    private final Class<?> mType;
+    private volatile RecordSchema<?> mSchema;
+
+    RecordCodec(Class<?> type) {
+      super(T_RECORD);
+      this.mType = type;
+    }
+
+    private RecordSchema<?> schema() {
+      RecordSchema<?> schema = mSchema;
+      if (schema == null) {
+        schema = RecordSchema.of(mType);
+        mSchema = schema;
+      }
+
+      return schema;
+    }
+
+    @Override void write(Object value, RecordWriter out) throws IllegalAccessException {
+      final RecordWriter nested = new RecordWriter(64);
+      schema().write(value, nested);
+      out.putLengthPrefixed(nested);
+    }
+
+    @Override Object read(ByteBuffer in) throws Exception {
+      final int length = RecordWriter.getLength(in);
+      final ByteBuffer nested = in.slice();
+      nested.limit(length);
+      in.position(in.position() + length);
+      return schema().read(nested);
+    }
+  }
+
+  private static final class ListCodec extends ValueCodec {
+    private final ValueCodec mElement;
+
+    ListCodec(ValueCodec element) {
+      super(T_LIST);
+      this.mElement = element;
+    }
+
+    @Override void write(Object value, RecordWriter out) throws IllegalAccessException {
+      final Collection<?> list = (Collection<?>) value;
+      final RecordWriter nested = new RecordWriter(list.size() * 8);
+      nested.putVarLong(list.size());
+      for (Object element : list) {
+        writeValue(mElement, element, nested);
+      }
+
+      out.putLengthPrefixed(nested);
+    }
+
+    @Override Object read(ByteBuffer in) throws Exception {
+      final int length = RecordWriter.getLength(in);
+      final int end = in.position() + length;
+      final int count = (int) RecordWriter.getVarLong(in);
+      final List<Object> list = new ArrayList<>(Math.min(count, length));
+      for (int i = 0; i < count; i++) {
+        final int type = in.get();
+        if (type == mElement.type) {
+          list.add(mElement.read(in));
+        } else {
+          if (type != T_NULL) {
+            skip(type, in);
+          }
+          list.add(null);
+        }
+      }
+
+      in.position(end);
+      return list;
+    }
+  }
+}
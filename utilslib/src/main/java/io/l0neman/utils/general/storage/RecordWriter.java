@@ -0,0 +1,128 @@
+package io.l0neman.utils.general.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 记录编码使用的可增长字节缓冲区，整数使用变长编码。
+ */
+final class RecordWriter {
+
+  private byte[] mBuffer;
+  private int mSize;
+
+  RecordWriter(int capacity) {
+    mBuffer = new byte[Math.max(16, capacity)];
+  }
+
+  private void ensure(int n) {
+    if (mSize + n > mBuffer.length) {
+      mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length << 1, mSize + n));
+    }
+  }
+
+  void putByte(int b) {
+    ensure(1);
+    mBuffer[mSize++] = (byte) b;
+  }
+
+  void putShort(int v) {
+    ensure(2);
+    mBuffer[mSize++] = (byte) (v >>> 8);
+    mBuffer[mSize++] = (byte) v;
+  }
+
+  void putInt(int v) {
+    ensure(4);
+    mBuffer[mSize++] = (byte) (v >>> 24);
+    mBuffer[mSize++] = (byte) (v >>> 16);
+    mBuffer[mSize++] = (byte) (v >>> 8);
+    mBuffer[mSize++] = (byte) v;
+  }
+
+  void putLong(long v) {
+    putInt((int) (v >>> 32));
+    putInt((int) v);
+  }
+
+  /** 无符号变长整数 */
+  void putVarLong(long v) {
+    ensure(10);
+    while ((v & ~0x7FL) != 0) {
+      mBuffer[mSize++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+
+    mBuffer[mSize++] = (byte) v;
+  }
+
+  /** 有符号变长整数，绝对值较小的负数也只占用较少的字节 */
+  void putZigZag(long v) {
+    putVarLong((v << 1) ^ (v >> 63));
+  }
+
+  void putBytes(byte[] bytes) {
+    putBytes(bytes, 0, bytes.length);
+  }
+
+  void putBytes(byte[] bytes, int offset, int length) {
+    ensure(length);
+    System.arraycopy(bytes, offset, mBuffer, mSize, length);
+    mSize += length;
+  }
+
+  /** 长度前缀 + 内容 */
+  void putLengthPrefixed(byte[] bytes) {
+    putVarLong(bytes.length);
+    putBytes(bytes);
+  }
+
+  void putLengthPrefixed(RecordWriter other) {
+    putVarLong(other.mSize);
+    putBytes(other.mBuffer, 0, other.mSize);
+  }
+
+  int size() {
+    return mSize;
+  }
+
+  ByteBuffer toByteBuffer() {
+    return ByteBuffer.wrap(mBuffer, 0, mSize);
+  }
+
+  // read utils:
+
+  static long getVarLong(ByteBuffer in) {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final byte b = in.get();
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+
+    throw new IllegalArgumentException("malformed varint");
+  }
+
+  static long getZigZag(ByteBuffer in) {
+    final long v = getVarLong(in);
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  /** 读取长度前缀，返回长度并检查剩余字节数 */
+  static int getLength(ByteBuffer in) {
+    final long length = getVarLong(in);
+    if (length < 0 || length > in.remaining()) {
+      throw new IllegalArgumentException("bad length: " + length);
+    }
+
+    return (int) length;
+  }
+
+  static byte[] getLengthPrefixed(ByteBuffer in) {
+    final byte[] bytes = new byte[getLength(in)];
+    in.get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,367 @@
+package io.l0neman.utils.general.storage;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * 只读快照存储，读取 {@link DirStore#writeSnapshot(String)} 打包的快照文件。
+ * <p>
+ * 快照文件打开时整体映射到内存，并读取索引，之后的读取不再打开文件，
+ * {@link IDirStore.BufferIOAdapter} 类型的适配器直接解码映射的分片，不复制数据。
+ * 快照文件格式：
+ *
+ * <pre><code>
+ *
+ *   magic(4) | indexOffset(8) | values... | index | indexCrc32(4)
+ *
+ *   index = count(4) | [nameLength(2) | name | offset(8) | length(4)]...
+ *
+ * </code></pre>
+ * <p>
+ * 快照中的值已解码（解压），不包含 DirStore 的文件头和校验文件尾。所有写入操作抛出
+ * {@link UnsupportedOperationException}。
+ */
+public class SnapshotDirStore implements IDirStore {
+
+  private static final String TAG = SnapshotDirStore.class.getSimpleName();
+
+  /* 调试开关 */
+  private static final boolean DEBUG = false;
+  private static final int MAGIC = 0x44535331;
+  private static final int HEADER_SIZE = 4 + 8;
+  /* 索引中文件名长度占 2 字节 */
+  private static final int MAX_NAME_LENGTH = 0xFFFF;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File mFile;
+  /* 整个快照文件的只读映射 */
+  private final ByteBuffer mMapped;
+  /* 文件名到值在快照中的位置 */
+  private final Map<String, Entry> mEntries;
+
+  // 异步读取线程池。
+  private final ExecutorService mReadingService =
+      Executors.newCachedThreadPool(new DaemonThreadFactory("SnapshotDirStore read"));
+
+  private static final class Entry {
+    final int offset;
+    final int length;
+
+    Entry(int offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /**
+   * 打开快照文件。
+   *
+   * @param snapshotPath 快照文件路径。
+   * @throws IOException 文件不存在、格式错误或大于 2GB。
+   */
+  public SnapshotDirStore(String snapshotPath) throws IOException {
+    this.mFile = new File(snapshotPath);
+
+    RandomAccessFile file = null;
+    try {
+      file = new RandomAccessFile(mFile, "r");
+      final FileChannel channel = file.getChannel();
+      final long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        throw new IOException("bad snapshot size: " + size);
+      }
+
+      // 映射在文件关闭后仍然有效。
+      mMapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      ChannelIOAdapter.closeQuietly(file);
+    }
+
+    mEntries = readIndex(mMapped);
+  }
+
+  private static Map<String, Entry> readIndex(ByteBuffer mapped) throws IOException {
+    final ByteBuffer in = mapped.duplicate();
+    if (in.getInt() != MAGIC) {
+      throw new IOException("not a snapshot file");
+    }
+
+    final long indexOffset = in.getLong();
+    if (indexOffset < HEADER_SIZE || indexOffset > in.limit() - 4) {
+      throw new IOException("bad index offset: " + indexOffset);
+    }
+
+    final int indexLength = in.limit() - 4 - (int) indexOffset;
+    final byte[] index = new byte[indexLength];
+    in.position((int) indexOffset);
+    in.get(index);
+    final CRC32 crc = new CRC32();
+    crc.update(index);
+    if (in.getInt() != (int) crc.getValue()) {
+      throw new CorruptFileException("bad snapshot index checksum");
+    }
+
+    final ByteBuffer indexBuffer = ByteBuffer.wrap(index);
+    final int count = indexBuffer.getInt();
+    final Map<String, Entry> entries = new HashMap<>(count * 4 / 3 + 1);
+    for (int i = 0; i < count; i++) {
+      final byte[] name = new byte[indexBuffer.getShort() & 0xFFFF];
+      indexBuffer.get(name);
+      final long offset = indexBuffer.getLong();
+      final int length = indexBuffer.getInt();
+      if (offset < HEADER_SIZE || offset + length > indexOffset) {
+        throw new CorruptFileException("bad snapshot entry offset: " + offset);
+      }
+
+      entries.put(new String(name, UTF_8), new Entry((int) offset, length));
+    }
+
+    return entries;
+  }
+
+  /* 值在映射中的分片 */
+  private ByteBuffer slice(String name) {
+    final Entry entry = mEntries.get(name);
+    if (entry == null) {
+      return null;
+    }
+
+    final ByteBuffer slice = mMapped.duplicate();
+    slice.limit(entry.offset + entry.length).position(entry.offset);
+    return slice.slice();
+  }
+
+  private <T> T doRead(String name, FileIOAdapter<T> adapter) throws IOException {
+    final ByteBuffer value = slice(name);
+    if (value == null) {
+      return null;
+    }
+
+    if (adapter instanceof BufferIOAdapter) {
+      return ((BufferIOAdapter<T>) adapter).decode(value);
+    }
+
+    // 只能从文件读取的适配器，通过临时文件读取。
+    final File scratch = File.createTempFile("snapshot", null, mFile.getParentFile());
+    try {
+      ValueFormat.writeFile(scratch.getPath(), value);
+      return adapter.read(scratch.getPath());
+    } finally {
+      if (!scratch.delete() && DEBUG) {
+        Log.w(TAG, "delete " + scratch + " failed.");
+      }
+    }
+  }
+
+  public final class FileStore<T> implements IDirStore.FileStore<T> {
+
+    private final String name;
+    private final FileIOAdapter<T> adapter;
+
+    private FileStore(String name, FileIOAdapter<T> adapter) {
+      this.name = name;
+      this.adapter = adapter;
+    }
+
+    /** @throws UnsupportedOperationException 快照只读。 */
+    @Override public void write(T value) {
+      throw readOnly();
+    }
+
+    /** @throws UnsupportedOperationException 快照只读。 */
+    @Override public Future<Void> writeAsync(T value, WriteCallback callback) {
+      throw readOnly();
+    }
+
+    /** @throws UnsupportedOperationException 快照只读。 */
+    @Override public Future<Void> writeAsync(T value, WriteCallback callback,
+                                             Executor callbackExecutor) {
+      throw readOnly();
+    }
+
+    /** 读取快照中的值，文件不在快照中时返回 null */
+    @Override public T read() throws IOException {
+      return doRead(name, adapter);
+    }
+
+    @Override public Future<T> readAsync(ReadCallback<T> callback) {
+      return readAsync(callback, CallbackExecutors.mainThread());
+    }
+
+    @Override public Future<T> readAsync(ReadCallback<T> callback, Executor callbackExecutor) {
+      final StoreFuture<T> future = new StoreFuture<>(new Callable<T>() {
+        @Override public T call() throws IOException {
+          return doRead(name, adapter);
+        }
+      }, callback, callbackExecutor);
+      mReadingService.execute(future);
+      return future;
+    }
+
+    /**
+     * 文件存储实例不可变，不支持修改适配器。
+     *
+     * @throws UnsupportedOperationException 总是抛出。
+     * @deprecated 使用 {@link SnapshotDirStore#with(String, FileIOAdapter)} 获得新的实例。
+     */
+    @Deprecated
+    @Override public void setAdapter(FileIOAdapter<T> adapter) {
+      throw new UnsupportedOperationException("FileStore is immutable, use SnapshotDirStore.with.");
+    }
+  }
+
+  private static UnsupportedOperationException readOnly() {
+    return new UnsupportedOperationException("SnapshotDirStore is read-only.");
+  }
+
+  @Override public <T> FileStore<T> with(String fileName, FileIOAdapter<T> adapter) {
+    return new FileStore<>(fileName, adapter);
+  }
+
+  /** @throws UnsupportedOperationException 快照只读。 */
+  @Override public void deleteFile(String fileName) {
+    throw readOnly();
+  }
+
+  /** @throws UnsupportedOperationException 快照只读。 */
+  @Override public Batch batch() {
+    throw readOnly();
+  }
+
+  @Override public Set<String> keys() {
+    return Collections.unmodifiableSet(mEntries.keySet());
+  }
+
+  @Override public boolean contains(String fileName) {
+    return mEntries.containsKey(fileName);
+  }
+
+  @Override public long size(String fileName) {
+    final Entry entry = mEntries.get(fileName);
+    return entry == null ? -1 : entry.length;
+  }
+
+  /** 删除快照文件，已打开的映射仍可读取 */
+  @Override public void deleteSelf() {
+    if (!mFile.delete() && DEBUG) {
+      Log.w(TAG, "delete " + mFile + " failed.");
+    }
+  }
+
+  /** 停止异步读取线程，映射在缓冲区被回收前仍然有效 */
+  @Override public void close() {
+    mReadingService.shutdown();
+  }
+
+  /**
+   * 快照文件写入工具，先写入临时文件，完成后重命名。
+   */
+  static final class Writer {
+    private final File mTarget;
+    private final File mTemp;
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private ByteBuffer mIndexBuffer = ByteBuffer.allocate(4096);
+    private int mCount;
+
+    Writer(String path) throws IOException {
+      this.mTarget = new File(path);
+      this.mTemp = new File(path + ".tmp");
+      this.mFile = new RandomAccessFile(mTemp, "rw");
+      this.mFile.setLength(0);
+      this.mChannel = mFile.getChannel();
+      mChannel.position(HEADER_SIZE);
+      mIndexBuffer.putInt(0);
+    }
+
+    void add(String name, ByteBuffer value) throws IOException {
+      final byte[] nameBytes = name.getBytes(UTF_8);
+      if (nameBytes.length > MAX_NAME_LENGTH) {
+        throw new IOException("file name longer than " + MAX_NAME_LENGTH + " bytes: " +
+            name.substring(0, 64) + "...");
+      }
+
+      final long offset = mChannel.position();
+      if (offset + value.remaining() > Integer.MAX_VALUE) {
+        throw new IOException("snapshot larger than 2GB");
+      }
+
+      final int length = value.remaining();
+      while (value.hasRemaining()) {
+        mChannel.write(value);
+      }
+
+      ensureIndex(2 + nameBytes.length + 8 + 4);
+      mIndexBuffer.putShort((short) nameBytes.length).put(nameBytes).putLong(offset).putInt(length);
+      mCount++;
+    }
+
+    private void ensureIndex(int n) {
+      if (mIndexBuffer.remaining() < n) {
+        final ByteBuffer larger = ByteBuffer.allocate(
+            Math.max(mIndexBuffer.capacity() * 2, mIndexBuffer.position() + n));
+        mIndexBuffer.flip();
+        larger.put(mIndexBuffer);
+        mIndexBuffer = larger;
+      }
+    }
+
+    /** 写入索引，同步到磁盘并重命名到目标文件 */
+    void commit() throws IOException {
+      boolean committed = false;
+      try {
+        final long indexOffset = mChannel.position();
+        mIndexBuffer.putInt(0, mCount);
+        final CRC32 crc = new CRC32();
+        crc.update(mIndexBuffer.array(), 0, mIndexBuffer.position());
+        ensureIndex(4);
+        mIndexBuffer.putInt((int) crc.getValue());
+        mIndexBuffer.flip();
+        while (mIndexBuffer.hasRemaining()) {
+          mChannel.write(mIndexBuffer);
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putLong(indexOffset).flip();
+        while (header.hasRemaining()) {
+          mChannel.write(header, header.position());
+        }
+
+        mChannel.force(true);
+        mFile.close();
+        if (!mTemp.renameTo(mTarget)) {
+          throw new IOException("rename " + mTemp + " to " + mTarget + " failed.");
+        }
+
+        committed = true;
+      } finally {
+        if (!committed) {
+          abort();
+        }
+      }
+    }
+
+    void abort() {
+      ChannelIOAdapter.closeQuietly(mFile);
+      if (mTemp.exists() && !mTemp.delete() && DEBUG) {
+        Log.w(TAG, "delete " + mTemp + " failed.");
+      }
+    }
+  }
+}
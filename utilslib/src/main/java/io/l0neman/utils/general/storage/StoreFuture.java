@@ -0,0 +1,103 @@
+package io.l0neman.utils.general.storage;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 存储异步操作的 Future，完成时在回调线程池中执行回调。
+ * <p>
+ * 被取消时不执行回调。
+ *
+ * @param <V> 结果类型。
+ */
+final class StoreFuture<V> extends FutureTask<V> {
+
+  private static final String TAG = StoreFuture.class.getSimpleName();
+
+  /* 调试开关 */
+  private static final boolean DEBUG = false;
+
+  /* 由外部完成的 Future 不执行任务 */
+  private static final Callable<Object> NO_TASK = new Callable<Object>() {
+    @Override public Object call() {
+      throw new IllegalStateException("completed externally");
+    }
+  };
+
+  private final IDirStore.ErrorCallback mCallback;
+  private final Executor mCallbackExecutor;
+
+  /**
+   * @param task             异步任务。
+   * @param callback         回调，可为 null。
+   * @param callbackExecutor 执行回调的线程池。
+   */
+  StoreFuture(Callable<V> task, IDirStore.ErrorCallback callback, Executor callbackExecutor) {
+    super(task);
+    this.mCallback = callback;
+    this.mCallbackExecutor = callbackExecutor;
+  }
+
+  /** 创建由 {@link #complete(Object)} 或 {@link #fail(Throwable)} 完成的 Future */
+  @SuppressWarnings("unchecked")
+  StoreFuture(IDirStore.ErrorCallback callback, Executor callbackExecutor) {
+    this((Callable<V>) NO_TASK, callback, callbackExecutor);
+  }
+
+  void complete(V value) {
+    set(value);
+  }
+
+  void fail(Throwable e) {
+    setException(e);
+  }
+
+  @Override protected void done() {
+    if (mCallback == null || isCancelled()) {
+      return;
+    }
+
+    V value = null;
+    IOException error = null;
+    try {
+      value = get();
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      error = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    } catch (InterruptedException | CancellationException e) {
+      // 已完成，不会发生。
+      return;
+    }
+
+    // 写入成功时没有回调。
+    if (error == null && !(mCallback instanceof IDirStore.ReadCallback)) {
+      return;
+    }
+
+    final V result = value;
+    final IOException exception = error;
+    try {
+      mCallbackExecutor.execute(new Runnable() {
+        @SuppressWarnings("unchecked")
+        @Override public void run() {
+          if (exception != null) {
+            mCallback.onError(exception);
+          } else {
+            ((IDirStore.ReadCallback<V>) mCallback).onValue(result);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      // 回调线程池拒绝执行时，结果仍然可以通过 Future 获得。
+      if (DEBUG) {
+        Log.w(TAG, "dispatch callback error", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package io.l0neman.utils.general.storage;
+
+import java.io.IOException;
+
+/**
+ * DirStore 操作监听器，用于统计和追踪每次操作的耗时，时间单位为纳秒。
+ * <p>
+ * 回调在执行操作的线程中同步调用，不要执行耗时操作，也不要抛出异常。流式读写不回调。
+ * 继承后按需覆盖方法，默认实现 {@link #NONE} 不做任何事情，也不分配对象。
+ */
+public abstract class StoreListener {
+
+  /** 读取，缓存命中时不回调 */
+  public static final int OP_READ = 1;
+  /** 写入，包括异步写入 */
+  public static final int OP_WRITE = 2;
+  /** 删除 */
+  public static final int OP_DELETE = 3;
+  /** 批量提交，文件名为 null */
+  public static final int OP_BATCH = 4;
+
+  /** 不做任何事情的监听器 */
+  public static final StoreListener NONE = new StoreListener() {};
+
+  /**
+   * 操作完成。
+   *
+   * @param op             操作类型，{@link #OP_READ} 等。
+   * @param name           文件名。
+   * @param queueWaitNanos 异步操作提交后的排队等待时间，同步操作为 0。
+   *                       合并写入的排队时间从第一次提交开始计算，包括合并窗口。
+   * @param lockWaitNanos  等待文件锁的时间。
+   * @param adapterNanos   适配器执行时间。启用编码时只包括值与字节之间的转换和编码（压缩），
+   *                       否则包括适配器读写文件的时间。
+   * @param ioNanos        DirStore 自身读写文件的时间，包括编码后内容的读写、同步到磁盘和重命名。
+   * @param bytes          读取或写入的文件字节数，删除时为 0。
+   */
+  public void onOperation(int op, String name, long queueWaitNanos, long lockWaitNanos,
+                          long adapterNanos, long ioNanos, long bytes) {}
+
+  /**
+   * 操作失败。
+   *
+   * @param op   操作类型。
+   * @param name 文件名，批量提交时为 null。
+   * @param e    异常。
+   */
+  public void onError(int op, String name, IOException e) {}
+}
@@ -0,0 +1,58 @@
+package io.l0neman.utils.general.storage;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 分段读写锁，使用固定数量的 {@link ReentrantReadWriteLock}，按照文件名哈希选择锁。
+ * <p>
+ * 锁的数量固定，不会随文件名的增加而增长，不同文件名可能共享同一把锁。
+ */
+final class StripedReadWriteLock {
+
+  /* 默认锁数量，必须为 2 的幂 */
+  static final int DEFAULT_STRIPES = 64;
+
+  private final ReadWriteLock[] mLocks;
+  private final int mMask;
+
+  StripedReadWriteLock() {
+    this(DEFAULT_STRIPES);
+  }
+
+  StripedReadWriteLock(int stripes) {
+    int size = 1;
+    while (size < stripes) {
+      size <<= 1;
+    }
+
+    mLocks = new ReadWriteLock[size];
+    mMask = size - 1;
+    for (int i = 0; i < size; i++) {
+      mLocks[i] = new ReentrantReadWriteLock();
+    }
+  }
+
+  /** 锁数量 */
+  int size() {
+    return mLocks.length;
+  }
+
+  /** 获得文件名对应的锁下标 */
+  int indexOf(String key) {
+    int h = key.hashCode();
+    // 扰动哈希，避免低位分布不均。
+    h ^= (h >>> 16);
+    return h & mMask;
+  }
+
+  /** 获得文件名对应的锁 */
+  ReadWriteLock get(String key) {
+    return mLocks[indexOf(key)];
+  }
+
+  /** 获得指定下标的锁 */
+  ReadWriteLock getAt(int index) {
+    return mLocks[index];
+  }
+}
@@ -0,0 +1,274 @@
+package io.l0neman.utils.general.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * DirStore 的内存值缓存，按照访问顺序 LRU 淘汰。
+ * <p>
+ * 可按条目数量或值的字节大小限制容量，写入时更新缓存，删除时移除缓存。
+ * 缓存按文件名哈希分段，每段独立加锁并平分容量，LRU 在段内生效，不同分段的读取不互相等待。
+ * <p>
+ * 每个版本分段维护一个版本号，写入和删除都会增加版本号，从磁盘读取的值只有在读取期间
+ * 版本号未发生变化时才会放入缓存，避免旧值覆盖新值。
+ * <p>
+ * byte[] 放入和取出时复制。ByteBuffer 在缓存中保存为只读缓冲区，写入的缓冲区复制后保存（直接缓冲区复制为直接缓冲区），
+ * 读取到的缓冲区直接保存；命中和未命中都返回独立 position 的只读缓冲区，缓冲区类型与适配器读取的一致。
+ * 复制在锁外进行。其他类型的值在所有读取方之间共享同一个对象，不可修改。
+ */
+final class ValueCache {
+
+  private static final int VERSION_STRIPES = StripedReadWriteLock.DEFAULT_STRIPES;
+  /* 最大分段数量，必须为 2 的幂并且不超过 VERSION_STRIPES */
+  private static final int MAX_SEGMENTS = 16;
+  /* 每个分段至少能容纳的大小，容量较小时减少分段，LRU 更准确 */
+  private static final long MIN_SEGMENT_SIZE = 8;
+
+  private static final class Entry {
+    final Class<?> type;
+    final Object value;
+    final long size;
+
+    Entry(Class<?> type, Object value, long size) {
+      this.type = type;
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+  /* 缓存分段，所有字段由分段自身的锁保护 */
+  private static final class Segment {
+    final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+    final long maxSize;
+    long size;
+    long hitCount;
+    long missCount;
+    long evictionCount;
+
+    Segment(long maxSize) {
+      this.maxSize = maxSize;
+    }
+  }
+
+  /* 版本号，下标为 i 的版本号由第 i % 分段数量 个分段的锁保护 */
+  private final long[] mVersions = new long[VERSION_STRIPES];
+  private final StripedReadWriteLock mStripes = new StripedReadWriteLock(VERSION_STRIPES);
+  private final Segment[] mSegments;
+
+  private final DirStore.ValueSizer mSizer;
+
+  /**
+   * @param maxSize 最大容量，未指定 sizer 时为条目数量，否则为 sizer 计算的大小总和。
+   * @param sizer   值大小计算器，可为 null。
+   */
+  ValueCache(long maxSize, DirStore.ValueSizer sizer) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize <= 0");
+    }
+
+    int count = 1;
+    while (count < MAX_SEGMENTS && maxSize / (count * 2) >= MIN_SEGMENT_SIZE) {
+      count <<= 1;
+    }
+
+    // 平分容量，余数分给前面的分段，总容量等于 maxSize。
+    mSegments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      mSegments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+    }
+
+    this.mSizer = sizer;
+  }
+
+  private Segment segmentOf(int stripe) {
+    return mSegments[stripe & (mSegments.length - 1)];
+  }
+
+  /** 获得缓存值，类型不匹配视为未命中 */
+  @SuppressWarnings("unchecked")
+  <T> T get(String key, Class<T> type) {
+    final Segment segment = segmentOf(mStripes.indexOf(key));
+    final Object value;
+    synchronized (segment) {
+      final Entry entry = segment.entries.get(key);
+      if (entry == null || entry.type != type) {
+        segment.missCount++;
+        return null;
+      }
+
+      segment.hitCount++;
+      value = entry.value;
+    }
+
+    // 缓存中的值不会被修改，在锁外复制。
+    return (T) copyOut(value);
+  }
+
+  /** 获得分段版本号，用于 {@link #putIfUnchanged} */
+  long version(String key) {
+    final int stripe = mStripes.indexOf(key);
+    synchronized (segmentOf(stripe)) {
+      return mVersions[stripe];
+    }
+  }
+
+  /**
+   * 磁盘读取后放入缓存，读取期间发生写入或删除时放弃。
+   *
+   * @return 返回给调用方的值，ByteBuffer 与命中时一样为只读缓冲区。
+   */
+  @SuppressWarnings("unchecked")
+  <T> T putIfUnchanged(String key, Class<T> type, T value, long version) {
+    // 读取到的缓冲区只属于这次读取，无需复制。
+    final Object stored = copyIn(value, true);
+    final int stripe = mStripes.indexOf(key);
+    final Segment segment = segmentOf(stripe);
+    synchronized (segment) {
+      if (mVersions[stripe] == version) {
+        putInternal(segment, key, type, stored);
+      }
+    }
+
+    return value instanceof ByteBuffer ? (T) copyOut(stored) : value;
+  }
+
+  /** 写入后更新缓存 */
+  <T> void put(String key, Class<T> type, T value) {
+    // 调用方之后可能修改写入的值，总是复制。
+    final Object stored = copyIn(value, false);
+    final int stripe = mStripes.indexOf(key);
+    final Segment segment = segmentOf(stripe);
+    synchronized (segment) {
+      mVersions[stripe]++;
+      putInternal(segment, key, type, stored);
+    }
+  }
+
+  /** 删除缓存 */
+  void remove(String key) {
+    final int stripe = mStripes.indexOf(key);
+    final Segment segment = segmentOf(stripe);
+    synchronized (segment) {
+      mVersions[stripe]++;
+      final Entry old = segment.entries.remove(key);
+      if (old != null) {
+        segment.size -= old.size;
+      }
+    }
+  }
+
+  /** 清空缓存 */
+  void clear() {
+    for (int i = 0; i < mSegments.length; i++) {
+      final Segment segment = mSegments[i];
+      synchronized (segment) {
+        for (int stripe = i; stripe < VERSION_STRIPES; stripe += mSegments.length) {
+          mVersions[stripe]++;
+        }
+
+        segment.entries.clear();
+        segment.size = 0;
+      }
+    }
+  }
+
+  DirStore.CacheStats stats() {
+    long hitCount = 0;
+    long missCount = 0;
+    long evictionCount = 0;
+    int entryCount = 0;
+    long size = 0;
+    for (Segment segment : mSegments) {
+      synchronized (segment) {
+        hitCount += segment.hitCount;
+        missCount += segment.missCount;
+        evictionCount += segment.evictionCount;
+        entryCount += segment.entries.size();
+        size += segment.size;
+      }
+    }
+
+    return new DirStore.CacheStats(hitCount, missCount, evictionCount, entryCount, size);
+  }
+
+  /* 调用时需持有分段的锁 */
+  private void putInternal(Segment segment, String key, Class<?> type, Object value) {
+    final Entry old;
+    if (value == null) {
+      old = segment.entries.remove(key);
+    } else {
+      final long size = sizeOf(key, value);
+      old = segment.entries.put(key, new Entry(type, value, size));
+      segment.size += size;
+    }
+
+    if (old != null) {
+      segment.size -= old.size;
+    }
+
+    trimToSize(segment);
+  }
+
+  /*
+   * 放入缓存前复制可变的值，ByteBuffer 保存为只读缓冲区。
+   * owned 为 true 表示缓冲区只属于这次读取，直接保存它的只读视图。
+   */
+  private static Object copyIn(Object value, boolean owned) {
+    if (value instanceof byte[]) {
+      return ((byte[]) value).clone();
+    }
+
+    if (value instanceof ByteBuffer) {
+      final ByteBuffer buffer = (ByteBuffer) value;
+      if (owned) {
+        return buffer.asReadOnlyBuffer();
+      }
+
+      final ByteBuffer copy = buffer.isDirect() ?
+          ByteBuffer.allocateDirect(buffer.remaining()) : ByteBuffer.allocate(buffer.remaining());
+      copy.put(buffer.duplicate());
+      copy.flip();
+      return copy.asReadOnlyBuffer();
+    }
+
+    return value;
+  }
+
+  /* 取出时复制，每个读取方得到独立的数组或 position */
+  private static Object copyOut(Object value) {
+    if (value instanceof byte[]) {
+      return ((byte[]) value).clone();
+    }
+
+    if (value instanceof ByteBuffer) {
+      return ((ByteBuffer) value).duplicate();
+    }
+
+    return value;
+  }
+
+  private long sizeOf(String key, Object value) {
+    if (mSizer == null) {
+      return 1;
+    }
+
+    final long size = mSizer.sizeOf(key, value);
+    if (size < 0) {
+      throw new IllegalStateException("negative size: " + key + "=" + value);
+    }
+
+    return size;
+  }
+
+  private static void trimToSize(Segment segment) {
+    final Iterator<Map.Entry<String, Entry>> iterator = segment.entries.entrySet().iterator();
+    while (segment.size > segment.maxSize && iterator.hasNext()) {
+      final Entry eldest = iterator.next().getValue();
+      iterator.remove();
+      segment.size -= eldest.size;
+      segment.evictionCount++;
+    }
+  }
+}
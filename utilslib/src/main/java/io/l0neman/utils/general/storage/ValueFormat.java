@@ -0,0 +1,276 @@
+package io.l0neman.utils.general.storage;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * DirStore 文件格式。
+ * <p>
+ * 启用编码或校验后，{@link IDirStore.BufferIOAdapter} 编码的值写入文件时带有文件头，
+ * 启用校验时带有文件尾：
+ *
+ * <pre><code>
+ *
+ *   magic(4) | codec(1) | flags(1) | [expiresAt(8)] | payload | [length(4) | crc32(4)]
+ *
+ * </code></pre>
+ * <p>
+ * 文件尾记录文件头和 payload 的长度以及它们的 CRC32，读取时校验，不完整的写入会被发现。
+ * 带有过期时间的值在文件头中记录过期的时间点（毫秒时间戳）。
+ * 读取时没有文件头的文件按照原始内容处理，兼容旧文件。
+ */
+final class ValueFormat {
+
+  private static final byte[] MAGIC = {(byte) 0xD5, (byte) 0x7F, 'D', 'S'};
+  static final int HEADER_SIZE = MAGIC.length + 2;
+  static final int TRAILER_SIZE = 8;
+
+  /* 文件带有校验文件尾 */
+  private static final int FLAG_CHECKSUM = 1;
+  /* 文件头带有过期时间 */
+  private static final int FLAG_EXPIRY = 2;
+  private static final int EXPIRY_SIZE = 8;
+
+  private final DirStore.Codec mCodec;
+  private final int mThreshold;
+  private final boolean isChecksum;
+
+  /**
+   * @param codec     写入时使用的编码，为 null 时不编码。
+   * @param threshold 小于该大小的值不编码。
+   * @param checksum  写入校验文件尾。
+   */
+  ValueFormat(DirStore.Codec codec, int threshold, boolean checksum) {
+    this.mCodec = codec;
+    this.mThreshold = threshold;
+    this.isChecksum = checksum;
+  }
+
+  /** 将值编码为文件内容 */
+  ByteBuffer pack(ByteBuffer value) throws IOException {
+    return pack(value, 0);
+  }
+
+  /**
+   * 将值编码为文件内容。
+   *
+   * @param expiresAt 过期时间点（毫秒时间戳），为 0 时不过期。
+   */
+  ByteBuffer pack(ByteBuffer value, long expiresAt) throws IOException {
+    int codecId = Codecs.ID_NONE;
+    ByteBuffer payload = value;
+    if (mCodec != null && value.remaining() >= mThreshold) {
+      payload = mCodec.encode(value);
+      codecId = mCodec.id();
+    }
+
+    int flags = isChecksum ? FLAG_CHECKSUM : 0;
+    if (expiresAt > 0) {
+      flags |= FLAG_EXPIRY;
+    }
+
+    final int length = headerSize(flags) + payload.remaining();
+    final ByteBuffer file = ByteBuffer.allocate(length + (isChecksum ? TRAILER_SIZE : 0));
+    file.put(MAGIC).put((byte) codecId).put((byte) flags);
+    if (expiresAt > 0) {
+      file.putLong(expiresAt);
+    }
+
+    file.put(payload);
+    if (isChecksum) {
+      file.putInt(length).putInt(crc32(file.array(), 0, length));
+    }
+
+    file.flip();
+    return file;
+  }
+
+  /** 从文件内容解码值 */
+  ByteBuffer unpack(ByteBuffer file) throws IOException {
+    if (!hasHeader(file)) {
+      return file;
+    }
+
+    final int start = file.position();
+    final int codecId = file.get(start + MAGIC.length) & 0xFF;
+    final int flags = file.get(start + MAGIC.length + 1);
+    final ByteBuffer payload = file.duplicate();
+    if ((flags & FLAG_CHECKSUM) != 0) {
+      verify(file);
+      payload.limit(file.limit() - TRAILER_SIZE);
+    }
+
+    if (payload.limit() < start + headerSize(flags)) {
+      throw new CorruptFileException("truncated header, file size: " + file.remaining());
+    }
+
+    payload.position(start + headerSize(flags));
+
+    if (codecId == Codecs.ID_NONE) {
+      return payload.slice();
+    }
+
+    return codecOf(codecId).decode(payload.slice());
+  }
+
+  private static int headerSize(int flags) {
+    return (flags & FLAG_EXPIRY) != 0 ? HEADER_SIZE + EXPIRY_SIZE : HEADER_SIZE;
+  }
+
+  /**
+   * 读取文件头中的过期时间点。
+   *
+   * @return 过期时间点（毫秒时间戳），没有文件头或没有过期时间时返回 0。
+   */
+  static long expiresAt(ByteBuffer file) {
+    if (!hasHeader(file) || file.remaining() < HEADER_SIZE + EXPIRY_SIZE) {
+      return 0;
+    }
+
+    final int start = file.position();
+    if ((file.get(start + MAGIC.length + 1) & FLAG_EXPIRY) == 0) {
+      return 0;
+    }
+
+    return file.getLong(start + HEADER_SIZE);
+  }
+
+  /**
+   * 只读取文件头，获得过期时间点。
+   *
+   * @return 过期时间点（毫秒时间戳），文件不存在、没有文件头或没有过期时间时返回 0。
+   */
+  static long readExpiresAt(String path) throws IOException {
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(path);
+      final FileChannel channel = in.getChannel();
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + EXPIRY_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header) < 0) {
+          break;
+        }
+      }
+
+      header.flip();
+      return expiresAt(header);
+    } catch (FileNotFoundException e) {
+      return 0;
+    } finally {
+      ChannelIOAdapter.closeQuietly(in);
+    }
+  }
+
+  private DirStore.Codec codecOf(int id) throws IOException {
+    if (mCodec != null && mCodec.id() == id) {
+      return mCodec;
+    }
+
+    final DirStore.Codec codec = Codecs.builtIn(id);
+    if (codec == null) {
+      throw new IOException("unknown codec: " + id);
+    }
+
+    return codec;
+  }
+
+  /**
+   * 校验文件内容，没有文件头或没有校验文件尾的文件视为完整。
+   *
+   * @throws CorruptFileException 文件不完整或已损坏。
+   */
+  static void check(ByteBuffer file) throws CorruptFileException {
+    if (hasHeader(file) && (file.get(file.position() + MAGIC.length + 1) & FLAG_CHECKSUM) != 0) {
+      verify(file);
+    }
+  }
+
+  private static void verify(ByteBuffer file) throws CorruptFileException {
+    final int start = file.position();
+    final int length = file.remaining() - TRAILER_SIZE;
+    if (length < HEADER_SIZE || file.getInt(start + length) != length) {
+      throw new CorruptFileException("bad length, file size: " + file.remaining());
+    }
+
+    final int crc;
+    if (file.hasArray()) {
+      crc = crc32(file.array(), file.arrayOffset() + start, length);
+    } else {
+      // 直接缓冲区和内存映射分块复制计算，不复制整个文件。
+      final CRC32 crc32 = new CRC32();
+      final ByteBuffer content = file.duplicate();
+      content.limit(start + length);
+      final byte[] chunk = new byte[Math.min(length, 8192)];
+      while (content.hasRemaining()) {
+        final int size = Math.min(chunk.length, content.remaining());
+        content.get(chunk, 0, size);
+        crc32.update(chunk, 0, size);
+      }
+      crc = (int) crc32.getValue();
+    }
+
+    if (file.getInt(start + length + 4) != crc) {
+      throw new CorruptFileException("bad checksum");
+    }
+  }
+
+  private static int crc32(byte[] bytes, int offset, int length) {
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, offset, length);
+    return (int) crc.getValue();
+  }
+
+  private static boolean hasHeader(ByteBuffer file) {
+    if (file.remaining() < HEADER_SIZE) {
+      return false;
+    }
+
+    final int start = file.position();
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (file.get(start + i) != MAGIC[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // file utils:
+
+  static ByteBuffer readFile(String path) throws IOException {
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(path);
+      final FileChannel channel = in.getChannel();
+      final ByteBuffer buffer = ByteBuffer.allocate(ChannelIOAdapter.checkSize(channel.size()));
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, buffer.position()) < 0) {
+          break;
+        }
+      }
+
+      buffer.flip();
+      return buffer;
+    } finally {
+      ChannelIOAdapter.closeQuietly(in);
+    }
+  }
+
+  static void writeFile(String path, ByteBuffer buffer) throws IOException {
+    FileOutputStream out = null;
+    try {
+      out = new FileOutputStream(path);
+      final FileChannel channel = out.getChannel();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } finally {
+      ChannelIOAdapter.closeQuietly(out);
+    }
+  }
+}
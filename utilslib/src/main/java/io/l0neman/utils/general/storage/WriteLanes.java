@@ -0,0 +1,184 @@
+package io.l0neman.utils.general.storage;
+
+import io.l0neman.utils.general.concurrent.ExecutorCreator;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * DirStore 异步写入通道。
+ * <p>
+ * 包含 N 个单线程通道，按照文件名哈希分配，同一文件的操作始终在同一个通道内按顺序执行，
+ * 不同文件的操作可以并行执行。通道线程为守护线程，使用 {@link #shutdown()} 停止。
+ */
+final class WriteLanes {
+
+  private final ThreadPoolExecutor[] mLanes;
+
+  // 每个通道的统计：完成数量、排队等待总时间、执行总时间、最大延迟（纳秒）。
+  private final AtomicLongArray mCompleted;
+  private final AtomicLongArray mWaitNanos;
+  private final AtomicLongArray mRunNanos;
+  private final AtomicLongArray mMaxLatencyNanos;
+
+  WriteLanes(int count) {
+    if (count <= 0) {
+      throw new IllegalArgumentException("lane count <= 0");
+    }
+
+    mLanes = new ThreadPoolExecutor[count];
+    for (int i = 0; i < count; i++) {
+      mLanes[i] = ExecutorCreator.single()
+          .threadFactory(new DaemonThreadFactory("DirStore write-" + i))
+          .create();
+    }
+
+    mCompleted = new AtomicLongArray(count);
+    mWaitNanos = new AtomicLongArray(count);
+    mRunNanos = new AtomicLongArray(count);
+    mMaxLatencyNanos = new AtomicLongArray(count);
+  }
+
+  int size() {
+    return mLanes.length;
+  }
+
+  /** 在文件名对应的通道中执行 */
+  void execute(String key, Runnable task) {
+    final int lane = laneOf(key);
+    mLanes[lane].execute(new TimedTask(lane, task));
+  }
+
+  /**
+   * 等待所有通道中已提交的任务完成后执行，执行期间所有通道暂停。
+   * <p>
+   * 用于需要和所有文件的写入保持顺序的操作。部分通道拒绝时取消屏障，task 不会执行，
+   * 已提交到其他通道的屏障任务直接结束。
+   *
+   * @throws RejectedExecutionException 通道已关闭。
+   */
+  void executeBarrier(final Runnable task) {
+    final int count = mLanes.length;
+    final CountDownLatch arrived = new CountDownLatch(count);
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicBoolean cancelled = new AtomicBoolean();
+
+    for (int i = 0; i < count; i++) {
+      final boolean isLeader = i == 0;
+      try {
+        mLanes[i].execute(new TimedTask(i, new Runnable() {
+          @Override public void run() {
+            arrived.countDown();
+            if (isLeader) {
+              awaitUninterruptibly(arrived);
+              try {
+                if (!cancelled.get()) {
+                  task.run();
+                }
+              } finally {
+                done.countDown();
+              }
+            } else {
+              awaitUninterruptibly(done);
+            }
+          }
+        }));
+      } catch (RejectedExecutionException e) {
+        // 代替未提交的通道到达，避免已提交的通道一直等待。
+        cancelled.set(true);
+        for (int j = i; j < count; j++) {
+          arrived.countDown();
+        }
+        throw e;
+      }
+    }
+  }
+
+  /** 不再接受新的任务，已提交的任务继续执行 */
+  void shutdown() {
+    for (ThreadPoolExecutor lane : mLanes) {
+      lane.shutdown();
+    }
+  }
+
+  /**
+   * 等待所有通道中已提交的任务执行完成。
+   *
+   * @return 超时返回 false。
+   */
+  boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (ThreadPoolExecutor lane : mLanes) {
+      if (!lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  DirStore.LaneStats stats(int lane) {
+    return new DirStore.LaneStats(lane, mLanes[lane].getQueue().size(), mCompleted.get(lane),
+        mWaitNanos.get(lane), mRunNanos.get(lane), mMaxLatencyNanos.get(lane));
+  }
+
+  /* 通道数量可以不是 2 的幂，使用取模选择通道 */
+  private int laneOf(String key) {
+    final int h = key.hashCode() ^ (key.hashCode() >>> 16);
+    return (h & 0x7FFFFFFF) % mLanes.length;
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        latch.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private final class TimedTask implements Runnable {
+    private final int lane;
+    private final Runnable task;
+    private final long submitTime = System.nanoTime();
+
+    TimedTask(int lane, Runnable task) {
+      this.lane = lane;
+      this.task = task;
+    }
+
+    @Override public void run() {
+      final long start = System.nanoTime();
+      try {
+        task.run();
+      } finally {
+        final long end = System.nanoTime();
+        mCompleted.incrementAndGet(lane);
+        mWaitNanos.addAndGet(lane, start - submitTime);
+        mRunNanos.addAndGet(lane, end - start);
+        updateMax(lane, end - submitTime);
+      }
+    }
+  }
+
+  private void updateMax(int lane, long latency) {
+    long max;
+    do {
+      max = mMaxLatencyNanos.get(lane);
+      if (latency <= max) {
+        return;
+      }
+    } while (!mMaxLatencyNanos.compareAndSet(lane, max, latency));
+  }
+}
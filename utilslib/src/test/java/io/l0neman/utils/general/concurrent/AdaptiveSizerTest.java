@@ -0,0 +1,199 @@
+package io.l0neman.utils.general.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdaptiveSizerTest {
+
+  private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+  /* 任务全部用于计算时的 CPU 时间，大于实际执行时间后按执行时间计算 */
+  private static final long ALL_CPU = Long.MAX_VALUE / 4;
+
+  private ThreadPoolExecutor mExecutor;
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (mExecutor != null) {
+      mExecutor.shutdownNow();
+      mExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  /* 模拟每个任务消耗的 CPU 时间 */
+  private static final class FakeCpuSizer extends AdaptiveSizer {
+    /* 每个任务的 CPU 时间，为 -1 时模拟系统不支持 */
+    volatile long cpuPerTask;
+
+    /* 当前线程是否在任务执行中 */
+    private final ThreadLocal<boolean[]> mRunning = new ThreadLocal<boolean[]>() {
+      @Override protected boolean[] initialValue() {
+        return new boolean[1];
+      }
+    };
+
+    FakeCpuSizer(int minSize, int maxSize, float utilization) {
+      super(minSize, maxSize, utilization, 0);
+    }
+
+    @Override long threadCpuTimeNanos() {
+      if (cpuPerTask < 0) {
+        return -1;
+      }
+
+      final boolean[] running = mRunning.get();
+      running[0] = !running[0];
+      return running[0] ? 0 : cpuPerTask;
+    }
+  }
+
+  private static ThreadPoolExecutor pool(int coreSize, int maxSize) {
+    return new ThreadPoolExecutor(coreSize, maxSize, 1, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>());
+  }
+
+  /* 在当前线程中模拟执行任务 */
+  private static void runTasks(AdaptiveSizer sizer, ThreadPoolExecutor executor, int count)
+      throws InterruptedException {
+    for (int i = 0; i < count; i++) {
+      sizer.beforeExecute();
+      Thread.sleep(1);
+      sizer.afterExecute(executor);
+    }
+  }
+
+  @Test
+  public void rejectsBadArguments() {
+    try {
+      new AdaptiveSizer(0, 4, 1, 0);
+      fail("accepted min size 0.");
+    } catch (IllegalArgumentException expected) {
+    }
+
+    try {
+      new AdaptiveSizer(4, 2, 1, 0);
+      fail("accepted max size below min size.");
+    } catch (IllegalArgumentException expected) {
+    }
+
+    try {
+      new AdaptiveSizer(1, 4, 0, 0);
+      fail("accepted utilization 0.");
+    } catch (IllegalArgumentException expected) {
+    }
+
+    try {
+      new AdaptiveSizer(1, 4, 1.5F, 0);
+      fail("accepted utilization above 1.");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void startsFromCpuCount() {
+    assertEquals(Math.min(CPU_COUNT, 64), new AdaptiveSizer(1, 64, 1, 0).initialSize());
+    assertEquals(3, new AdaptiveSizer(3, 3, 1, 0).initialSize());
+    assertEquals(-1, new AdaptiveSizer(1, 64, 1, 0).ratio(), 0);
+  }
+
+  @Test
+  public void growsForWaitingTasks() throws InterruptedException {
+    final FakeCpuSizer sizer = new FakeCpuSizer(1, CPU_COUNT * 4, 1);
+    mExecutor = pool(1, CPU_COUNT * 4);
+    runTasks(sizer, mExecutor, 16);
+
+    assertTrue(sizer.ratio() > 0);
+    assertEquals(CPU_COUNT * 4, mExecutor.getCorePoolSize());
+  }
+
+  @Test
+  public void shrinksForComputingTasks() throws InterruptedException {
+    final FakeCpuSizer sizer = new FakeCpuSizer(1, CPU_COUNT * 4, 1);
+    sizer.cpuPerTask = ALL_CPU;
+    mExecutor = pool(CPU_COUNT * 4, CPU_COUNT * 4);
+    runTasks(sizer, mExecutor, 16);
+
+    assertEquals(0, sizer.ratio(), 0);
+    assertEquals(CPU_COUNT, mExecutor.getCorePoolSize());
+  }
+
+  @Test
+  public void smoothsRatio() throws InterruptedException {
+    final FakeCpuSizer sizer = new FakeCpuSizer(1, CPU_COUNT * 4, 1);
+    mExecutor = pool(1, CPU_COUNT * 4);
+    runTasks(sizer, mExecutor, 16);
+    final float first = sizer.ratio();
+
+    // 新周期的权重为一半。
+    sizer.cpuPerTask = ALL_CPU;
+    runTasks(sizer, mExecutor, 16);
+    assertEquals(first / 2, sizer.ratio(), 0);
+  }
+
+  @Test
+  public void waitsForEnoughSamples() throws InterruptedException {
+    final FakeCpuSizer sizer = new FakeCpuSizer(1, CPU_COUNT * 4, 1);
+    mExecutor = pool(1, CPU_COUNT * 4);
+    runTasks(sizer, mExecutor, 15);
+
+    assertEquals(-1, sizer.ratio(), 0);
+    assertEquals(1, mExecutor.getCorePoolSize());
+  }
+
+  @Test
+  public void keepsSizeWithoutCpuTime() throws InterruptedException {
+    final FakeCpuSizer sizer = new FakeCpuSizer(1, CPU_COUNT * 4, 1);
+    sizer.cpuPerTask = -1;
+    mExecutor = pool(1, CPU_COUNT * 4);
+    runTasks(sizer, mExecutor, 32);
+
+    assertEquals(-1, sizer.ratio(), 0);
+    assertEquals(1, mExecutor.getCorePoolSize());
+  }
+
+  @Test
+  public void executorResizesItself() throws InterruptedException {
+    final FakeCpuSizer sizer = new FakeCpuSizer(1, CPU_COUNT * 4, 1F / CPU_COUNT);
+    final AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(sizer, 1,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override public Thread newThread(Runnable r) {
+            return new Thread(r);
+          }
+        }, new ThreadPoolExecutor.AbortPolicy());
+    mExecutor = executor;
+    assertEquals(1, executor.getCorePoolSize());
+
+    final CountDownLatch done = new CountDownLatch(16);
+    for (int i = 0; i < 16; i++) {
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          try {
+            Thread.sleep(1);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          done.countDown();
+        }
+      });
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+
+    // 最后一个任务执行完成后调整。
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (executor.waitComputeRatio() < 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(executor.waitComputeRatio() > 0);
+    assertEquals(CPU_COUNT * 4, executor.getCorePoolSize());
+  }
+}
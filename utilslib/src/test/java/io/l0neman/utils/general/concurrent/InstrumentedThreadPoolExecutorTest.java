@@ -0,0 +1,208 @@
+package io.l0neman.utils.general.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InstrumentedThreadPoolExecutorTest {
+
+  private InstrumentedThreadPoolExecutor mExecutor;
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (mExecutor != null) {
+      mExecutor.shutdownNow();
+      mExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  /* 单线程的线程池，队列容量较小，便于触发拒绝 */
+  private void create(RejectedExecutionHandler handler, int queueSize) {
+    mExecutor = (InstrumentedThreadPoolExecutor) ExecutorCreator.custom()
+        .coreSize(1)
+        .maxPoolSize(1)
+        .maxTaskSize(queueSize)
+        .instrumented()
+        .rejectedHandler(handler)
+        .create();
+  }
+
+  private Runnable blocker(final CountDownLatch started, final CountDownLatch gate) {
+    return new Runnable() {
+      @Override public void run() {
+        started.countDown();
+        try {
+          gate.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+
+  private static Runnable counter(final AtomicInteger count) {
+    return new Runnable() {
+      @Override public void run() {
+        count.incrementAndGet();
+      }
+    };
+  }
+
+  @Test
+  public void countsCompletedAndFailedTasks() throws InterruptedException {
+    create(new ThreadPoolExecutor.AbortPolicy(), 16);
+    final AtomicInteger executed = new AtomicInteger();
+    mExecutor.execute(counter(executed));
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        throw new IllegalStateException("test");
+      }
+    });
+    mExecutor.execute(counter(executed));
+
+    mExecutor.shutdown();
+    assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    final ExecutorMetrics metrics = mExecutor.metrics();
+    assertEquals(2, executed.get());
+    assertEquals(3, metrics.submittedCount);
+    assertEquals(2, metrics.completedCount);
+    assertEquals(1, metrics.failedCount);
+    assertEquals(0, metrics.rejectedCount);
+    assertEquals(3, metrics.queueLatency.count);
+    assertEquals(3, metrics.runTime.count);
+    assertEquals(1, metrics.peakActiveThreads);
+  }
+
+  @Test
+  public void passesOriginalTaskToHandler() throws InterruptedException {
+    final List<Runnable> rejected = new ArrayList<>();
+    create(new RejectedExecutionHandler() {
+      @Override public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+        rejected.add(r);
+      }
+    }, 1);
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch gate = new CountDownLatch(1);
+    mExecutor.execute(blocker(started, gate));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    final AtomicInteger executed = new AtomicInteger();
+    mExecutor.execute(counter(executed));
+    final Runnable third = counter(executed);
+    mExecutor.execute(third);
+    gate.countDown();
+
+    mExecutor.shutdown();
+    assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1, rejected.size());
+    assertSame(third, rejected.get(0));
+    assertEquals(1, executed.get());
+    assertEquals(2, mExecutor.metrics().submittedCount);
+    assertEquals(1, mExecutor.metrics().rejectedCount);
+  }
+
+  @Test
+  public void delegatesToCallerRunsPolicy() throws InterruptedException {
+    create(new ThreadPoolExecutor.CallerRunsPolicy(), 1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch gate = new CountDownLatch(1);
+    mExecutor.execute(blocker(started, gate));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+      }
+    });
+
+    final AtomicReference<Thread> runner = new AtomicReference<>();
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        runner.set(Thread.currentThread());
+      }
+    });
+    // 处理器在提交线程中执行原始任务。
+    assertSame(Thread.currentThread(), runner.get());
+    gate.countDown();
+
+    mExecutor.shutdown();
+    assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    final ExecutorMetrics metrics = mExecutor.metrics();
+    assertEquals(2, metrics.submittedCount);
+    assertEquals(2, metrics.completedCount);
+    assertEquals(1, metrics.rejectedCount);
+  }
+
+  @Test
+  public void delegatesToDiscardOldestPolicy() throws InterruptedException {
+    create(new ThreadPoolExecutor.DiscardOldestPolicy(), 1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch gate = new CountDownLatch(1);
+    mExecutor.execute(blocker(started, gate));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    final AtomicInteger oldest = new AtomicInteger();
+    final AtomicInteger newest = new AtomicInteger();
+    mExecutor.execute(counter(oldest));
+    // 丢弃排队的任务后重新提交，重新提交按照新的提交计数。
+    mExecutor.execute(counter(newest));
+    gate.countDown();
+
+    mExecutor.shutdown();
+    assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(0, oldest.get());
+    assertEquals(1, newest.get());
+    final ExecutorMetrics metrics = mExecutor.metrics();
+    assertEquals(1, metrics.rejectedCount);
+    assertEquals(2, metrics.completedCount);
+  }
+
+  @Test
+  public void countsRejectionAfterShutdown() {
+    create(new ThreadPoolExecutor.AbortPolicy(), 1);
+    mExecutor.shutdown();
+    try {
+      mExecutor.execute(new Runnable() {
+        @Override public void run() {
+        }
+      });
+      fail("task accepted after shutdown.");
+    } catch (RejectedExecutionException expected) {
+    }
+
+    assertEquals(0, mExecutor.metrics().submittedCount);
+    assertEquals(1, mExecutor.metrics().rejectedCount);
+  }
+
+  @Test
+  public void resetsMetrics() throws InterruptedException {
+    create(new ThreadPoolExecutor.AbortPolicy(), 1);
+    final CountDownLatch done = new CountDownLatch(1);
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+
+    mExecutor.shutdown();
+    assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    mExecutor.resetMetrics();
+    final ExecutorMetrics metrics = mExecutor.metrics();
+    assertEquals(0, metrics.submittedCount);
+    assertEquals(0, metrics.completedCount);
+    assertEquals(0, metrics.runTime.count);
+  }
+}
@@ -0,0 +1,100 @@
+package io.l0neman.utils.general.concurrent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void emptySnapshot() {
+    final LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+    assertEquals(0, snapshot.count);
+    assertEquals(0, snapshot.min);
+    assertEquals(0, snapshot.max);
+    assertEquals(0, snapshot.percentile(99));
+    assertEquals(0, snapshot.mean(), 0);
+  }
+
+  @Test
+  public void recordsSmallValuesExactly() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(i);
+    }
+    // 负数按 0 记录。
+    histogram.record(-5);
+
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(11, snapshot.count);
+    assertEquals(55, snapshot.sum);
+    assertEquals(0, snapshot.min);
+    assertEquals(10, snapshot.max);
+    assertEquals(5, snapshot.percentile(50));
+    assertEquals(10, snapshot.percentile(100));
+  }
+
+  @Test
+  public void percentilesWithinRelativeError() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 100000; i++) {
+      histogram.record(i * 1000);
+    }
+
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    for (double percentile : new double[]{50, 90, 99, 99.9}) {
+      final long expected = (long) Math.ceil(100000 * percentile / 100) * 1000;
+      final long actual = snapshot.percentile(percentile);
+      // 返回桶内最大值，不小于实际值，误差不超过 1/16。
+      assertTrue(percentile + ": " + actual, actual >= expected);
+      assertTrue(percentile + ": " + actual, actual <= expected + expected / 16);
+    }
+    assertEquals(100000L * 1000, snapshot.percentile(100));
+  }
+
+  @Test
+  public void recordsLargeValues() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, histogram.snapshot().percentile(50));
+  }
+
+  @Test
+  public void resetClearsRecords() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(100);
+    histogram.reset();
+    histogram.record(7);
+
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(1, snapshot.count);
+    assertEquals(7, snapshot.min);
+    assertEquals(7, snapshot.max);
+  }
+
+  @Test
+  public void recordsConcurrently() throws InterruptedException {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    final Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override public void run() {
+          for (int i = 0; i < 10000; i++) {
+            histogram.record(i);
+          }
+        }
+      });
+      threads[t].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(40000, snapshot.count);
+    assertEquals(4L * 9999 * 10000 / 2, snapshot.sum);
+    assertEquals(9999, snapshot.max);
+  }
+}
@@ -0,0 +1,215 @@
+package io.l0neman.utils.general.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityTaskQueueTest {
+
+  private static final class Task implements Runnable, PriorityTaskQueue.Prioritized {
+    private final String mName;
+    private final int mPriority;
+    private final long mDeadline;
+
+    Task(String name, int priority) {
+      this(name, priority, Long.MAX_VALUE);
+    }
+
+    Task(String name, int priority, long deadline) {
+      this.mName = name;
+      this.mPriority = priority;
+      this.mDeadline = deadline;
+    }
+
+    @Override public void run() {
+    }
+
+    @Override public int priority() {
+      return mPriority;
+    }
+
+    @Override public long deadline() {
+      return mDeadline;
+    }
+
+    @Override public String toString() {
+      return mName;
+    }
+  }
+
+  private static String pollAll(PriorityTaskQueue queue) {
+    final StringBuilder order = new StringBuilder();
+    Runnable task;
+    while ((task = queue.poll()) != null) {
+      order.append(task);
+    }
+    return order.toString();
+  }
+
+  @Test
+  public void pollsByPriorityThenSubmissionOrder() {
+    final PriorityTaskQueue queue = new PriorityTaskQueue(16, 0);
+    queue.offer(new Task("a", PriorityThreadPoolExecutor.PRIORITY_LOW));
+    queue.offer(new Task("b", PriorityThreadPoolExecutor.PRIORITY_NORMAL));
+    queue.offer(new Task("c", PriorityThreadPoolExecutor.PRIORITY_HIGH));
+    queue.offer(new Task("d", PriorityThreadPoolExecutor.PRIORITY_NORMAL));
+    // 没有实现 Prioritized 的任务使用默认优先级。
+    queue.offer(new Runnable() {
+      @Override public void run() {
+      }
+
+      @Override public String toString() {
+        return "e";
+      }
+    });
+
+    assertEquals("cbdea", pollAll(queue));
+  }
+
+  @Test
+  public void pollsEarlierDeadlineFirst() {
+    final PriorityTaskQueue queue = new PriorityTaskQueue(16, 0);
+    final long now = System.nanoTime();
+    final int normal = PriorityThreadPoolExecutor.PRIORITY_NORMAL;
+    queue.offer(new Task("a", normal));
+    queue.offer(new Task("b", normal, now + TimeUnit.SECONDS.toNanos(2)));
+    queue.offer(new Task("c", normal, now + TimeUnit.SECONDS.toNanos(1)));
+    queue.offer(new Task("d", PriorityThreadPoolExecutor.PRIORITY_HIGH));
+
+    assertEquals("dcba", pollAll(queue));
+  }
+
+  @Test
+  public void comparesDeadlinesAcrossNanoTimeOverflow() {
+    final PriorityTaskQueue queue = new PriorityTaskQueue(16, 0);
+    final int normal = PriorityThreadPoolExecutor.PRIORITY_NORMAL;
+    // nanoTime 溢出后，较晚的截止时间是负数。
+    queue.offer(new Task("a", normal));
+    queue.offer(new Task("b", normal, Long.MIN_VALUE + 10));
+    queue.offer(new Task("c", normal, Long.MAX_VALUE - 10));
+
+    assertEquals("cba", pollAll(queue));
+  }
+
+  @Test
+  public void executorSaturatesDeadlines() throws InterruptedException {
+    final ThreadPoolExecutor executor = ExecutorCreator.priority().coreSize(1).maxPoolSize(1)
+        .create();
+    final PriorityThreadPoolExecutor priority = (PriorityThreadPoolExecutor) executor;
+    final CountDownLatch gate = new CountDownLatch(1);
+    final StringBuffer order = new StringBuffer();
+    try {
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          try {
+            gate.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+
+      final int normal = PriorityThreadPoolExecutor.PRIORITY_NORMAL;
+      final String[] names = {"a", "b", "c", "d"};
+      final long[] deadlines = {0, Long.MAX_VALUE, 1, -Long.MAX_VALUE};
+      for (int i = 0; i < names.length; i++) {
+        final String name = names[i];
+        final Runnable task = new Runnable() {
+          @Override public void run() {
+            order.append(name);
+          }
+        };
+        if (i == 0) {
+          priority.execute(task, normal);
+        } else {
+          priority.execute(task, normal, deadlines[i], TimeUnit.DAYS);
+        }
+      }
+    } finally {
+      gate.countDown();
+      executor.shutdown();
+    }
+
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals("dcba", order.toString());
+  }
+
+  @Test
+  public void rejectsWhenFull() {
+    final PriorityTaskQueue queue = new PriorityTaskQueue(2, 0);
+    assertTrue(queue.offer(new Task("a", 0)));
+    assertTrue(queue.offer(new Task("b", 0)));
+    assertFalse(queue.offer(new Task("c", 0)));
+    assertEquals(2, queue.size());
+    assertEquals(0, queue.remainingCapacity());
+
+    queue.poll();
+    assertTrue(queue.offer(new Task("c", 0)));
+  }
+
+  @Test
+  public void takeWaitsForTask() throws InterruptedException {
+    final PriorityTaskQueue queue = new PriorityTaskQueue(4, 0);
+    final Task task = new Task("a", 0);
+    final Thread producer = new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          return;
+        }
+        queue.offer(task);
+      }
+    });
+    producer.start();
+
+    assertSame(task, queue.take());
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    producer.join();
+  }
+
+  @Test
+  public void agesWaitingTasks() throws InterruptedException {
+    final long aging = TimeUnit.MILLISECONDS.toNanos(10);
+    final PriorityTaskQueue queue = new PriorityTaskQueue(16, aging);
+    queue.offer(new Task("low", PriorityThreadPoolExecutor.PRIORITY_LOW));
+    // 等待超过 10 个老化周期，低优先级任务提升到最高优先级。
+    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(aging) * 12);
+    queue.offer(new Task("normal", PriorityThreadPoolExecutor.PRIORITY_NORMAL));
+    queue.offer(new Task("high", PriorityThreadPoolExecutor.PRIORITY_HIGH));
+
+    // 老化后与新提交的高优先级任务相同，按照提交顺序。
+    assertEquals("lowhighnormal", pollAll(queue));
+  }
+
+  @Test
+  public void agingDoesNotExceedHighPriority() throws InterruptedException {
+    final long aging = TimeUnit.MILLISECONDS.toNanos(10);
+    final PriorityTaskQueue queue = new PriorityTaskQueue(16, aging);
+    queue.offer(new Task("low", PriorityThreadPoolExecutor.PRIORITY_LOW));
+    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(aging) * 20);
+    queue.offer(new Task("high", PriorityThreadPoolExecutor.PRIORITY_HIGH,
+        System.nanoTime() + TimeUnit.SECONDS.toNanos(1)));
+
+    // 优先级相同时有截止时间的任务优先。
+    assertEquals("highlow", pollAll(queue));
+  }
+
+  @Test
+  public void doesNotAgeWhenDisabled() throws InterruptedException {
+    final PriorityTaskQueue queue = new PriorityTaskQueue(16, 0);
+    queue.offer(new Task("low", PriorityThreadPoolExecutor.PRIORITY_LOW));
+    Thread.sleep(50);
+    queue.offer(new Task("normal", PriorityThreadPoolExecutor.PRIORITY_NORMAL));
+
+    assertEquals("normallow", pollAll(queue));
+  }
+}
@@ -0,0 +1,262 @@
+package io.l0neman.utils.general.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SerialExecutorTest {
+
+  private SerialExecutor mExecutor;
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (mExecutor != null) {
+      mExecutor.shutdown();
+      mExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void executesTasksInSubmissionOrder() throws InterruptedException {
+    mExecutor = ExecutorCreator.serial().capacity(16).create();
+    final List<Integer> executed = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      final int value = i;
+      mExecutor.execute(new Runnable() {
+        @Override public void run() {
+          executed.add(value);
+        }
+      });
+    }
+
+    mExecutor.shutdown();
+    assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(10000, executed.size());
+    for (int i = 0; i < executed.size(); i++) {
+      assertEquals(i, (int) executed.get(i));
+    }
+  }
+
+  @Test
+  public void keepsOrderOfEachProducer() throws InterruptedException {
+    final int producers = 4;
+    final int tasks = 20000;
+    // 容量较小，生产者会等待队列空出位置。
+    mExecutor = ExecutorCreator.serial().capacity(8).create();
+    final int[] last = new int[producers];
+    final AtomicInteger outOfOrder = new AtomicInteger();
+    final AtomicInteger executed = new AtomicInteger();
+
+    final Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      last[p] = -1;
+      threads[p] = new Thread(new Runnable() {
+        @Override public void run() {
+          for (int i = 0; i < tasks; i++) {
+            final int seq = i;
+            mExecutor.execute(new Runnable() {
+              @Override public void run() {
+                if (last[producer] != seq - 1) {
+                  outOfOrder.incrementAndGet();
+                }
+                last[producer] = seq;
+                executed.incrementAndGet();
+              }
+            });
+          }
+        }
+      });
+      threads[p].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    mExecutor.shutdown();
+    assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(producers * tasks, executed.get());
+    assertEquals(0, outOfOrder.get());
+  }
+
+  @Test
+  public void runsQueuedTasksAfterShutdown() throws InterruptedException {
+    mExecutor = ExecutorCreator.serial().capacity(16).create();
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AtomicInteger executed = new AtomicInteger();
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          gate.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+
+    for (int i = 0; i < 10; i++) {
+      mExecutor.execute(new Runnable() {
+        @Override public void run() {
+          executed.incrementAndGet();
+        }
+      });
+    }
+
+    mExecutor.shutdown();
+    assertTrue(mExecutor.isShutdown());
+    assertFalse(mExecutor.awaitTermination(50, TimeUnit.MILLISECONDS));
+    assertFalse(mExecutor.isTerminated());
+
+    gate.countDown();
+    assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    assertTrue(mExecutor.isTerminated());
+    assertEquals(10, executed.get());
+  }
+
+  @Test
+  public void rejectsTasksAfterShutdown() throws InterruptedException {
+    mExecutor = ExecutorCreator.serial().create();
+    mExecutor.shutdown();
+    try {
+      mExecutor.execute(new Runnable() {
+        @Override public void run() {
+        }
+      });
+      fail("task accepted after shutdown.");
+    } catch (RejectedExecutionException expected) {
+    }
+
+    assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void rejectsTaskFromConsumerWhenFull() throws InterruptedException {
+    mExecutor = ExecutorCreator.serial().capacity(2).create();
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final CountDownLatch done = new CountDownLatch(1);
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          // 消费线程不能等待自己消费，队列已满时直接拒绝。
+          for (int i = 0; i < 3; i++) {
+            mExecutor.execute(new Runnable() {
+              @Override public void run() {
+              }
+            });
+          }
+        } catch (RejectedExecutionException e) {
+          error.set(e);
+        } finally {
+          done.countDown();
+        }
+      }
+    });
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertTrue(error.get() instanceof RejectedExecutionException);
+  }
+
+  @Test
+  public void continuesAfterTaskThrows() throws InterruptedException {
+    final AtomicReference<Throwable> uncaught = new AtomicReference<>();
+    mExecutor = ExecutorCreator.serial()
+        .threadFactory(new ThreadFactory() {
+          @Override public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "serial test");
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+              @Override public void uncaughtException(Thread t, Throwable e) {
+                uncaught.set(e);
+              }
+            });
+            return thread;
+          }
+        })
+        .create();
+
+    final AtomicInteger executed = new AtomicInteger();
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        throw new IllegalStateException("test");
+      }
+    });
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        executed.incrementAndGet();
+      }
+    });
+
+    mExecutor.shutdown();
+    assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    assertTrue(uncaught.get() instanceof IllegalStateException);
+    assertEquals(1, executed.get());
+  }
+
+  /* 等待消费线程挂起，连续多次采样都处于等待状态 */
+  private static void assertParked(Thread consumer) throws InterruptedException {
+    int parked = 0;
+    for (int i = 0; i < 200 && parked < 10; i++) {
+      Thread.sleep(5);
+      parked = consumer.getState() == Thread.State.WAITING ? parked + 1 : 0;
+    }
+    assertEquals(10, parked);
+  }
+
+  @Test
+  public void clearsInterruptBetweenTasks() throws InterruptedException {
+    final AtomicReference<Thread> consumer = new AtomicReference<>();
+    mExecutor = ExecutorCreator.serial()
+        .threadFactory(new ThreadFactory() {
+          @Override public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "serial test");
+            consumer.set(thread);
+            return thread;
+          }
+        })
+        .create();
+
+    final AtomicBoolean interrupted = new AtomicBoolean(true);
+    final CountDownLatch done = new CountDownLatch(1);
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        Thread.currentThread().interrupt();
+      }
+    });
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        interrupted.set(Thread.currentThread().isInterrupted());
+        done.countDown();
+      }
+    });
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertFalse(interrupted.get());
+    // 中断状态不会使空闲的消费线程一直自旋。
+    assertParked(consumer.get());
+
+    // 空闲时被外部中断后继续挂起，并且可以继续执行任务。
+    consumer.get().interrupt();
+    assertParked(consumer.get());
+    final CountDownLatch next = new CountDownLatch(1);
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        next.countDown();
+      }
+    });
+    assertTrue(next.await(10, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,158 @@
+package io.l0neman.utils.general.concurrent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SplitTasksTest {
+
+  private ForkJoinPool mPool;
+
+  @Before
+  public void setUp() {
+    mPool = new ForkJoinPool(4);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    mPool.shutdown();
+    mPool.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void forRangeVisitsEachIndexOnce() {
+    final AtomicIntegerArray visits = new AtomicIntegerArray(10000);
+    final AtomicInteger ranges = new AtomicInteger();
+    SplitTasks.forRange(mPool, 0, 10000, 100, new SplitTasks.RangeAction() {
+      @Override public void run(int from, int to) {
+        assertTrue(to - from <= 100);
+        ranges.incrementAndGet();
+        for (int i = from; i < to; i++) {
+          visits.incrementAndGet(i);
+        }
+      }
+    });
+
+    for (int i = 0; i < visits.length(); i++) {
+      assertEquals(1, visits.get(i));
+    }
+    assertTrue(ranges.get() >= 100);
+  }
+
+  @Test
+  public void autoThresholdSplitsByParallelism() {
+    final AtomicInteger ranges = new AtomicInteger();
+    SplitTasks.forRange(mPool, 0, 3200, 0, new SplitTasks.RangeAction() {
+      @Override public void run(int from, int to) {
+        ranges.incrementAndGet();
+      }
+    });
+
+    // 4 个线程，每个线程约 8 个区间。
+    assertEquals(32, ranges.get());
+  }
+
+  @Test
+  public void ignoresEmptyRange() {
+    SplitTasks.forRange(mPool, 5, 5, 1, new SplitTasks.RangeAction() {
+      @Override public void run(int from, int to) {
+        fail("ran an empty range.");
+      }
+    });
+    assertNull(SplitTasks.reduce(mPool, 3, 1, 1, new Concat()));
+  }
+
+  @Test
+  public void mapsArraysAndLists() {
+    final Integer[] src = new Integer[1000];
+    for (int i = 0; i < src.length; i++) {
+      src[i] = i;
+    }
+
+    final SplitTasks.Mapper<Integer, String> mapper = new SplitTasks.Mapper<Integer, String>() {
+      @Override public String map(Integer value) {
+        return "v" + value;
+      }
+    };
+
+    final String[] dst = new String[src.length];
+    SplitTasks.map(mPool, src, dst, 16, mapper);
+    final List<String> mapped = SplitTasks.map(mPool, new LinkedList<>(Arrays.asList(src)), 16,
+        mapper);
+    for (int i = 0; i < src.length; i++) {
+      assertEquals("v" + i, dst[i]);
+      assertEquals("v" + i, mapped.get(i));
+    }
+
+    try {
+      SplitTasks.map(mPool, src, new String[1], 16, mapper);
+      fail("accepted a short dst array.");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  /* 区间拼接为字符串，结果能看出合并顺序 */
+  private static final class Concat implements SplitTasks.RangeReducer<String> {
+    @Override public String reduce(int from, int to) {
+      final StringBuilder builder = new StringBuilder();
+      for (int i = from; i < to; i++) {
+        builder.append((char) ('a' + i % 26));
+      }
+      return builder.toString();
+    }
+
+    @Override public String combine(String left, String right) {
+      return left + right;
+    }
+  }
+
+  @Test
+  public void reduceKeepsOrder() {
+    final String expected = new Concat().reduce(0, 5000);
+    assertEquals(expected, SplitTasks.reduce(mPool, 0, 5000, 7, new Concat()));
+  }
+
+  @Test
+  public void rethrowsInCaller() {
+    try {
+      SplitTasks.forRange(mPool, 0, 1000, 10, new SplitTasks.RangeAction() {
+        @Override public void run(int from, int to) {
+          if (from <= 500 && 500 < to) {
+            throw new IllegalStateException("test");
+          }
+        }
+      });
+      fail("exception was swallowed.");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void handlesRangesNearIntMax() {
+    final int[] bounds = new int[2];
+    SplitTasks.forRange(mPool, Integer.MAX_VALUE - 10, Integer.MAX_VALUE, 1,
+        new SplitTasks.RangeAction() {
+          @Override public void run(int from, int to) {
+            synchronized (bounds) {
+              bounds[0]++;
+              bounds[1] += to - from;
+            }
+          }
+        });
+    assertArrayEquals(new int[]{10, 10}, bounds);
+  }
+}
@@ -0,0 +1,186 @@
+package io.l0neman.utils.general.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirStoreCoalesceTest {
+
+  /* 合并窗口足够长，测试中的连续写入都落在同一个窗口内 */
+  private static final long WINDOW_MILLIS = 200;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private DirStore mStore;
+  private final CountingAdapter mAdapter = new CountingAdapter();
+
+  @Before
+  public void setUp() throws IOException {
+    mStore = new DirStore.Builder(mFolder.newFolder("ds").getPath())
+        .callbackExecutor(CallbackExecutors.direct())
+        .coalesceWrites(WINDOW_MILLIS, TimeUnit.MILLISECONDS)
+        .create();
+  }
+
+  @After
+  public void tearDown() {
+    mStore.close();
+  }
+
+  /* 统计写入文件的次数，可以模拟写入失败 */
+  private static final class CountingAdapter implements IDirStore.FileIOAdapter<String> {
+    final AtomicInteger writes = new AtomicInteger();
+    volatile boolean isFailing;
+
+    @Override public Class<String> typeToken() {
+      return String.class;
+    }
+
+    @Override public void write(String file, String value) throws IOException {
+      writes.incrementAndGet();
+      if (isFailing) {
+        throw new IOException("test");
+      }
+      DirStore.STRING_IO_ADAPTER.write(file, value);
+    }
+
+    @Override public String read(String file) throws IOException {
+      return DirStore.STRING_IO_ADAPTER.read(file);
+    }
+  }
+
+  private List<Future<Void>> writeBurst(String name, int count) {
+    final List<Future<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      futures.add(mStore.with(name, mAdapter).writeAsync("v" + i, null));
+    }
+    return futures;
+  }
+
+  @Test
+  public void writesLatestValueOnce() throws Exception {
+    final List<Future<Void>> futures = writeBurst("a", 50);
+    for (Future<Void> future : futures) {
+      assertNull(future.get(10, TimeUnit.SECONDS));
+    }
+
+    assertEquals(1, mAdapter.writes.get());
+    assertEquals("v49", mStore.with("a", mAdapter).read());
+  }
+
+  @Test
+  public void coalescesEachFileSeparately() throws Exception {
+    final List<Future<Void>> futures = writeBurst("a", 10);
+    futures.addAll(writeBurst("b", 10));
+    for (Future<Void> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+
+    assertEquals(2, mAdapter.writes.get());
+    assertEquals("v9", mStore.with("b", mAdapter).read());
+  }
+
+  @Test
+  public void writesAgainAfterWindow() throws Exception {
+    writeBurst("a", 5).get(4).get(10, TimeUnit.SECONDS);
+    writeBurst("a", 5).get(4).get(10, TimeUnit.SECONDS);
+    assertEquals(2, mAdapter.writes.get());
+  }
+
+  @Test
+  public void syncWriteCancelsPendingWrites() throws Exception {
+    final List<Future<Void>> futures = writeBurst("a", 5);
+    mStore.with("a", mAdapter).write("sync");
+
+    for (Future<Void> future : futures) {
+      assertTrue(future.isCancelled());
+    }
+
+    // 窗口结束后不会再写入旧值。
+    Thread.sleep(WINDOW_MILLIS * 2);
+    assertEquals(1, mAdapter.writes.get());
+    assertEquals("sync", mStore.with("a", mAdapter).read());
+  }
+
+  @Test
+  public void deleteCancelsPendingWrites() throws Exception {
+    mStore.with("a", mAdapter).write("old");
+    final List<Future<Void>> futures = writeBurst("a", 5);
+    mStore.deleteFile("a");
+
+    try {
+      futures.get(0).get(10, TimeUnit.SECONDS);
+      fail("pending write was not cancelled.");
+    } catch (CancellationException expected) {
+    }
+
+    Thread.sleep(WINDOW_MILLIS * 2);
+    assertFalse(mStore.contains("a"));
+    assertEquals(1, mAdapter.writes.get());
+  }
+
+  @Test
+  public void failsEveryCoalescedWrite() throws Exception {
+    mAdapter.isFailing = true;
+    final CountDownLatch errors = new CountDownLatch(3);
+    final List<Future<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      futures.add(mStore.with("a", mAdapter).writeAsync("v" + i, new IDirStore.WriteCallback() {
+        @Override public void onError(IOException e) {
+          errors.countDown();
+        }
+      }));
+    }
+
+    for (Future<Void> future : futures) {
+      try {
+        future.get(10, TimeUnit.SECONDS);
+        fail("write did not fail.");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IOException);
+      }
+    }
+
+    // 回调在 Future 完成后执行。
+    assertTrue(errors.await(10, TimeUnit.SECONDS));
+    assertEquals(1, mAdapter.writes.get());
+  }
+
+  @Test
+  public void closeFlushesPendingWrites() throws Exception {
+    final List<Future<Void>> futures = writeBurst("a", 5);
+    mStore.close();
+
+    for (Future<Void> future : futures) {
+      assertTrue(future.isDone());
+      assertNull(future.get());
+    }
+    assertEquals(1, mAdapter.writes.get());
+
+    try {
+      mStore.with("a", mAdapter).writeAsync("late", null);
+      fail("write accepted after close.");
+    } catch (RejectedExecutionException expected) {
+    }
+  }
+}
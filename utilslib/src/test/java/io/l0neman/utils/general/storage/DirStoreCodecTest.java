@@ -0,0 +1,156 @@
+package io.l0neman.utils.general.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirStoreCodecTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private File mDir;
+  private DirStore mStore;
+
+  @Before
+  public void setUp() throws IOException {
+    mDir = mFolder.newFolder("ds");
+  }
+
+  @After
+  public void tearDown() {
+    if (mStore != null) {
+      mStore.close();
+    }
+  }
+
+  private DirStore.Builder builder() {
+    return new DirStore.Builder(mDir.getPath()).callbackExecutor(CallbackExecutors.direct());
+  }
+
+  private void open(DirStore.Builder builder) {
+    if (mStore != null) {
+      mStore.close();
+    }
+    mStore = builder.create();
+  }
+
+  private static String repeat(String s, int count) {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      builder.append(s);
+    }
+    return builder.toString();
+  }
+
+  private static byte[] bytesOf(ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void compressesValuesAboveThreshold() throws IOException {
+    open(builder().compression(DirStore.DEFLATE_CODEC, 64));
+    final String large = repeat("compressible ", 1000);
+    mStore.with("large", DirStore.STRING_IO_ADAPTER).write(large);
+    mStore.with("small", DirStore.STRING_IO_ADAPTER).write("small");
+
+    assertTrue(new File(mDir, "large").length() < large.length() / 10);
+    // 小于阈值的值只带有文件头。
+    assertEquals(ValueFormat.HEADER_SIZE + 5, new File(mDir, "small").length());
+    assertEquals(large, mStore.with("large", DirStore.STRING_IO_ADAPTER).read());
+    assertEquals("small", mStore.with("small", DirStore.STRING_IO_ADAPTER).read());
+
+    // 文件头记录了编码方式，使用其他编码的 DirStore 仍可读取。
+    open(builder().compression(DirStore.GZIP_CODEC, 64));
+    assertEquals(large, mStore.with("large", DirStore.STRING_IO_ADAPTER).read());
+  }
+
+  @Test
+  public void readsFilesWithoutHeader() throws IOException {
+    final FileOutputStream out = new FileOutputStream(new File(mDir, "legacy"));
+    try {
+      out.write("legacy".getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+
+    open(builder().compression(DirStore.GZIP_CODEC, 0));
+    assertEquals("legacy", mStore.with("legacy", DirStore.STRING_IO_ADAPTER).read());
+  }
+
+  @Test
+  public void rejectsUnknownCodec() throws IOException {
+    final DirStore.Codec reversed = new DirStore.Codec() {
+      @Override public int id() {
+        return 200;
+      }
+
+      @Override public ByteBuffer encode(ByteBuffer data) {
+        final byte[] bytes = bytesOf(data);
+        for (int i = 0; i < bytes.length / 2; i++) {
+          final byte b = bytes[i];
+          bytes[i] = bytes[bytes.length - 1 - i];
+          bytes[bytes.length - 1 - i] = b;
+        }
+        return ByteBuffer.wrap(bytes);
+      }
+
+      @Override public ByteBuffer decode(ByteBuffer data) {
+        return encode(data);
+      }
+    };
+
+    open(builder().compression(reversed, 0));
+    mStore.with("a", DirStore.STRING_IO_ADAPTER).write("abc");
+    assertEquals("abc", mStore.with("a", DirStore.STRING_IO_ADAPTER).read());
+
+    open(builder().compression(DirStore.DEFLATE_CODEC, 0));
+    try {
+      mStore.with("a", DirStore.STRING_IO_ADAPTER).read();
+      fail("decoded a value with an unknown codec.");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void keepsAdapterBuffersWhenFormatEnabled() throws IOException {
+    open(builder().checksum().compression(DirStore.DEFLATE_CODEC, 1 << 20));
+    final byte[] content = repeat("buffer ", 100).getBytes("UTF-8");
+    mStore.with("a", DirStore.BYTE_BUFFER_IO_ADAPTER).write(ByteBuffer.wrap(content));
+
+    final ByteBuffer direct = mStore.with("a", DirStore.BYTE_BUFFER_IO_ADAPTER).read();
+    assertTrue(direct.isDirect());
+    assertArrayEquals(content, bytesOf(direct));
+
+    final ByteBuffer mapped = mStore.with("a", DirStore.MAPPED_IO_ADAPTER).read();
+    assertTrue(mapped instanceof MappedByteBuffer);
+    assertTrue(mapped.isReadOnly());
+    assertArrayEquals(content, bytesOf(mapped));
+  }
+
+  @Test
+  public void decodesCompressedBuffers() throws IOException {
+    open(builder().compression(DirStore.DEFLATE_CODEC, 0));
+    final byte[] content = repeat("buffer ", 100).getBytes("UTF-8");
+    mStore.with("a", DirStore.BYTE_BUFFER_IO_ADAPTER).write(ByteBuffer.wrap(content));
+
+    assertArrayEquals(content, bytesOf(mStore.with("a", DirStore.BYTE_BUFFER_IO_ADAPTER).read()));
+    assertArrayEquals(content, bytesOf(mStore.with("a", DirStore.MAPPED_IO_ADAPTER).read()));
+    assertArrayEquals(content, mStore.with("a", DirStore.BYTES_IO_ADAPTER).read());
+  }
+}
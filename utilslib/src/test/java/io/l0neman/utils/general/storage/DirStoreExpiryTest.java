@@ -0,0 +1,176 @@
+package io.l0neman.utils.general.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirStoreExpiryTest {
+
+  private static final long TTL_MILLIS = 100;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private File mDir;
+  private DirStore mStore;
+
+  @Before
+  public void setUp() throws IOException {
+    mDir = mFolder.newFolder("ds");
+  }
+
+  @After
+  public void tearDown() {
+    if (mStore != null) {
+      mStore.close();
+    }
+  }
+
+  private DirStore.Builder builder() {
+    return new DirStore.Builder(mDir.getPath())
+        .callbackExecutor(CallbackExecutors.direct());
+  }
+
+  /* 过期的文件在后台删除，等待删除完成 */
+  private static void awaitDeleted(File file) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (file.exists()) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("expired file was not deleted: " + file);
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void expiresAfterDefaultTtl() throws Exception {
+    mStore = builder().expireAfterWrite(TTL_MILLIS, TimeUnit.MILLISECONDS).create();
+    final IDirStore.FileStore<String> store = mStore.with("a", DirStore.STRING_IO_ADAPTER);
+    store.write("a");
+    assertEquals("a", store.read());
+
+    Thread.sleep(TTL_MILLIS * 2);
+    assertNull(store.read());
+    // 读取时发现过期，在写入通道中删除。
+    awaitDeleted(new File(mDir, "a"));
+    assertFalse(mStore.contains("a"));
+  }
+
+  @Test
+  public void expiresCachedValue() throws Exception {
+    mStore = builder().expireAfterWrite(TTL_MILLIS, TimeUnit.MILLISECONDS).cache(16).create();
+    final IDirStore.FileStore<String> store = mStore.with("a", DirStore.STRING_IO_ADAPTER);
+    store.write("a");
+    assertEquals("a", store.read());
+
+    Thread.sleep(TTL_MILLIS * 2);
+    assertNull(store.read());
+  }
+
+  @Test
+  public void expiresSingleWrite() throws Exception {
+    mStore = builder().compression(DirStore.DEFLATE_CODEC, 0).create();
+    mStore.with("a", DirStore.STRING_IO_ADAPTER).write("a", TTL_MILLIS, TimeUnit.MILLISECONDS);
+    mStore.with("b", DirStore.STRING_IO_ADAPTER).write("b");
+
+    Thread.sleep(TTL_MILLIS * 2);
+    assertNull(mStore.with("a", DirStore.STRING_IO_ADAPTER).read());
+    assertEquals("b", mStore.with("b", DirStore.STRING_IO_ADAPTER).read());
+  }
+
+  @Test
+  public void rewriteClearsExpiry() throws Exception {
+    mStore = builder().compression(DirStore.DEFLATE_CODEC, 0)
+        .expirySweep(TTL_MILLIS / 2, TimeUnit.MILLISECONDS)
+        .create();
+    final DirStore.FileStore<String> store = mStore.with("a", DirStore.STRING_IO_ADAPTER);
+    store.write("old", TTL_MILLIS, TimeUnit.MILLISECONDS);
+    store.write("new");
+
+    Thread.sleep(TTL_MILLIS * 3);
+    assertEquals("new", store.read());
+    assertTrue(new File(mDir, "a").exists());
+  }
+
+  @Test
+  public void ignoresAdaptersWithoutHeader() throws Exception {
+    final IDirStore.FileIOAdapter<String> plain = new IDirStore.FileIOAdapter<String>() {
+      @Override public Class<String> typeToken() {
+        return String.class;
+      }
+
+      @Override public void write(String file, String value) throws IOException {
+        DirStore.STRING_IO_ADAPTER.write(file, value);
+      }
+
+      @Override public String read(String file) throws IOException {
+        return DirStore.STRING_IO_ADAPTER.read(file);
+      }
+    };
+
+    mStore = builder().expireAfterWrite(TTL_MILLIS, TimeUnit.MILLISECONDS).create();
+    mStore.with("a", plain).write("a");
+    Thread.sleep(TTL_MILLIS * 2);
+    // 没有文件头的值不过期。
+    assertEquals("a", mStore.with("a", plain).read());
+
+    try {
+      mStore.with("a", plain).write("a", TTL_MILLIS, TimeUnit.MILLISECONDS);
+      fail("accepted a ttl for an adapter without header.");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void rejectsTtlWithoutHeader() throws IOException {
+    mStore = builder().create();
+    try {
+      mStore.with("a", DirStore.STRING_IO_ADAPTER).write("a", TTL_MILLIS, TimeUnit.MILLISECONDS);
+      fail("accepted a ttl without file header.");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void sweepsUnreadFiles() throws Exception {
+    mStore = builder().expireAfterWrite(TTL_MILLIS, TimeUnit.MILLISECONDS)
+        .expirySweep(TTL_MILLIS / 2, TimeUnit.MILLISECONDS)
+        .create();
+    for (int i = 0; i < 100; i++) {
+      mStore.with("f" + i, DirStore.STRING_IO_ADAPTER).write("v" + i);
+    }
+
+    for (int i = 0; i < 100; i++) {
+      awaitDeleted(new File(mDir, "f" + i));
+    }
+    assertTrue(mStore.keys().isEmpty());
+  }
+
+  @Test
+  public void sweepsFilesWrittenBeforeCreate() throws Exception {
+    mStore = builder().expireAfterWrite(TTL_MILLIS, TimeUnit.MILLISECONDS).create();
+    mStore.with("a", DirStore.STRING_IO_ADAPTER).write("a");
+    mStore.with("b", DirStore.STRING_IO_ADAPTER).write("b", 1, TimeUnit.DAYS);
+    mStore.close();
+
+    // 第一次清理时读取文件头中的过期时间。
+    mStore = builder().expireAfterWrite(TTL_MILLIS, TimeUnit.MILLISECONDS)
+        .expirySweep(TTL_MILLIS / 2, TimeUnit.MILLISECONDS)
+        .create();
+    awaitDeleted(new File(mDir, "a"));
+    Thread.sleep(TTL_MILLIS);
+    assertEquals("b", mStore.with("b", DirStore.STRING_IO_ADAPTER).read());
+  }
+}
@@ -0,0 +1,222 @@
+package io.l0neman.utils.general.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 非原子写入模式下每个文件的分段读写锁。
+ */
+public class DirStoreLockTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private DirStore mStore;
+
+  @Before
+  public void setUp() throws IOException {
+    mStore = new DirStore.Builder(mFolder.newFolder("ds").getPath())
+        .callbackExecutor(CallbackExecutors.direct())
+        .create();
+  }
+
+  @After
+  public void tearDown() {
+    mStore.close();
+  }
+
+  /* 读取或写入时在锁内等待 */
+  private static final class BlockingAdapter implements IDirStore.FileIOAdapter<String> {
+    final CountDownLatch readers;
+    final CountDownLatch writeGate;
+
+    BlockingAdapter(CountDownLatch readers, CountDownLatch writeGate) {
+      this.readers = readers;
+      this.writeGate = writeGate;
+    }
+
+    @Override public Class<String> typeToken() {
+      return String.class;
+    }
+
+    @Override public void write(String file, String value) throws IOException {
+      if (writeGate != null) {
+        try {
+          writeGate.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      DirStore.STRING_IO_ADAPTER.write(file, value);
+    }
+
+    @Override public String read(String file) throws IOException {
+      if (readers != null) {
+        readers.countDown();
+        try {
+          // 其他读取者持有同一把读锁时才能全部到达。
+          if (!readers.await(10, TimeUnit.SECONDS)) {
+            throw new IOException("readers blocked each other.");
+          }
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      return DirStore.STRING_IO_ADAPTER.read(file);
+    }
+  }
+
+  private static Thread start(Runnable runnable) {
+    final Thread thread = new Thread(runnable);
+    thread.start();
+    return thread;
+  }
+
+  @Test
+  public void readersDoNotBlockEachOther() throws Exception {
+    mStore.with("a", DirStore.STRING_IO_ADAPTER).write("value");
+
+    final int readers = 4;
+    final BlockingAdapter adapter = new BlockingAdapter(new CountDownLatch(readers), null);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final AtomicInteger read = new AtomicInteger();
+    final List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < readers; i++) {
+      threads.add(start(new Runnable() {
+        @Override public void run() {
+          try {
+            if ("value".equals(mStore.with("a", adapter).read())) {
+              read.incrementAndGet();
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      }));
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertNull(error.get());
+    assertEquals(readers, read.get());
+  }
+
+  @Test
+  public void writerDoesNotBlockOtherStripes() throws Exception {
+    final StripedReadWriteLock locks = new StripedReadWriteLock();
+    String other = "b";
+    for (int i = 0; locks.indexOf(other) == locks.indexOf("a"); i++) {
+      other = "b" + i;
+    }
+    assertNotEquals(locks.indexOf("a"), locks.indexOf(other));
+    mStore.with(other, DirStore.STRING_IO_ADAPTER).write("other");
+
+    final CountDownLatch gate = new CountDownLatch(1);
+    final BlockingAdapter adapter = new BlockingAdapter(null, gate);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final Thread writer = start(new Runnable() {
+      @Override public void run() {
+        try {
+          mStore.with("a", adapter).write("value");
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      }
+    });
+
+    try {
+      // 写入 a 时持有写锁，读取其他分段的文件不等待。
+      Thread.sleep(50);
+      assertEquals("other", mStore.with(other, DirStore.STRING_IO_ADAPTER).read());
+    } finally {
+      gate.countDown();
+      writer.join();
+    }
+
+    assertNull(error.get());
+    assertEquals("value", mStore.with("a", DirStore.STRING_IO_ADAPTER).read());
+  }
+
+  @Test
+  public void readsAreNotTorn() throws Exception {
+    final int size = 256 * 1024;
+    final AtomicBoolean stop = new AtomicBoolean();
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final AtomicInteger reads = new AtomicInteger();
+    final List<Thread> threads = new ArrayList<>();
+    // 读取不存在的文件会抛出异常，先写入一次。
+    mStore.with("a", DirStore.STRING_IO_ADAPTER).write(new String(new char[size]).replace('\0', 'a'));
+
+    for (int w = 0; w < 2; w++) {
+      final int writer = w;
+      threads.add(start(new Runnable() {
+        @Override public void run() {
+          try {
+            for (int i = 0; i < 100 && error.get() == null; i++) {
+              final char c = (char) ('a' + (writer * 13 + i) % 26);
+              mStore.with("a", DirStore.STRING_IO_ADAPTER)
+                  .write(new String(new char[size]).replace('\0', c));
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      }));
+    }
+
+    final List<Thread> readers = new ArrayList<>();
+    for (int r = 0; r < 4; r++) {
+      readers.add(start(new Runnable() {
+        @Override public void run() {
+          try {
+            while (!stop.get()) {
+              final String value = mStore.with("a", DirStore.STRING_IO_ADAPTER).read();
+              reads.incrementAndGet();
+              // 每次写入的内容只有一个字符，读到不同的字符说明读取了写入一半的文件。
+              if (value.length() != size) {
+                throw new AssertionError("torn read, length: " + value.length());
+              }
+              for (int i = 1; i < size; i++) {
+                if (value.charAt(i) != value.charAt(0)) {
+                  throw new AssertionError("torn read at " + i);
+                }
+              }
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      }));
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    stop.set(true);
+    for (Thread thread : readers) {
+      thread.join();
+    }
+
+    assertNull(error.get());
+    assertTrue(reads.get() > 0);
+  }
+}
@@ -0,0 +1,240 @@
+package io.l0neman.utils.general.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirStoreTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private File mDir;
+  private DirStore mStore;
+
+  @Before
+  public void setUp() throws IOException {
+    mDir = mFolder.newFolder("ds");
+  }
+
+  @After
+  public void tearDown() {
+    if (mStore != null) {
+      mStore.close();
+    }
+  }
+
+  private DirStore.Builder builder() {
+    return new DirStore.Builder(mDir.getPath()).callbackExecutor(CallbackExecutors.direct());
+  }
+
+  private void reopen(DirStore.Builder builder) {
+    if (mStore != null) {
+      mStore.close();
+    }
+    mStore = builder.create();
+  }
+
+  private String read(String name) throws IOException {
+    return mStore.with(name, DirStore.STRING_IO_ADAPTER).read();
+  }
+
+  private void write(String name, String value) throws IOException {
+    mStore.with(name, DirStore.STRING_IO_ADAPTER).write(value);
+  }
+
+  private static void writeFile(File file, String content) throws IOException {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  @Test
+  public void commitsBatch() throws IOException {
+    reopen(builder());
+    write("a", "old");
+    write("c", "removed");
+
+    mStore.batch()
+        .write("a", DirStore.STRING_IO_ADAPTER, "new")
+        .write("b", DirStore.STRING_IO_ADAPTER, "added")
+        .delete("c")
+        .commit();
+
+    assertEquals("new", read("a"));
+    assertEquals("added", read("b"));
+    assertFalse(mStore.contains("c"));
+    assertFalse(new File(mDir, ".ds-journal").exists());
+  }
+
+  @Test
+  public void replaysCommittedJournalOnStartup() throws IOException {
+    reopen(builder());
+    write("a", "old");
+    write("c", "removed");
+    mStore.close();
+    mStore = null;
+
+    // 模拟日志写入后、重命名前崩溃。
+    writeFile(new File(mDir, "a.ds-batch"), "new");
+    writeFile(new File(mDir, "b.ds-batch"), "added");
+    BatchJournal.write(new File(mDir, ".ds-journal"), Arrays.asList(
+        new BatchJournal.Op(BatchJournal.OP_WRITE, "a"),
+        new BatchJournal.Op(BatchJournal.OP_WRITE, "b"),
+        new BatchJournal.Op(BatchJournal.OP_DELETE, "c")));
+
+    reopen(builder());
+    assertEquals("new", read("a"));
+    assertEquals("added", read("b"));
+    assertFalse(mStore.contains("c"));
+    assertFalse(new File(mDir, ".ds-journal").exists());
+    assertFalse(new File(mDir, "a.ds-batch").exists());
+  }
+
+  @Test
+  public void discardsTornJournalOnStartup() throws IOException {
+    reopen(builder());
+    write("a", "old");
+    mStore.close();
+    mStore = null;
+
+    // 日志未写完整，提交没有生效。
+    writeFile(new File(mDir, "a.ds-batch"), "new");
+    writeFile(new File(mDir, ".ds-journal"), "torn");
+
+    reopen(builder());
+    assertEquals("old", read("a"));
+    assertFalse(new File(mDir, ".ds-journal").exists());
+    assertFalse(new File(mDir, "a.ds-batch").exists());
+  }
+
+  @Test
+  public void deletesOrphanBatchFileWithoutJournal() throws IOException {
+    reopen(builder());
+    write("a", "old");
+    mStore.close();
+    mStore = null;
+
+    // 写入日志之前崩溃，只留下临时文件。
+    writeFile(new File(mDir, "a.ds-batch"), "new");
+    writeFile(new File(mDir, "b.ds-batch"), "new");
+
+    reopen(builder());
+    assertEquals("old", read("a"));
+    assertFalse(mStore.contains("b"));
+    assertFalse(new File(mDir, "a.ds-batch").exists());
+    assertFalse(new File(mDir, "b.ds-batch").exists());
+  }
+
+  @Test
+  public void recoversBatchAfterFailedApply() throws IOException {
+    reopen(builder());
+    write("a", "old");
+
+    // 目标位置是非空目录，重命名失败。
+    final File blocker = new File(mDir, "b");
+    assertTrue(blocker.mkdir());
+    writeFile(new File(blocker, "x"), "x");
+
+    try {
+      mStore.batch()
+          .write("a", DirStore.STRING_IO_ADAPTER, "new")
+          .write("b", DirStore.STRING_IO_ADAPTER, "added")
+          .commit();
+      fail("batch applied over a directory.");
+    } catch (IOException expected) {
+    }
+
+    // 不会读取到执行了一半的批量操作。
+    try {
+      read("a");
+      fail("store still usable after a failed batch.");
+    } catch (IOException expected) {
+    }
+
+    mStore.close();
+    mStore = null;
+    assertTrue(new File(blocker, "x").delete());
+    assertTrue(blocker.delete());
+
+    reopen(builder());
+    assertEquals("new", read("a"));
+    assertEquals("added", read("b"));
+    assertFalse(new File(mDir, ".ds-journal").exists());
+  }
+
+  @Test
+  public void quarantinesCorruptFileOnStartup() throws IOException {
+    reopen(builder().checksum());
+    write("a", "hello");
+    write("b", "world");
+    mStore.close();
+    mStore = null;
+
+    final File file = new File(mDir, "a");
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(raf.length() - 1);
+      final int last = raf.read();
+      raf.seek(raf.length() - 1);
+      raf.write(last ^ 0xFF);
+    } finally {
+      raf.close();
+    }
+
+    reopen(builder().checksum().verifyOnStartup());
+    assertFalse(file.exists());
+    assertFalse(mStore.contains("a"));
+    assertNull(read("a"));
+    assertEquals("world", read("b"));
+    assertEquals(1, mStore.quarantinedFiles().size());
+    assertTrue(mStore.quarantinedFiles().get(0).endsWith(File.separator + "a"));
+  }
+
+  @Test
+  public void deletesLeftoverTempFileOnStartup() throws IOException {
+    reopen(builder().checksum());
+    write("a", "hello");
+    mStore.close();
+    mStore = null;
+
+    // 原子写入未完成时崩溃，只留下临时文件，目标文件不受影响。
+    writeFile(new File(mDir, "a.ds-tmp"), "");
+
+    reopen(builder().checksum().verifyOnStartup());
+    assertEquals("hello", read("a"));
+    assertFalse(new File(mDir, "a.ds-tmp").exists());
+    assertTrue(mStore.quarantinedFiles().isEmpty());
+  }
+
+  @Test
+  public void cachesHandlesPerFileAndAdapter() {
+    reopen(builder());
+    final IDirStore.FileStore<String> string = mStore.with("a", DirStore.STRING_IO_ADAPTER);
+    final IDirStore.FileStore<byte[]> bytes = mStore.with("a", DirStore.BYTES_IO_ADAPTER);
+
+    // 同一文件交替使用不同的适配器时各自复用实例。
+    assertSame(string, mStore.with("a", DirStore.STRING_IO_ADAPTER));
+    assertSame(bytes, mStore.with("a", DirStore.BYTES_IO_ADAPTER));
+    assertNotSame(string, mStore.with("b", DirStore.STRING_IO_ADAPTER));
+  }
+}
@@ -0,0 +1,246 @@
+package io.l0neman.utils.general.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogDirStoreTest {
+
+  /* 较小的段文件，少量写入即可切换段文件并触发合并 */
+  private static final long SEGMENT_SIZE = 4096;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private File mDir;
+  private LogDirStore mStore;
+
+  @Before
+  public void setUp() throws IOException {
+    mDir = mFolder.newFolder("lds");
+  }
+
+  @After
+  public void tearDown() {
+    if (mStore != null) {
+      mStore.close();
+    }
+  }
+
+  private void reopen() {
+    if (mStore != null) {
+      mStore.close();
+    }
+    mStore = new LogDirStore(mDir.getPath(), SEGMENT_SIZE);
+  }
+
+  private String read(String name) throws IOException {
+    return mStore.with(name, DirStore.STRING_IO_ADAPTER).read();
+  }
+
+  private void write(String name, String value) throws IOException {
+    mStore.with(name, DirStore.STRING_IO_ADAPTER).write(value);
+  }
+
+  private File[] segments() {
+    final File[] files = mDir.listFiles(new FilenameFilter() {
+      @Override public boolean accept(File dir, String name) {
+        return name.endsWith(".log");
+      }
+    });
+    Arrays.sort(files);
+    return files;
+  }
+
+  /* 随机覆盖和删除，更新期望的最终内容；deleteFile 是异步的，使用批量操作同步删除 */
+  private void writeRandomly(Map<String, String> expected, long seed, int count, int keys)
+      throws IOException {
+    final Random random = new Random(seed);
+    for (int i = 0; i < count; i++) {
+      final String name = "k" + random.nextInt(keys);
+      if (random.nextInt(10) == 0) {
+        mStore.batch().delete(name).commit();
+        expected.remove(name);
+      } else {
+        final String value = seed + "-" + i;
+        write(name, value);
+        expected.put(name, value);
+      }
+    }
+  }
+
+  private void assertContent(Map<String, String> expected, int keys) throws IOException {
+    assertEquals(expected.keySet(), mStore.keys());
+    for (int i = 0; i < keys; i++) {
+      final String name = "k" + i;
+      assertEquals(name, expected.get(name), read(name));
+    }
+  }
+
+  @Test
+  public void recoversAfterReopen() throws IOException {
+    reopen();
+    write("a", "1");
+    write("b", "2");
+    write("a", "3");
+    mStore.deleteFile("b");
+    write("c", "4");
+
+    reopen();
+    assertEquals("3", read("a"));
+    assertNull(read("b"));
+    assertEquals("4", read("c"));
+    assertFalse(mStore.contains("b"));
+    assertEquals(1L, mStore.size("a"));
+  }
+
+  @Test
+  public void truncatesGarbageTail() throws IOException {
+    reopen();
+    write("a", "1");
+    write("b", "2");
+    mStore.close();
+    mStore = null;
+
+    final File last = segments()[segments().length - 1];
+    final long length = last.length();
+    final RandomAccessFile raf = new RandomAccessFile(last, "rw");
+    try {
+      // 记录长度超过文件剩余长度，模拟写入一半时崩溃。
+      raf.seek(length);
+      raf.writeInt(0x7FFFFFF0);
+      raf.writeInt(0x7FFFFFF0);
+      raf.writeLong(1);
+      raf.write(new byte[20]);
+    } finally {
+      raf.close();
+    }
+
+    reopen();
+    assertEquals(length, last.length());
+    assertEquals("1", read("a"));
+    assertEquals("2", read("b"));
+
+    // 截断后可以继续追加。
+    write("c", "3");
+    reopen();
+    assertEquals("3", read("c"));
+  }
+
+  @Test
+  public void compactsSealedSegments() throws IOException {
+    reopen();
+    final Map<String, String> expected = new HashMap<>();
+    writeRandomly(expected, 1, 20000, 50);
+    // 关闭时等待正在进行的合并完成。
+    mStore.close();
+    mStore = null;
+
+    // 没有合并时约有数百个段文件。
+    assertTrue(segments().length < 20);
+
+    reopen();
+    assertContent(expected, 50);
+  }
+
+  @Test
+  public void keepsWritesMadeDuringCompaction() throws IOException {
+    reopen();
+    final Map<String, String> expected = new HashMap<>();
+    // 合并在后台进行，同时继续覆盖和删除同一批文件名。
+    for (int seed = 1; seed <= 4; seed++) {
+      writeRandomly(expected, seed, 5000, 50);
+      assertContent(expected, 50);
+    }
+
+    reopen();
+    assertContent(expected, 50);
+  }
+
+  @Test
+  public void keepsTombstoneWhenCompactionCrashes() throws IOException, InterruptedException {
+    final AtomicBoolean crash = new AtomicBoolean();
+    final AtomicInteger deleted = new AtomicInteger();
+    // 开始模拟崩溃后，删除第一个段文件，在删除第二个段文件时失败。
+    mStore = new LogDirStore(mDir.getPath(), 1024) {
+      @Override void deleteSegmentFile(File file) throws IOException {
+        if (crash.get() && deleted.getAndIncrement() > 0) {
+          throw new IOException("crash");
+        }
+        super.deleteSegmentFile(file);
+      }
+    };
+
+    final String filler = new String(new char[950]).replace('\0', 'f');
+    write("k", "v1");
+    write("f", filler);
+    write("f", filler);
+    // 第三次写入后合并前两个段文件，k 复制到编号最大的新段文件。
+    write("f", filler);
+    final File first = segments()[0];
+    for (int i = 0; first.exists() && i < 500; i++) {
+      Thread.sleep(10);
+    }
+    assertFalse(first.exists());
+
+    // 删除记录写入编号较小的当前段文件。
+    mStore.batch().delete("k").commit();
+
+    // 切换段文件后合并上面两个段文件，删除第一个段文件后崩溃。
+    crash.set(true);
+    write("f", filler);
+    mStore.close();
+    mStore = null;
+    assertEquals(2, deleted.get());
+
+    reopen();
+    assertNull(read("k"));
+    assertFalse(mStore.contains("k"));
+    assertEquals(filler, read("f"));
+  }
+
+  @Test
+  public void forcesSegmentOnBatchCommit() throws IOException {
+    final AtomicInteger forced = new AtomicInteger();
+    final AtomicLong forcedSize = new AtomicLong();
+    mStore = new LogDirStore(mDir.getPath(), SEGMENT_SIZE) {
+      @Override void forceSegment(FileChannel channel) throws IOException {
+        forced.incrementAndGet();
+        forcedSize.set(channel.size());
+        super.forceSegment(channel);
+      }
+    };
+
+    write("a", "1");
+    assertEquals(0, forced.get());
+
+    mStore.batch()
+        .write("a", DirStore.STRING_IO_ADAPTER, "2")
+        .delete("b")
+        .commit();
+    assertEquals(1, forced.get());
+    // 批量记录写入后才强制写入磁盘。
+    assertEquals(segments()[0].length(), forcedSize.get());
+    assertEquals("2", read("a"));
+  }
+}
@@ -0,0 +1,199 @@
+package io.l0neman.utils.general.storage;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecordIOAdapterTest {
+
+  enum Color { RED, GREEN }
+
+  static class Point {
+    int x;
+    int y;
+  }
+
+  static class ColoredPoint extends Point {
+    Color color;
+  }
+
+  static class Shape {
+    boolean visible;
+    byte b;
+    short s;
+    char c;
+    long id;
+    float f;
+    double d;
+    Integer boxed;
+    Long missing;
+    String name;
+    byte[] data;
+    Color color;
+    Point origin;
+    List<Point> points;
+    List<String> tags;
+    transient int ignored = 7;
+    Shape parent;
+
+    private Shape() {}
+  }
+
+  /* 与 Shape 同名字段的旧版本 */
+  static class ShapeV1 {
+    String name;
+    int removed;
+    Point origin;
+  }
+
+  static class ShapeV2 {
+    String name;
+    long removed;
+    Point origin;
+    String added = "default";
+  }
+
+  private static <T> T roundTrip(Class<T> type, T value) throws IOException {
+    final RecordIOAdapter<T> adapter = RecordIOAdapter.of(type);
+    return adapter.decode(adapter.encode(value));
+  }
+
+  private static Point point(int x, int y) {
+    final Point point = new Point();
+    point.x = x;
+    point.y = y;
+    return point;
+  }
+
+  @Test
+  public void roundTripsAllFieldTypes() throws IOException {
+    final Shape shape = new Shape();
+    shape.visible = true;
+    shape.b = -3;
+    shape.s = 300;
+    shape.c = '中';
+    shape.id = Long.MIN_VALUE;
+    shape.f = 1.5F;
+    shape.d = -2.25;
+    shape.boxed = -42;
+    shape.name = "shape";
+    shape.data = new byte[]{1, 2, 3};
+    shape.color = Color.GREEN;
+    shape.origin = point(1, -1);
+    shape.points = Arrays.asList(point(2, 3), null, point(4, 5));
+    shape.tags = new ArrayList<>(Arrays.asList("a", "b"));
+    shape.ignored = 100;
+    shape.parent = new Shape();
+    shape.parent.name = "parent";
+
+    final Shape copy = roundTrip(Shape.class, shape);
+    assertTrue(copy.visible);
+    assertEquals(-3, copy.b);
+    assertEquals(300, copy.s);
+    assertEquals('中', copy.c);
+    assertEquals(Long.MIN_VALUE, copy.id);
+    assertEquals(1.5F, copy.f, 0);
+    assertEquals(-2.25, copy.d, 0);
+    assertEquals(Integer.valueOf(-42), copy.boxed);
+    assertNull(copy.missing);
+    assertEquals("shape", copy.name);
+    assertArrayEquals(new byte[]{1, 2, 3}, copy.data);
+    assertSame(Color.GREEN, copy.color);
+    assertEquals(1, copy.origin.x);
+    assertEquals(-1, copy.origin.y);
+    assertEquals(3, copy.points.size());
+    assertEquals(3, copy.points.get(0).y);
+    assertNull(copy.points.get(1));
+    assertEquals(4, copy.points.get(2).x);
+    assertEquals(Arrays.asList("a", "b"), copy.tags);
+    assertEquals(7, copy.ignored);
+    assertEquals("parent", copy.parent.name);
+    assertNull(copy.parent.parent);
+  }
+
+  @Test
+  public void readsDataOfOtherVersions() throws IOException {
+    final ShapeV1 v1 = new ShapeV1();
+    v1.name = "v1";
+    v1.removed = 5;
+    v1.origin = point(7, 8);
+
+    final ByteBuffer encoded = RecordIOAdapter.of(ShapeV1.class).encode(v1);
+    final ShapeV2 v2 = RecordIOAdapter.of(ShapeV2.class).decode(encoded);
+    assertEquals("v1", v2.name);
+    // 类型不匹配的字段被忽略，缺少的字段保持默认值。
+    assertEquals(0, v2.removed);
+    assertEquals("default", v2.added);
+    assertEquals(7, v2.origin.x);
+  }
+
+  @Test
+  public void rejectsSubclassOfNestedRecord() {
+    final Shape shape = new Shape();
+    final ColoredPoint colored = new ColoredPoint();
+    colored.x = 1;
+    colored.color = Color.RED;
+    shape.origin = colored;
+
+    try {
+      RecordIOAdapter.of(Shape.class).encode(shape);
+      fail("encoded a subclass and lost its fields.");
+    } catch (IOException expected) {
+    }
+
+    shape.origin = null;
+    shape.points = new ArrayList<Point>();
+    shape.points.add(colored);
+    try {
+      RecordIOAdapter.of(Shape.class).encode(shape);
+      fail("encoded a subclass element and lost its fields.");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void rejectsSubclassOfRecord() {
+    try {
+      RecordIOAdapter.of(Point.class).encode(new ColoredPoint());
+      fail("encoded a subclass and lost its fields.");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void storesSubclassWithItsOwnAdapter() throws IOException {
+    final ColoredPoint colored = new ColoredPoint();
+    colored.x = 3;
+    colored.color = Color.RED;
+
+    final ColoredPoint copy = roundTrip(ColoredPoint.class, colored);
+    assertEquals(3, copy.x);
+    assertSame(Color.RED, copy.color);
+  }
+
+  @Test
+  public void rejectsUnsupportedTypes() {
+    try {
+      RecordIOAdapter.of(Runnable.class);
+      fail("created an adapter for an interface.");
+    } catch (IllegalArgumentException expected) {
+    }
+
+    try {
+      RecordIOAdapter.of(String.class);
+      fail("created an adapter for a java type.");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
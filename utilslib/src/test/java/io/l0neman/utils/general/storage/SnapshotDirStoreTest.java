@@ -0,0 +1,129 @@
+package io.l0neman.utils.general.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotDirStoreTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private DirStore mStore;
+  private SnapshotDirStore mSnapshot;
+  private File mSnapshotFile;
+
+  @Before
+  public void setUp() throws IOException {
+    mStore = new DirStore.Builder(mFolder.newFolder("ds").getPath())
+        .callbackExecutor(CallbackExecutors.direct())
+        .compression(DirStore.DEFLATE_CODEC, 0)
+        .checksum()
+        .create();
+    mSnapshotFile = new File(mFolder.getRoot(), "snapshot");
+  }
+
+  @After
+  public void tearDown() {
+    mStore.close();
+    if (mSnapshot != null) {
+      mSnapshot.close();
+    }
+  }
+
+  @Test
+  public void readsPackedValues() throws IOException {
+    mStore.with("a", DirStore.STRING_IO_ADAPTER).write("hello");
+    mStore.with("b", DirStore.BYTES_IO_ADAPTER).write(new byte[]{1, 2, 3});
+    mStore.with("empty", DirStore.STRING_IO_ADAPTER).write("");
+    mStore.writeSnapshot(mSnapshotFile.getPath());
+
+    mSnapshot = new SnapshotDirStore(mSnapshotFile.getPath());
+    assertEquals(new HashSet<>(Arrays.asList("a", "b", "empty")), mSnapshot.keys());
+    // 快照中的值已解压，不包含文件头。
+    assertEquals("hello", mSnapshot.with("a", DirStore.STRING_IO_ADAPTER).read());
+    assertEquals(5, mSnapshot.size("a"));
+    assertArrayEquals(new byte[]{1, 2, 3}, mSnapshot.with("b", DirStore.BYTES_IO_ADAPTER).read());
+    assertEquals("", mSnapshot.with("empty", DirStore.STRING_IO_ADAPTER).read());
+
+    final ByteBuffer buffer = mSnapshot.with("b", DirStore.BYTE_BUFFER_IO_ADAPTER).read();
+    assertEquals(3, buffer.remaining());
+
+    assertFalse(mSnapshot.contains("missing"));
+    assertEquals(-1, mSnapshot.size("missing"));
+    assertNull(mSnapshot.with("missing", DirStore.STRING_IO_ADAPTER).read());
+  }
+
+  @Test
+  public void isReadOnly() throws IOException {
+    mStore.writeSnapshot(mSnapshotFile.getPath());
+    mSnapshot = new SnapshotDirStore(mSnapshotFile.getPath());
+    assertTrue(mSnapshot.keys().isEmpty());
+
+    try {
+      mSnapshot.with("a", DirStore.STRING_IO_ADAPTER).write("a");
+      fail("wrote to a snapshot.");
+    } catch (UnsupportedOperationException expected) {
+    }
+
+    try {
+      mSnapshot.batch();
+      fail("batch on a snapshot.");
+    } catch (UnsupportedOperationException expected) {
+    }
+  }
+
+  @Test
+  public void rejectsCorruptIndex() throws IOException {
+    mStore.with("a", DirStore.STRING_IO_ADAPTER).write("hello");
+    mStore.writeSnapshot(mSnapshotFile.getPath());
+
+    final RandomAccessFile file = new RandomAccessFile(mSnapshotFile, "rw");
+    try {
+      // 修改索引中的文件名。
+      file.seek(file.length() - 4 - 12 - 1);
+      file.write('b');
+    } finally {
+      file.close();
+    }
+
+    try {
+      new SnapshotDirStore(mSnapshotFile.getPath());
+      fail("opened a corrupt snapshot.");
+    } catch (CorruptFileException expected) {
+    }
+  }
+
+  @Test
+  public void rejectsNamesLongerThanIndexField() throws IOException {
+    final SnapshotDirStore.Writer writer = new SnapshotDirStore.Writer(mSnapshotFile.getPath());
+    writer.add("a", ByteBuffer.wrap(new byte[]{1}));
+    final String name = new String(new char[0x10000]).replace('\0', 'n');
+    try {
+      writer.add(name, ByteBuffer.wrap(new byte[]{2}));
+      fail("accepted a name longer than 65535 bytes.");
+    } catch (IOException expected) {
+    } finally {
+      writer.abort();
+    }
+
+    assertFalse(mSnapshotFile.exists());
+    assertFalse(new File(mSnapshotFile.getPath() + ".tmp").exists());
+  }
+}
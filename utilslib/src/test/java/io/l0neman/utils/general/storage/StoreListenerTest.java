@@ -0,0 +1,319 @@
+package io.l0neman.utils.general.storage;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StoreListenerTest {
+
+  private static final long DELAY_MILLIS = 100;
+  private static final long DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(DELAY_MILLIS);
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private File mDir;
+  private DirStore mStore;
+  private final Recorder mRecorder = new Recorder();
+
+  @After
+  public void tearDown() {
+    if (mStore != null) {
+      mStore.close();
+    }
+  }
+
+  /* 一次回调 */
+  private static final class Event {
+    final int op;
+    final String name;
+    final long queueWaitNanos;
+    final long lockWaitNanos;
+    final long adapterNanos;
+    final long ioNanos;
+    final long bytes;
+    final IOException error;
+
+    Event(int op, String name, long queueWaitNanos, long lockWaitNanos, long adapterNanos,
+          long ioNanos, long bytes, IOException error) {
+      this.op = op;
+      this.name = name;
+      this.queueWaitNanos = queueWaitNanos;
+      this.lockWaitNanos = lockWaitNanos;
+      this.adapterNanos = adapterNanos;
+      this.ioNanos = ioNanos;
+      this.bytes = bytes;
+      this.error = error;
+    }
+  }
+
+  /* 记录所有回调 */
+  private static final class Recorder extends StoreListener {
+    private final List<Event> mEvents = new ArrayList<>();
+
+    @Override public synchronized void onOperation(int op, String name, long queueWaitNanos,
+                                                   long lockWaitNanos, long adapterNanos,
+                                                   long ioNanos, long bytes) {
+      mEvents.add(new Event(op, name, queueWaitNanos, lockWaitNanos, adapterNanos, ioNanos, bytes,
+          null));
+      notifyAll();
+    }
+
+    @Override public synchronized void onError(int op, String name, IOException e) {
+      mEvents.add(new Event(op, name, 0, 0, 0, 0, 0, e));
+    }
+
+    synchronized List<Event> events() {
+      return new ArrayList<>(mEvents);
+    }
+
+    synchronized Event last() {
+      return mEvents.get(mEvents.size() - 1);
+    }
+
+    /* 等待异步操作的回调 */
+    synchronized Event await(int op) throws InterruptedException {
+      final long deadline = System.currentTimeMillis() + 10000;
+      while (true) {
+        for (Event event : mEvents) {
+          if (event.op == op) {
+            return event;
+          }
+        }
+
+        final long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          throw new AssertionError("no callback of op " + op);
+        }
+        wait(remaining);
+      }
+    }
+  }
+
+  /* 读写前等待，模拟耗时的适配器；写入前可以阻塞 */
+  private static final class SlowAdapter implements IDirStore.FileIOAdapter<String> {
+    volatile CountDownLatch entered;
+    volatile CountDownLatch gate;
+    volatile boolean isFailing;
+
+    @Override public Class<String> typeToken() {
+      return String.class;
+    }
+
+    @Override public void write(String file, String value) throws IOException {
+      if (entered != null) {
+        entered.countDown();
+      }
+      await(gate);
+      sleep();
+      if (isFailing) {
+        throw new IOException("test");
+      }
+      DirStore.STRING_IO_ADAPTER.write(file, value);
+    }
+
+    @Override public String read(String file) throws IOException {
+      sleep();
+      if (isFailing) {
+        throw new IOException("test");
+      }
+      return DirStore.STRING_IO_ADAPTER.read(file);
+    }
+
+    private static void sleep() throws IOException {
+      try {
+        Thread.sleep(DELAY_MILLIS);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+      if (latch == null) {
+        return;
+      }
+
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  private DirStore.Builder builder() throws IOException {
+    mDir = mFolder.newFolder("ds");
+    return new DirStore.Builder(mDir.getPath())
+        .callbackExecutor(CallbackExecutors.direct())
+        .listener(mRecorder);
+  }
+
+  @Test
+  public void reportsAdapterTimeAndBytes() throws IOException {
+    mStore = builder().create();
+    final SlowAdapter adapter = new SlowAdapter();
+    mStore.with("a", adapter).write("hello");
+    final long length = new File(mDir, "a").length();
+
+    Event event = mRecorder.last();
+    assertEquals(StoreListener.OP_WRITE, event.op);
+    assertEquals("a", event.name);
+    assertEquals(0, event.queueWaitNanos);
+    assertTrue(event.adapterNanos >= DELAY_NANOS);
+    assertEquals(length, event.bytes);
+
+    assertEquals("hello", mStore.with("a", adapter).read());
+    event = mRecorder.last();
+    assertEquals(StoreListener.OP_READ, event.op);
+    assertTrue(event.adapterNanos >= DELAY_NANOS);
+    assertEquals(length, event.bytes);
+  }
+
+  @Test
+  public void reportsEncodedBytesAndIoTime() throws IOException {
+    mStore = builder().compression(DirStore.DEFLATE_CODEC, 0).create();
+    final byte[] value = new byte[4096];
+    mStore.with("a", DirStore.BYTES_IO_ADAPTER).write(value);
+
+    final Event event = mRecorder.last();
+    // 统计的是编码后写入文件的字节数。
+    assertEquals(new File(mDir, "a").length(), event.bytes);
+    assertTrue(event.bytes < value.length);
+    assertTrue(event.ioNanos > 0);
+  }
+
+  @Test
+  public void reportsLockWait() throws Exception {
+    mStore = builder().create();
+    final SlowAdapter adapter = new SlowAdapter();
+    adapter.entered = new CountDownLatch(1);
+    adapter.gate = new CountDownLatch(1);
+    final Thread writer = new Thread() {
+      @Override public void run() {
+        try {
+          mStore.with("a", adapter).write("first");
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    writer.start();
+    assertTrue(adapter.entered.await(10, TimeUnit.SECONDS));
+
+    // 第一次写入持有文件锁，第二次写入需要等待。
+    final Thread releaser = new Thread() {
+      @Override public void run() {
+        try {
+          Thread.sleep(DELAY_MILLIS);
+        } catch (InterruptedException ignored) {
+        }
+        adapter.gate.countDown();
+      }
+    };
+    releaser.start();
+    mStore.with("a", DirStore.STRING_IO_ADAPTER).write("second");
+    writer.join();
+    releaser.join();
+
+    Event second = null;
+    for (Event event : mRecorder.events()) {
+      if (event.op == StoreListener.OP_WRITE && event.adapterNanos < DELAY_NANOS) {
+        second = event;
+      }
+    }
+    assertTrue(second != null);
+    assertTrue(second.lockWaitNanos >= DELAY_NANOS / 2);
+  }
+
+  @Test
+  public void reportsQueueWaitOfCoalescedWrites() throws Exception {
+    mStore = builder().coalesceWrites(DELAY_MILLIS, TimeUnit.MILLISECONDS).create();
+    mStore.with("a", DirStore.STRING_IO_ADAPTER).writeAsync("a", null).get(10, TimeUnit.SECONDS);
+
+    final Event event = mRecorder.last();
+    assertEquals(StoreListener.OP_WRITE, event.op);
+    // 排队时间包括合并窗口。
+    assertTrue(event.queueWaitNanos >= DELAY_NANOS);
+  }
+
+  @Test
+  public void reportsDeleteAndBatch() throws Exception {
+    mStore = builder().create();
+    mStore.with("a", DirStore.STRING_IO_ADAPTER).write("a");
+    // 删除在写入队列中异步执行。
+    mStore.deleteFile("a");
+
+    Event event = mRecorder.await(StoreListener.OP_DELETE);
+    assertEquals(StoreListener.OP_DELETE, event.op);
+    assertEquals("a", event.name);
+    assertEquals(0, event.bytes);
+
+    mStore.batch()
+        .write("b", DirStore.STRING_IO_ADAPTER, "b")
+        .write("c", DirStore.STRING_IO_ADAPTER, "c")
+        .commit();
+    event = mRecorder.last();
+    assertEquals(StoreListener.OP_BATCH, event.op);
+    assertNull(event.name);
+  }
+
+  @Test
+  public void skipsCacheHits() throws IOException {
+    mStore = builder().cache(16).create();
+    mStore.with("a", DirStore.STRING_IO_ADAPTER).write("a");
+    final int count = mRecorder.events().size();
+
+    assertEquals("a", mStore.with("a", DirStore.STRING_IO_ADAPTER).read());
+    assertEquals(count, mRecorder.events().size());
+  }
+
+  @Test
+  public void reportsErrors() throws IOException {
+    mStore = builder().create();
+    final SlowAdapter adapter = new SlowAdapter();
+    mStore.with("a", adapter).write("a");
+    adapter.isFailing = true;
+
+    try {
+      mStore.with("a", adapter).write("b");
+      fail("write did not fail.");
+    } catch (IOException expected) {
+      final Event event = mRecorder.last();
+      assertEquals(StoreListener.OP_WRITE, event.op);
+      assertEquals("a", event.name);
+      assertSame(expected, event.error);
+    }
+
+    final int count = mRecorder.events().size();
+    try {
+      mStore.with("a", adapter).read();
+      fail("read did not fail.");
+    } catch (IOException expected) {
+      // 失败的操作只回调 onError。
+      assertEquals(count + 1, mRecorder.events().size());
+      assertEquals(StoreListener.OP_READ, mRecorder.last().op);
+      assertSame(expected, mRecorder.last().error);
+    }
+  }
+
+  @Test
+  public void reusesTracePerThread() {
+    // 默认监听器下每次操作不分配统计对象。
+    assertSame(OpTrace.begin(0), OpTrace.begin(1));
+    assertEquals(1, OpTrace.begin(1).queueWaitNanos);
+  }
+}
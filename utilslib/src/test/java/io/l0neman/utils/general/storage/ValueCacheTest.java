@@ -0,0 +1,171 @@
+package io.l0neman.utils.general.storage;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ValueCacheTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private DirStore mStore;
+
+  @After
+  public void tearDown() {
+    if (mStore != null) {
+      mStore.close();
+    }
+  }
+
+  private static byte[] bytesOf(ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    // 容量较小时只有一个分段，LRU 在整个缓存内生效。
+    final ValueCache cache = new ValueCache(3, null);
+    cache.put("a", String.class, "a");
+    cache.put("b", String.class, "b");
+    cache.put("c", String.class, "c");
+    assertEquals("a", cache.get("a", String.class));
+    cache.put("d", String.class, "d");
+
+    assertNull(cache.get("b", String.class));
+    assertEquals("a", cache.get("a", String.class));
+    assertEquals("c", cache.get("c", String.class));
+    assertEquals("d", cache.get("d", String.class));
+
+    final DirStore.CacheStats stats = cache.stats();
+    assertEquals(4, stats.hitCount);
+    assertEquals(1, stats.missCount);
+    assertEquals(1, stats.evictionCount);
+    assertEquals(3, stats.entryCount);
+  }
+
+  @Test
+  public void keepsTotalSizeAcrossSegments() {
+    final ValueCache cache = new ValueCache(100, new DirStore.ValueSizer() {
+      @Override public long sizeOf(String key, Object value) {
+        return ((byte[]) value).length;
+      }
+    });
+
+    for (int i = 0; i < 1000; i++) {
+      cache.put("key" + i, byte[].class, new byte[3]);
+    }
+
+    final DirStore.CacheStats stats = cache.stats();
+    assertTrue(stats.size <= 100);
+    assertEquals(stats.size, stats.entryCount * 3L);
+    assertEquals(1000 - stats.entryCount, stats.evictionCount);
+  }
+
+  @Test
+  public void dropsReadValueWhenChanged() {
+    final ValueCache cache = new ValueCache(10, null);
+    final long version = cache.version("a");
+    cache.put("a", String.class, "new");
+    // 读取期间发生写入，磁盘读取到的旧值不能覆盖新值。
+    assertEquals("old", cache.putIfUnchanged("a", String.class, "old", version));
+    assertEquals("new", cache.get("a", String.class));
+
+    final long removed = cache.version("a");
+    cache.remove("a");
+    cache.putIfUnchanged("a", String.class, "old", removed);
+    assertNull(cache.get("a", String.class));
+
+    cache.putIfUnchanged("a", String.class, "disk", cache.version("a"));
+    assertEquals("disk", cache.get("a", String.class));
+
+    final long cleared = cache.version("a");
+    cache.clear();
+    cache.putIfUnchanged("a", String.class, "old", cleared);
+    assertNull(cache.get("a", String.class));
+  }
+
+  @Test
+  public void treatsTypeMismatchAsMiss() {
+    final ValueCache cache = new ValueCache(10, null);
+    cache.put("a", String.class, "a");
+    assertNull(cache.get("a", byte[].class));
+    assertEquals(1, cache.stats().missCount);
+  }
+
+  @Test
+  public void copiesBytes() {
+    final ValueCache cache = new ValueCache(10, null);
+    final byte[] value = {1, 2, 3};
+    cache.put("a", byte[].class, value);
+    value[0] = 9;
+
+    final byte[] hit = cache.get("a", byte[].class);
+    assertArrayEquals(new byte[]{1, 2, 3}, hit);
+    hit[1] = 9;
+    assertArrayEquals(new byte[]{1, 2, 3}, cache.get("a", byte[].class));
+  }
+
+  @Test
+  public void returnsReadOnlyBuffersOnHitAndMiss() {
+    final ValueCache cache = new ValueCache(10, null);
+    final ByteBuffer read = ByteBuffer.allocateDirect(3);
+    read.put(new byte[]{1, 2, 3}).flip();
+
+    final ByteBuffer miss = cache.putIfUnchanged("a", ByteBuffer.class, read, cache.version("a"));
+    final ByteBuffer hit = cache.get("a", ByteBuffer.class);
+    for (ByteBuffer buffer : new ByteBuffer[]{miss, hit}) {
+      assertTrue(buffer.isReadOnly());
+      assertTrue(buffer.isDirect());
+      assertArrayEquals(new byte[]{1, 2, 3}, bytesOf(buffer));
+    }
+
+    // 每次读取的 position 互相独立。
+    hit.get();
+    assertEquals(3, cache.get("a", ByteBuffer.class).remaining());
+
+    // 写入的缓冲区复制后保存，保持缓冲区类型。
+    final ByteBuffer written = ByteBuffer.wrap(new byte[]{4, 5});
+    cache.put("b", ByteBuffer.class, written);
+    written.put(0, (byte) 9);
+    final ByteBuffer copy = cache.get("b", ByteBuffer.class);
+    assertTrue(copy.isReadOnly());
+    assertFalse(copy.isDirect());
+    assertArrayEquals(new byte[]{4, 5}, bytesOf(copy));
+    assertEquals(2, written.remaining());
+  }
+
+  @Test
+  public void storeReturnsSameBufferKindOnHitAndMiss() throws IOException {
+    final String dir = mFolder.newFolder("ds").getPath();
+    mStore = new DirStore.Builder(dir).callbackExecutor(CallbackExecutors.direct()).create();
+    mStore.with("a", DirStore.BYTE_BUFFER_IO_ADAPTER).write(ByteBuffer.wrap(new byte[]{1, 2}));
+    mStore.close();
+
+    mStore = new DirStore.Builder(dir)
+        .callbackExecutor(CallbackExecutors.direct())
+        .cache(16)
+        .create();
+    final ByteBuffer miss = mStore.with("a", DirStore.BYTE_BUFFER_IO_ADAPTER).read();
+    final ByteBuffer hit = mStore.with("a", DirStore.BYTE_BUFFER_IO_ADAPTER).read();
+    assertEquals(1, mStore.cacheStats().hitCount);
+    assertTrue(miss.isDirect());
+    assertTrue(hit.isDirect());
+    assertTrue(miss.isReadOnly());
+    assertTrue(hit.isReadOnly());
+    assertArrayEquals(new byte[]{1, 2}, bytesOf(miss));
+    assertArrayEquals(new byte[]{1, 2}, bytesOf(hit));
+  }
+}
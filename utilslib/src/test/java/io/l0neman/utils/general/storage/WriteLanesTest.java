@@ -0,0 +1,124 @@
+package io.l0neman.utils.general.storage;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteLanesTest {
+
+  private WriteLanes mLanes;
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (mLanes != null) {
+      mLanes.shutdown();
+      mLanes.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void runsTasksOfSameKeyInOrder() throws InterruptedException {
+    mLanes = new WriteLanes(4);
+    final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+    for (int i = 0; i < 1000; i++) {
+      final int value = i;
+      mLanes.execute("a", new Runnable() {
+        @Override public void run() {
+          executed.add(value);
+        }
+      });
+    }
+
+    mLanes.shutdown();
+    assertTrue(mLanes.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1000, executed.size());
+    for (int i = 0; i < executed.size(); i++) {
+      assertEquals(i, (int) executed.get(i));
+    }
+  }
+
+  @Test
+  public void barrierRunsAfterSubmittedTasksOfAllLanes() throws InterruptedException {
+    mLanes = new WriteLanes(4);
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AtomicInteger before = new AtomicInteger();
+    final AtomicInteger seenByBarrier = new AtomicInteger(-1);
+    final AtomicInteger beforeBarrier = new AtomicInteger();
+    for (int i = 0; i < 100; i++) {
+      mLanes.execute("key" + i, new Runnable() {
+        @Override public void run() {
+          try {
+            gate.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          before.incrementAndGet();
+        }
+      });
+    }
+
+    mLanes.executeBarrier(new Runnable() {
+      @Override public void run() {
+        seenByBarrier.set(before.get());
+      }
+    });
+
+    // 屏障之后提交的任务在屏障执行完成后才执行。
+    final CountDownLatch after = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++) {
+      mLanes.execute("key" + i, new Runnable() {
+        @Override public void run() {
+          if (seenByBarrier.get() < 0) {
+            beforeBarrier.incrementAndGet();
+          }
+          after.countDown();
+        }
+      });
+    }
+
+    gate.countDown();
+    assertTrue(after.await(10, TimeUnit.SECONDS));
+    assertEquals(100, seenByBarrier.get());
+    assertEquals(0, beforeBarrier.get());
+  }
+
+  @Test
+  public void cancelsBarrierWhenLaneRejects() throws Exception {
+    mLanes = new WriteLanes(4);
+    final Field field = WriteLanes.class.getDeclaredField("mLanes");
+    field.setAccessible(true);
+    // 模拟关闭过程中只有部分通道已停止。
+    ((ThreadPoolExecutor[]) field.get(mLanes))[2].shutdown();
+
+    final AtomicBoolean executed = new AtomicBoolean();
+    try {
+      mLanes.executeBarrier(new Runnable() {
+        @Override public void run() {
+          executed.set(true);
+        }
+      });
+      fail("barrier accepted by a stopped lane.");
+    } catch (RejectedExecutionException expected) {
+    }
+
+    // 已提交的屏障任务不会一直等待未提交的通道。
+    mLanes.shutdown();
+    assertTrue(mLanes.awaitTermination(10, TimeUnit.SECONDS));
+    assertFalse(executed.get());
+  }
+}